@@ -0,0 +1,256 @@
+package org.lm.gedml;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * The ANSEL character set, decoded and encoded a block at a time.
+ * <p/>
+ * The lookup tables are built once from the conversion tables in AnselInputStreamReader and
+ * AnselOutputStreamWriter, so the two readers and this charset always agree.
+ * Bytes 0xE0-0xFF are non-spacing diacritics that precede the letter they modify; the decoder holds
+ * such a byte until it sees the next one, which may arrive in a later block.
+ * The charset is registered under the name "ANSEL" by AnselCharsetProvider.
+ */
+public class AnselCharset extends Charset {
+   public static final String NAME = "ANSEL";
+
+   private static final int FIRST_DIACRITIC = 0xE0;
+   private static final char NO_MATCH = 0;
+   // Written for Unicode characters that have no ANSEL equivalent (inverted question mark)
+   private static final int UNMAPPED = 0xC5;
+
+   // byte -> char
+   private static final char[] DECODE = new char[256];
+   // [diacritic - 0xE0][next byte] -> combined char, or NO_MATCH
+   private static final char[][] DECODE_COMBINED = new char[256 - FIRST_DIACRITIC][256];
+   // [char >> 8][char & 0xFF] -> one or two ANSEL bytes, or NO_MATCH; null pages have no matches.
+   // Only used for characters above ASCII, which are written unchanged.
+   private static final char[][] ENCODE = new char[256][];
+
+   static {
+      for (int b = 0; b < 256; b++) {
+         DECODE[b] = (char)(b < 128 ? b : AnselInputStreamReader.convert1(b));
+      }
+      for (int b = FIRST_DIACRITIC; b < 256; b++) {
+         for (int next = 1; next < 256; next++) {
+            int u = AnselInputStreamReader.convert2(b * 256 + next);
+            if (u > 0) {
+               DECODE_COMBINED[b - FIRST_DIACRITIC][next] = (char)u;
+            }
+         }
+      }
+      for (int c = 128; c < 0x10000; c++) {
+         int ansel = AnselOutputStreamWriter.convert(c);
+         if (ansel != UNMAPPED || c == 0xBF) {
+            if (ENCODE[c >> 8] == null) {
+               ENCODE[c >> 8] = new char[256];
+            }
+            ENCODE[c >> 8][c & 0xFF] = (char)ansel;
+         }
+      }
+   }
+
+   public AnselCharset() {
+      super(NAME, null);
+   }
+
+   public boolean contains(Charset cs) {
+      return cs instanceof AnselCharset || cs.name().equals("US-ASCII");
+   }
+
+   public CharsetDecoder newDecoder() {
+      return new Decoder(this);
+   }
+
+   public CharsetEncoder newEncoder() {
+      return new Encoder(this);
+   }
+
+   private static int toAnsel(char c) {
+      char[] page = ENCODE[c >> 8];
+      int ansel = (page == null ? NO_MATCH : page[c & 0xFF]);
+      return ansel == NO_MATCH ? UNMAPPED : ansel;
+   }
+
+   private static class Decoder extends CharsetDecoder {
+      // diacritic byte waiting for the byte that follows it, or -1
+      private int pending = -1;
+
+      Decoder(Charset cs) {
+         super(cs, 1.0f, 1.0f);
+      }
+
+      protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+         if (in.hasArray() && out.hasArray()) {
+            return decodeArrayLoop(in, out);
+         }
+         return decodeBufferLoop(in, out);
+      }
+
+      private CoderResult decodeArrayLoop(ByteBuffer in, CharBuffer out) {
+         byte[] src = in.array();
+         int sp = in.arrayOffset() + in.position();
+         int sl = in.arrayOffset() + in.limit();
+         char[] dst = out.array();
+         int dp = out.arrayOffset() + out.position();
+         int dl = out.arrayOffset() + out.limit();
+         try {
+            while (sp < sl) {
+               if (dp >= dl) {
+                  return CoderResult.OVERFLOW;
+               }
+               int b = src[sp] & 0xFF;
+               if (pending >= 0) {
+                  char c = DECODE_COMBINED[pending - FIRST_DIACRITIC][b];
+                  if (c != NO_MATCH) {
+                     sp++;
+                  }
+                  else {
+                     // emit the diacritic by itself and look at this byte again
+                     c = DECODE[pending];
+                  }
+                  dst[dp++] = c;
+                  pending = -1;
+               }
+               else {
+                  sp++;
+                  if (b >= FIRST_DIACRITIC) {
+                     pending = b;
+                  }
+                  else {
+                     dst[dp++] = DECODE[b];
+                  }
+               }
+            }
+            return CoderResult.UNDERFLOW;
+         } finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+         }
+      }
+
+      private CoderResult decodeBufferLoop(ByteBuffer in, CharBuffer out) {
+         while (in.hasRemaining()) {
+            if (!out.hasRemaining()) {
+               return CoderResult.OVERFLOW;
+            }
+            int b = in.get(in.position()) & 0xFF;
+            if (pending >= 0) {
+               char c = DECODE_COMBINED[pending - FIRST_DIACRITIC][b];
+               if (c != NO_MATCH) {
+                  in.get();
+               }
+               else {
+                  c = DECODE[pending];
+               }
+               out.put(c);
+               pending = -1;
+            }
+            else {
+               in.get();
+               if (b >= FIRST_DIACRITIC) {
+                  pending = b;
+               }
+               else {
+                  out.put(DECODE[b]);
+               }
+            }
+         }
+         return CoderResult.UNDERFLOW;
+      }
+
+      protected CoderResult implFlush(CharBuffer out) {
+         if (pending >= 0) {
+            if (!out.hasRemaining()) {
+               return CoderResult.OVERFLOW;
+            }
+            out.put(DECODE[pending]);
+            pending = -1;
+         }
+         return CoderResult.UNDERFLOW;
+      }
+
+      protected void implReset() {
+         pending = -1;
+      }
+   }
+
+   private static class Encoder extends CharsetEncoder {
+      Encoder(Charset cs) {
+         super(cs, 1.1f, 2.0f, new byte[] {(byte)UNMAPPED});
+      }
+
+      public boolean canEncode(char c) {
+         return c < 128 || toAnsel(c) != UNMAPPED || c == 0xBF;
+      }
+
+      protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+         if (in.hasArray() && out.hasArray()) {
+            return encodeArrayLoop(in, out);
+         }
+         return encodeBufferLoop(in, out);
+      }
+
+      private CoderResult encodeArrayLoop(CharBuffer in, ByteBuffer out) {
+         char[] src = in.array();
+         int sp = in.arrayOffset() + in.position();
+         int sl = in.arrayOffset() + in.limit();
+         byte[] dst = out.array();
+         int dp = out.arrayOffset() + out.position();
+         int dl = out.arrayOffset() + out.limit();
+         try {
+            while (sp < sl) {
+               char c = src[sp];
+               if (c < 128) {
+                  if (dp >= dl) {
+                     return CoderResult.OVERFLOW;
+                  }
+                  dst[dp++] = (byte)c;
+               }
+               else {
+                  int ansel = toAnsel(c);
+                  if (ansel < 256) {
+                     if (dp >= dl) {
+                        return CoderResult.OVERFLOW;
+                     }
+                     dst[dp++] = (byte)ansel;
+                  }
+                  else {
+                     if (dp + 1 >= dl) {
+                        return CoderResult.OVERFLOW;
+                     }
+                     dst[dp++] = (byte)(ansel >> 8);
+                     dst[dp++] = (byte)ansel;
+                  }
+               }
+               sp++;
+            }
+            return CoderResult.UNDERFLOW;
+         } finally {
+            in.position(sp - in.arrayOffset());
+            out.position(dp - out.arrayOffset());
+         }
+      }
+
+      private CoderResult encodeBufferLoop(CharBuffer in, ByteBuffer out) {
+         while (in.hasRemaining()) {
+            char c = in.get(in.position());
+            int ansel = (c < 128 ? c : toAnsel(c));
+            if (out.remaining() < (ansel < 256 ? 1 : 2)) {
+               return CoderResult.OVERFLOW;
+            }
+            if (ansel >= 256) {
+               out.put((byte)(ansel >> 8));
+            }
+            out.put((byte)ansel);
+            in.get();
+         }
+         return CoderResult.UNDERFLOW;
+      }
+   }
+}
@@ -0,0 +1,22 @@
+package org.lm.gedml;
+
+import java.nio.charset.Charset;
+import java.nio.charset.spi.CharsetProvider;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * Makes the ANSEL charset available through Charset.forName("ANSEL").
+ * Registered in META-INF/services/java.nio.charset.spi.CharsetProvider.
+ */
+public class AnselCharsetProvider extends CharsetProvider {
+   private static final Charset ANSEL = new AnselCharset();
+
+   public Iterator<Charset> charsets() {
+      return Collections.singletonList(ANSEL).iterator();
+   }
+
+   public Charset charsetForName(String charsetName) {
+      return AnselCharset.NAME.equalsIgnoreCase(charsetName) ? ANSEL : null;
+   }
+}
@@ -1,6 +1,9 @@
 package org.lm.gedml;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
 
 /*
 * org.lm.gedml.AnselInputStreamReader<BR>
@@ -11,19 +14,28 @@ import java.io.*;
 */
 
 // 20 May 1998: conversion tables updated with input from John Cowan (cowan@locke.ccil.org)
+// The input is now read in blocks and decoded by AnselCharset, which builds its lookup tables
+// from the conversion tables below.
 
 public class AnselInputStreamReader extends InputStreamReader
 {
+    private static final int BUFFER_SIZE = 8192;
+
     private InputStream input;
-    private int pending;
+    private CharsetDecoder decoder;
+    private ByteBuffer bytes;
+    private boolean eof = false;
+    private boolean flushed = false;
+    private char[] single = new char[1];
 
     public AnselInputStreamReader(InputStream in)
     throws IOException
     {
         super(in);
         input = in;
-        pending = input.read(); // we read one character ahead to cope
-                                // with non-spacing diacriticals
+        decoder = new AnselCharset().newDecoder();
+        bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        bytes.flip();
     }
 
     /*
@@ -32,39 +44,41 @@ public class AnselInputStreamReader extends InputStreamReader
 
     public int read() throws IOException
     {
-        int b = pending;
-        if (b<0) return b;     // return EOF unchanged
-        pending = input.read();
-        if (b<128) return b;   // return ASCII characters unchanged
-
-        // try to match two ansel chars if we can
-        if (pending>0 && b>=0xE0 && b<=0xFF) {
-            int u = convert2(b*256 + pending);
-            if (u>0) {
-                pending = input.read();
-                return u;
-            }
-        }
-        // else match one char
-        return(convert1(b));
+        return read(single, 0, 1) < 0 ? -1 : single[0];
     }
 
     /*
-    * Fill a supplied buffer with UNICODE characters
+    * Fill a supplied buffer with UNICODE characters.
+    * The decoder holds on to a trailing non-spacing diacritical until the next block is read.
     */
 
     public int read(char cbuf[], int off, int len)
                      throws IOException
     {
-        if (pending<0) return -1;  // have already hit EOF
-        for (int i=off; i<off+len; i++) {
-            int c = read();
-            if (c<0) {
-               return i-off;
+        if (len == 0) return 0;
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !flushed) {
+            if (!eof && !bytes.hasRemaining()) {
+                int n = input.read(bytes.array(), 0, bytes.capacity());
+                if (n < 0) {
+                    eof = true;
+                    n = 0;
+                }
+                bytes.position(0);
+                bytes.limit(n);
+            }
+            decoder.decode(bytes, out, eof);
+            if (eof) {
+                flushed = decoder.flush(out).isUnderflow();
             }
-            cbuf[off+i] = (char)c;            
         }
-        return len;
+        int n = out.position() - off;
+        return n == 0 ? -1 : n;
+    }
+
+    public boolean ready() throws IOException
+    {
+        return bytes.hasRemaining() || input.available() > 0;
     }
 
     /*
@@ -79,7 +93,7 @@ public class AnselInputStreamReader extends InputStreamReader
     * Conversion table for ANSEL characters coded in one byte
     */
 
-    private int convert1( int ansel )
+    static int convert1( int ansel )
     {
       switch(ansel) {
         case 0x8D: return 0x200D;  //  zero width joiner
@@ -164,7 +178,7 @@ public class AnselInputStreamReader extends InputStreamReader
     * Conversion table for ANSEL characters coded in two bytes
     */
 
-    private int convert2( int ansel )
+    static int convert2( int ansel )
     {
       switch(ansel) {
         case 0xE041: return 0x1EA2;  //  capital a with hook above
@@ -12,60 +12,15 @@ import java.io.*;
 */
 
 // 20 May 1998: conversion tables updated with input from John Cowan (cowan@locke.ccil.org)
+// Characters are now buffered and encoded in blocks by AnselCharset, which builds its lookup table
+// from the conversion table below. Output is written when the buffer fills, or on flush() or close().
 
 public class AnselOutputStreamWriter extends OutputStreamWriter
 {
-    private OutputStream output;
-
     public AnselOutputStreamWriter(OutputStream out)
     throws IOException
     {
-        super(out);
-        output = out;
-    }
-
-    /*
-    * Write one UNICODE character
-    */
-
-    public void write(int c) throws IOException
-    {
-
-        int ansel;
-        if (c<128) output.write(c);
-        else {
-          ansel = convert(c);
-          if (ansel < 256) {
-            output.write(ansel);
-          } else {
-            output.write(ansel / 256);
-            output.write(ansel % 256);
-          }
-        }
-    }
-
-    /*
-    * Write part of an array of UNICODE characters
-    */
-
-    public void write(char cbuf[], int off, int len)
-                     throws IOException
-    {
-        for (int i=off; i<off+len; i++) {
-            write(cbuf[i]);
-        }
-    }
-
-    /*
-    * Write a string of UNICODE characters
-    */
-
-    public void write(String s)
-                     throws IOException
-    {
-        for (int i=0; i<s.length(); i++) {
-            write((int)s.charAt(i));
-        }
+        super(out, new AnselCharset().newEncoder());
     }
 
     /*
@@ -80,7 +35,7 @@ public class AnselOutputStreamWriter extends OutputStreamWriter
     * Conversion table for UNICODE to Ansel
     */
 
-    private int convert( int unicode )
+    static int convert( int unicode )
     {
       switch(unicode) {
 
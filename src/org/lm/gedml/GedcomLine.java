@@ -1,108 +1,451 @@
 package org.lm.gedml;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.werelate.util.Utils;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 /**
- * Created by IntelliJ IDEA.
- * User: npowell
- * Date: May 2, 2007
- * Time: 9:59:22 AM
- * To change this template use File | Settings | File Templates.
+ * Splits GEDCOM lines into level, xref, tag, pointer and value.
+ * <p/>
+ * Lines are read into a reusable char buffer, control characters are dropped as
+ * they are copied, and the line is tokenized with a hand-written scanner that
+ * accepts exactly what the former pattern
+ * <code>^\s*(\d)\s+((@([^@]+)@\s(\w+))|((\w+)(\s(@([^@]+)@))?))(\s(.*))?$</code>
+ * accepted. The only per-line allocations are the strings and arrays handed out
+ * by the getters; tags are shared through a small symbol table.
+ * <p/>
+ * Lines can also be read from a byte buffer such as a memory-mapped file, for character sets
+ * in which the bytes 0-127 are ASCII. Line ends are found at the byte level, ASCII bytes are
+ * copied straight into the line, and only the rest of a line from its first non-ASCII byte
+ * is run through the decoder.
  */
 public class GedcomLine {
-   private static final Logger logger = LogManager.getLogger("org.werelate.gedcom.Gedcom");
-   private static final String tagRegex = "(\\w+)";
-   private static final String idRegex = "(@([^@]+)@)";
-   private static final Pattern pGedcomLine = Pattern.compile(
-         "^\\s*(\\d)\\s+((" + idRegex + "\\s" + tagRegex +
-         ")|(" + tagRegex + "(\\s" + idRegex + ")?))(\\s(.*))?$"
-   );
-
-   private static final int LEVEL_NUM_GROUP = 1;
-   private static final int BEFORE_ID_GROUP = 5;
-   private static final int AFTER_TAG_GROUP = 6;
-   private static final int BEFORE_TAG_GROUP = 8;
-   private static final int AFTER_ID_GROUP = 11;
-   private static final int REMAINDER_GROUP = 13;
-
-   private Matcher m = null;
-
-   public GedcomLine (String line)
-   {
-      Matcher m = pGedcomLine.matcher(line);
-      if(m.find())
-      {
-         this.m = m;
-      } else
-      {
-         logger.info("Line does not appear to be valid, so we will append to tag above: " + line);
+   private static final int MAX_TAGS = 4096;
+
+   private Reader reader = null;
+   private char[] in = new char[8192];
+   private int inPos = 0;
+   private int inLen = 0;
+   private boolean skipLF = false;
+
+   private ByteBuffer bytes = null;
+   private ByteBuffer byteView = null;
+   private byte[] tail = new byte[256];
+   private CharsetDecoder decoder = null;
+
+   private char[] buf = new char[256];
+   private int len = 0;
+
+   private boolean parsed = false;
+   private int level;
+   private int xrefStart, xrefEnd;
+   private int tagStart, tagEnd;
+   private int idStart, idEnd;
+   private int remStart, remEnd;
+
+   private String[] tags = new String[256];
+   private int numTags = 0;
+
+   /**
+    * Creates a scanner that reads lines from the reader with readLine()
+    */
+   public GedcomLine(Reader reader) {
+      this.reader = reader;
+   }
+
+   /**
+    * Creates a scanner that reads lines from the buffer's position to its limit with readLine()
+    * @param charset character set of the bytes; must encode ASCII as single bytes
+    */
+   public GedcomLine(ByteBuffer bytes, Charset charset) {
+      this.bytes = bytes;
+      byteView = bytes.duplicate();
+      decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+   }
+
+   /**
+    * Parses a single line as is
+    */
+   public GedcomLine(String line) {
+      len = line.length();
+      ensureCapacity(len);
+      line.getChars(0, len, buf, 0);
+      parse();
+   }
+
+   /**
+    * Reads the next line, using the same line terminators as BufferedReader.readLine()
+    * and dropping control characters other than tab.
+    * @return false at the end of the input
+    */
+   public boolean readLine() throws IOException {
+      len = 0;
+      parsed = false;
+      if (bytes != null) {
+         return readByteLine();
+      }
+      boolean sawChars = false;
+      for (;;) {
+         if (inPos >= inLen) {
+            inLen = reader.read(in, 0, in.length);
+            inPos = 0;
+            if (inLen <= 0) {
+               inLen = 0;
+               return sawChars;
+            }
+         }
+         if (skipLF) {
+            skipLF = false;
+            if (in[inPos] == '\n') {
+               inPos++;
+               continue;
+            }
+         }
+         while (inPos < inLen) {
+            char c = in[inPos++];
+            if (c == '\n') {
+               return true;
+            } else if (c == '\r') {
+               skipLF = true;
+               return true;
+            }
+            sawChars = true;
+            if (c >= 32 || c == 9) {
+               if (len == buf.length) {
+                  ensureCapacity(len + 1);
+               }
+               buf[len++] = c;
+            }
+         }
+      }
+   }
+
+   private boolean readByteLine() {
+      int pos = bytes.position();
+      int limit = bytes.limit();
+      if (skipLF) {
+         skipLF = false;
+         if (pos < limit && bytes.get(pos) == '\n') {
+            pos++;
+         }
+      }
+      if (pos >= limit) {
+         bytes.position(pos);
+         return false;
+      }
+      // copy ASCII bytes until the end of the line or the first byte that has to be decoded
+      int end = pos;
+      int decodeStart = -1;
+      byte b = 0;
+      while (end < limit && (b = bytes.get(end)) != '\n' && b != '\r') {
+         if (decodeStart < 0) {
+            if (b < 0) {
+               decodeStart = end;
+            }
+            else if (b >= 32 || b == 9) {
+               if (len == buf.length) {
+                  ensureCapacity(len + 1);
+               }
+               buf[len++] = (char)b;
+            }
+         }
+         end++;
+      }
+      if (end < limit) {
+         skipLF = (b == '\r');
+         bytes.position(end + 1);
+      }
+      else {
+         bytes.position(end);
+      }
+      if (decodeStart >= 0) {
+         decode(decodeStart, end);
+      }
+      return true;
+   }
+
+   // Decodes bytes [start, end) onto the end of the line, dropping control characters.
+   // The bytes are copied out of the mapped buffer first so the decoder can work on arrays.
+   private void decode(int start, int end) {
+      int n = end - start;
+      if (n > tail.length) {
+         tail = new byte[Math.max(n, tail.length * 2)];
+      }
+      byteView.limit(end);
+      byteView.position(start);
+      byteView.get(tail, 0, n);
+      ensureCapacity(len + (int)Math.ceil(n * decoder.maxCharsPerByte()));
+      CharBuffer out = CharBuffer.wrap(buf, len, buf.length - len);
+      decoder.reset();
+      decoder.decode(ByteBuffer.wrap(tail, 0, n), out, true);
+      decoder.flush(out);
+      int decodedEnd = out.position();
+      for (int i = len; i < decodedEnd; i++) {
+         char c = buf[i];
+         if (c >= 32 || c == 9) {
+            buf[len++] = c;
+         }
+      }
+   }
+
+   /**
+    * Closes the reader, if there is one
+    */
+   public void close() throws IOException {
+      if (reader != null) {
+         reader.close();
       }
    }
 
+   /**
+    * @return the number of characters in the current line
+    */
+   public int length() {
+      return len;
+   }
+
+   /**
+    * @return a copy of the current line
+    */
+   public char[] getLineChars() {
+      char[] rval = new char[len];
+      System.arraycopy(buf, 0, rval, 0, len);
+      return rval;
+   }
+
+   /**
+    * Tokenizes the current line
+    * @return true if the line was a standard GEDCOM line; the caller reports the lines that weren't
+    */
+   public boolean parse() {
+      parsed = tokenize();
+      return parsed;
+   }
+
+   /**
+    * Tokenizes the current line
+    * @return true if the line starts a level-0 record other than the trailer
+    */
+   boolean startsRecord() {
+      parsed = tokenize();
+      return parsed && level == 0 && !getTag().equals("TRLR");
+   }
+
    /**
     *
     * @return true if the line was a standard GEDCOM line and was therefore parsed, false otherwise.
     */
    public boolean wasAbleToParse() {
-      return m != null;
+      return parsed;
+   }
+
+   public int getLevel() {
+      return parsed ? level : -1;
    }
 
    public String getLevelNum () {
-      if (m!=null)
-      {
-         return m.group(LEVEL_NUM_GROUP);
-      }
-      return null;
+      return parsed ? String.valueOf(level) : null;
    }
 
+   /**
+    * @return the xref id in front of the tag
+    */
    public String getXRef () {
-      if (m!=null)
-      {
-         return m.group(BEFORE_ID_GROUP);
-      }
-      return null;
+      return parsed && xrefStart >= 0 ? new String(buf, xrefStart, xrefEnd - xrefStart) : null;
    }
 
+   /**
+    * @return the pointer following the tag with any '|', '#' and '/' characters removed
+    */
    public String getID () {
-      if(m!=null)
-      {
-         String returnValue = m.group(AFTER_ID_GROUP);
-         if (Utils.isEmpty(returnValue))
-         {
-            return returnValue;
-         } else
-         {
-            return returnValue.replaceAll("[|#/]+", "");
-         }
+      if (!parsed || idStart < 0) {
+         return null;
+      }
+      boolean blank = true;
+      boolean clean = true;
+      for (int i = idStart; i < idEnd; i++) {
+         char c = buf[i];
+         if (c > ' ') blank = false;
+         if (c == '|' || c == '#' || c == '/') clean = false;
       }
-      return null;
+      if (blank || clean) {
+         return new String(buf, idStart, idEnd - idStart);
+      }
+      StringBuffer id = new StringBuffer(idEnd - idStart);
+      for (int i = idStart; i < idEnd; i++) {
+         char c = buf[i];
+         if (c != '|' && c != '#' && c != '/') id.append(c);
+      }
+      return id.toString();
    }
 
    public String getTag() {
-      if (m!=null)
-      {
-         String tag = m.group(BEFORE_TAG_GROUP);
-         if (tag != null)
-         {
+      return parsed ? internTag(tagStart, tagEnd) : null;
+   }
+
+   public String getRemainder () {
+      return parsed && remStart >= 0 ? new String(buf, remStart, remEnd - remStart) : null;
+   }
+
+   /**
+    * @return a copy of the value, or null if the line has no value
+    */
+   public char[] getRemainderChars() {
+      if (!parsed || remStart < 0) {
+         return null;
+      }
+      char[] rval = new char[remEnd - remStart];
+      System.arraycopy(buf, remStart, rval, 0, rval.length);
+      return rval;
+   }
+
+   private boolean tokenize() {
+      xrefStart = idStart = remStart = -1;
+      int i = 0;
+      while (i < len && isSpace(buf[i])) i++;
+      if (i == len || buf[i] < '0' || buf[i] > '9') return false;
+      level = buf[i++] - '0';
+      int ws = i;
+      while (i < len && isSpace(buf[i])) i++;
+      if (i == ws || i == len) return false;
+
+      if (buf[i] == '@') {
+         // @XREF@ TAG [VALUE]
+         int start = i + 1;
+         int end = indexOfAt(start);
+         if (end <= start || end + 1 == len || !isSpace(buf[end + 1])) return false;
+         i = end + 2;
+         tagStart = i;
+         while (i < len && isWord(buf[i])) i++;
+         if (i == tagStart) return false;
+         tagEnd = i;
+         if (!matchRemainder(i)) return false;
+         xrefStart = start;
+         xrefEnd = end;
+         return true;
+      }
+
+      // TAG [@POINTER@] [VALUE]
+      tagStart = i;
+      while (i < len && isWord(buf[i])) i++;
+      if (i == tagStart) return false;
+      tagEnd = i;
+      if (i + 1 < len && isSpace(buf[i]) && buf[i + 1] == '@') {
+         int start = i + 2;
+         int end = indexOfAt(start);
+         if (end > start && matchRemainder(end + 1)) {
+            idStart = start;
+            idEnd = end;
+            return true;
+         }
+      }
+      return matchRemainder(i);
+   }
+
+   // Matches the trailing (\s(.*))?$ of the pattern at position i
+   private boolean matchRemainder(int i) {
+      if (i < len && isSpace(buf[i])) {
+         int p = i + 1;
+         while (p < len && !isLineTerminator(buf[p])) p++;
+         if (isEnd(p)) {
+            remStart = i + 1;
+            remEnd = p;
+            return true;
+         }
+      }
+      remStart = -1;
+      return isEnd(i);
+   }
+
+   // Where a non-multiline $ matches: at the end or in front of a final line terminator
+   private boolean isEnd(int i) {
+      if (i == len) return true;
+      if (i == len - 2) return buf[i] == '\r' && buf[i + 1] == '\n';
+      if (i == len - 1) {
+         char c = buf[i];
+         if (c == '\n') return i == 0 || buf[i - 1] != '\r';
+         return isLineTerminator(c);
+      }
+      return false;
+   }
+
+   private int indexOfAt(int i) {
+      while (i < len && buf[i] != '@') i++;
+      return i < len ? i : -1;
+   }
+
+   private static boolean isSpace(char c) {
+      return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+   }
+
+   private static boolean isWord(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+   }
+
+   private static boolean isLineTerminator(char c) {
+      return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+   }
+
+   private void ensureCapacity(int size) {
+      if (size > buf.length) {
+         char[] newBuf = new char[Math.max(size, buf.length * 2)];
+         System.arraycopy(buf, 0, newBuf, 0, len);
+         buf = newBuf;
+      }
+   }
+
+   // Returns a shared String for the tag, adding it to the open-addressed symbol table
+   private String internTag(int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+         hash = 31 * hash + buf[i];
+      }
+      int mask = tags.length - 1;
+      int slot = hash & mask;
+      String tag;
+      while ((tag = tags[slot]) != null) {
+         if (tag.hashCode() == hash && regionEquals(tag, start, end)) {
             return tag;
-         } else
-         {
-            return m.group(AFTER_TAG_GROUP);
          }
+         slot = (slot + 1) & mask;
       }
-      return null;
+      tag = new String(buf, start, end - start);
+      if (numTags < MAX_TAGS) {
+         tags[slot] = tag;
+         if (++numTags * 2 > tags.length) {
+            rehashTags();
+         }
+      }
+      return tag;
    }
 
-   public String getRemainder () {
-      if (m!=null)
-      {
-         return m.group(REMAINDER_GROUP);
+   private boolean regionEquals(String tag, int start, int end) {
+      if (tag.length() != end - start) return false;
+      for (int i = start; i < end; i++) {
+         if (tag.charAt(i - start) != buf[i]) return false;
+      }
+      return true;
+   }
+
+   private void rehashTags() {
+      String[] old = tags;
+      tags = new String[old.length * 2];
+      int mask = tags.length - 1;
+      for (int i = 0; i < old.length; i++) {
+         if (old[i] != null) {
+            int slot = old[i].hashCode() & mask;
+            while (tags[slot] != null) {
+               slot = (slot + 1) & mask;
+            }
+            tags[slot] = old[i];
+         }
       }
-      return null;
    }
 }
@@ -3,9 +3,14 @@ package org.lm.gedml;
 import java.util.*;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 import org.xml.sax.*;
 import org.xml.sax.helpers.*;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.werelate.gedcom.Gedcom;
@@ -41,6 +46,7 @@ public class GedcomParser implements XMLReader, Locator {
 
    private String systemId;
    private int lineNr;
+   private boolean memoryMapped = false;
 
    Gedcom gedcom = null;
 
@@ -54,6 +60,20 @@ public class GedcomParser implements XMLReader, Locator {
       contentHandler = handler;
    }
 
+   /**
+    * Sets whether local files are parsed by mapping them into memory
+    * instead of reading them through a BufferedReader.
+    * Files read as UTF-16 and files that are too large to map are always read through the reader.
+    * @param memoryMapped true to map local files
+    */
+   public void setMemoryMapped(boolean memoryMapped) {
+      this.memoryMapped = memoryMapped;
+   }
+
+   public boolean isMemoryMapped() {
+      return memoryMapped;
+   }
+
    /**
     * Get the ContentHandler
     */
@@ -125,7 +145,11 @@ public class GedcomParser implements XMLReader, Locator {
    public static String getCharEncoding(InputStream is) throws IOException {
       BufferedReader in = new BufferedReader(new InputStreamReader(is));
 
-      return getCharEncoding(in);
+      try {
+         return getCharEncoding(in);
+      } finally {
+         in.close();
+      }
    }
 
    private static String getCharEncoding(BufferedReader in) throws IOException {
@@ -231,7 +255,6 @@ public class GedcomParser implements XMLReader, Locator {
          }
       }
 
-      in.close();
       return rval;
    }
 
@@ -246,91 +269,157 @@ public class GedcomParser implements XMLReader, Locator {
    }
 
    private static Logger logger = LogManager.getLogger(GedcomParser.class);
+   // lines that aren't standard GEDCOM are reported to the GEDCOM's logger as well as this one
+   private static final Logger gedcomLogger = LogManager.getLogger(Gedcom.class);
+
+   // Number of bytes at the start of the file that we keep buffered while
+   // sniffing the character encoding, so that the same stream can be rewound
+   // and handed to the decoder instead of opening the file again.
+   private static final int HEADER_MARK_LIMIT = 1024 * 1024;
 
    public static BufferedReader getBufferedReader(String systemId) throws IOException, SAXException {
-      InputStream in = (new URL(systemId)).openStream();
-      String charEncoding = conditionalToUpper(getCharEncoding(in));
-      in.close();
+      InputStream in = openMarkedStream(systemId);
+      String charEncoding = conditionalToUpper(getCharEncoding(new BufferedReader(new InputStreamReader(in))));
+      in = rewind(in, systemId);
       InputStreamReader reader = null;
 
       if (charEncoding == null) {
          // Let's try again with a UTF-16 reader.
-         reader = new InputStreamReader((new URL(systemId)).openStream(), "UTF-16");
-         BufferedReader br = new BufferedReader(reader);
-         charEncoding = conditionalToUpper(getCharEncoding(br));
-         br.close();
-         reader.close();
+         charEncoding = conditionalToUpper(getCharEncoding(new BufferedReader(new InputStreamReader(in, "UTF-16"))));
+         in = rewind(in, systemId);
 
          if (charEncoding != null && (charEncoding.equals("UNICODE") || charEncoding.equals("UTF-16"))) {
-            reader = new InputStreamReader((new URL(systemId)).openStream(), "UTF-16");
-            int cnt = 0;
-            while (reader.read() != '0') {
-               cnt++;
+            // skip over junk at the beginning of the file
+            BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-16"));
+            int myChar;
+            do {
+               br.mark(1);
+               myChar = br.read();
+            } while (myChar != '0' && myChar != -1);
+            if (myChar == '0') {
+               br.reset();
             }
-            reader.close();
-            reader = new InputStreamReader((new URL(systemId)).openStream(), "UTF-16");
-            for (int i = 0; i < cnt; i++) {
-               reader.read();
-            }
-            return new BufferedReader(reader);
+            return br;
          }
       }
 
+      if (charEncoding != null && charEncoding.equals("UNICODE")) {
+         // The header was readable as single-byte text, so the first line is dropped
+         // and the rest of the file is read from the start as UTF-16.
+         BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-16"));
+         br.readLine();
+         logger.warn("Reading in the file marked as UNICODE using UTF-16");
+         return br;
+      }
+
       // skip over junk at the beginning of the file
-      in = (new URL(systemId)).openStream();
-      int cnt = 0;
       int myChar;
-      while ((myChar = in.read()) != '0' && myChar != -1) {
-         cnt++;
+      do {
+         in.mark(1);
+         myChar = in.read();
+      } while (myChar != '0' && myChar != -1);
+      if (myChar == '0') {
+         in.reset();
       }
-      in.close();
-      in = (new URL(systemId)).openStream();
-      for (int i = 0; i < cnt; i++) {
-         in.read();
+
+      String javaEncoding = getJavaEncoding(charEncoding);
+      if (javaEncoding.equals(AnselCharset.NAME)) {
+         reader = new AnselInputStreamReader(in);
+      } else {
+         reader = new InputStreamReader(in, javaEncoding);
       }
+      return new BufferedReader(reader);
+   }
 
+   /**
+    * Maps the character set named in the GEDCOM header to the Java character set
+    * used to read the file. Every one of these reads ASCII as single bytes.
+    */
+   private static String getJavaEncoding(String charEncoding) throws SAXException {
       if (charEncoding == null ||
             charEncoding.equals("ANSEL")) {
-         reader = new AnselInputStreamReader(in);
+         return AnselCharset.NAME;
       } else if (charEncoding.equals("ASCII")) {
-         reader = new InputStreamReader(in, "ASCII");
+         return "ASCII";
       } else if (charEncoding.equals("ANSI")) {
-         //reader = new InputStreamReader(in, "ISO-8859-1");
-         reader = new InputStreamReader(in, "Cp1252");
-         //reader = new InputStreamReader(in, "ASCII");
+         //return "ISO-8859-1";
+         return "Cp1252";
       } else if (charEncoding.equals("IBM WINDOWS")) {
-         //reader = new InputStreamReader(in, "ISO-8859-1");
-         reader = new InputStreamReader(in, "Cp1252");
+         //return "ISO-8859-1";
+         return "Cp1252";
 		} else if (charEncoding.equals("WINDOWS-1250")) {
-			reader = new InputStreamReader(in, "Cp1250");
+			return "Cp1250";
 		} else if (charEncoding.equals("WINDOWS-1251")) {
-			reader = new InputStreamReader(in, "Cp1251");
+			return "Cp1251";
 		}
 		/*else if (charEncoding.equals("WINDOWS-1254")) {
-         reader = new InputStreamReader(in, "Cp1254");
+         return "Cp1254";
       	} else if (charEncoding.equals("WINDOWS-874")) {
-         reader = new InputStreamReader(in, "Cp874");
+         return "Cp874";
       	}*/
 		else if (charEncoding.equals("IBMPC") || charEncoding.equals("IBM DOS")) {
-         reader = new InputStreamReader(in, "Cp850");
-      } else if (charEncoding.equals("UNICODE")) {
-         reader = new InputStreamReader((new URL(systemId)).openStream(), "UTF-16");
-         BufferedReader br = new BufferedReader(reader);
-         String line = br.readLine();
-         logger.warn("Reading in the file marked as UNICODE using UTF-16");
+         return "Cp850";
       } else if (charEncoding.equals("UTF-8")) {
          // TODO: Expand this section to others for the macintosh,
          // TODO: including MacRoman (which was the standard character
          // TODO: encoding for the classic mac systems but is now obsolete
          // TODO: MacOS X and above systems use UTF-8 and -16. See
          // TODO: http://en.wikipedia.org/wiki/Mac_OS#"Classic"_Mac_OS_technologies
-         reader = new InputStreamReader(in, "UTF-8");
+         return "UTF-8";
       } else if (charEncoding.equals("MACINTOSH") || charEncoding.equals("MACROMAN")) {
-         reader = new InputStreamReader(in, "x-MacRoman");
+         return "x-MacRoman";
       } else {
          throw new SAXException("Unrecognized encoding in gedcom file: " + charEncoding);
       }
-      return new BufferedReader(reader);
+   }
+
+   /**
+    * Reads the header the same way getBufferedReader does.
+    * @return the character set to decode the file with, or null if the file has to be read as UTF-16
+    */
+   private static Charset getMappedCharset(String systemId) throws IOException, SAXException {
+      InputStream in = openMarkedStream(systemId);
+      try {
+         String charEncoding = conditionalToUpper(getCharEncoding(new BufferedReader(new InputStreamReader(in))));
+         if (charEncoding == null) {
+            in = rewind(in, systemId);
+            charEncoding = conditionalToUpper(getCharEncoding(new BufferedReader(new InputStreamReader(in, "UTF-16"))));
+            if (charEncoding != null && charEncoding.equals("UTF-16")) {
+               return null;
+            }
+         }
+         if (charEncoding != null && charEncoding.equals("UNICODE")) {
+            return null;
+         }
+         String javaEncoding = getJavaEncoding(charEncoding);
+         return javaEncoding.equals(AnselCharset.NAME) ? new AnselCharset() : Charset.forName(javaEncoding);
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Opens the file and marks its beginning so that the header can be read
+    * more than once.
+    */
+   private static InputStream openMarkedStream(String systemId) throws IOException {
+      InputStream in = new BufferedInputStream((new URL(systemId)).openStream());
+      in.mark(HEADER_MARK_LIMIT);
+      return in;
+   }
+
+   /**
+    * Rewinds the stream to the beginning of the file. If the header was too long
+    * to stay buffered, the file is opened again.
+    */
+   private static InputStream rewind(InputStream in, String systemId) throws IOException {
+      try {
+         in.reset();
+         return in;
+      } catch (IOException e) {
+         in.close();
+         return openMarkedStream(systemId);
+      }
    }
 
    public static String conditionalToUpper(String charEncoding) {
@@ -349,7 +438,12 @@ public class GedcomParser implements XMLReader, Locator {
       //System.out.println("This parser was called!");
       this.systemId = systemId;
       try {
-         parse(getBufferedReader(systemId));
+         GedcomLine mappedLines = (memoryMapped ? getMappedLines(systemId) : null);
+         if (mappedLines != null) {
+            parse(mappedLines, null);
+         } else {
+            parse(getBufferedReader(systemId));
+         }
       } catch (SAXParseException e) {
          System.out.println("SAX Parse Exception: Line: " + this.getLineNumber());
          System.out.println("Exception error msg: " + e.getMessage());
@@ -381,83 +475,243 @@ public class GedcomParser implements XMLReader, Locator {
       }
    }
 
+   /**
+    * A run of whole records in a memory-mapped file. Each chunk of a file can be parsed
+    * by its own parser and content handler.
+    */
+   public static class RecordChunk {
+      private final String systemId;
+      private final ByteBuffer bytes;
+      private final Charset charset;
+      private final int firstLineNr;
+      private final boolean isFirst;
+      private boolean isLast = false;
+
+      RecordChunk(String systemId, ByteBuffer bytes, Charset charset, int firstLineNr, boolean isFirst) {
+         this.systemId = systemId;
+         this.bytes = bytes;
+         this.charset = charset;
+         this.firstLineNr = firstLineNr;
+         this.isFirst = isFirst;
+      }
+
+      /**
+       * @return the line number in the file of the first line of the chunk
+       */
+      public int getFirstLineNr() {
+         return firstLineNr;
+      }
+
+      public boolean isFirst() {
+         return isFirst;
+      }
+
+      public boolean isLast() {
+         return isLast;
+      }
+
+      GedcomLine getLines() {
+         return new GedcomLine(bytes.duplicate(), charset);
+      }
+   }
+
+   /**
+    * Maps a local file into memory and skips over junk at the beginning of it
+    * @return a GedcomLine that reads the mapped file, or null if the file is not local,
+    * is read as UTF-16 or is too large to map
+    */
+   static GedcomLine getMappedLines(String systemId) throws IOException, SAXException {
+      List<RecordChunk> chunks = getRecordChunks(systemId, 1);
+      return (chunks == null ? null : chunks.get(0).getLines());
+   }
+
+   /**
+    * Maps a local file into memory, skips over junk at the beginning of it, and splits it
+    * in front of level-0 lines.
+    * The first chunk runs up to the second record, so it normally holds just the header;
+    * the records after it are split into about numChunks chunks of the same size.
+    * @param numChunks number of chunks to split the records after the first into;
+    * 1 returns the whole file as a single chunk
+    * @return the chunks in file order, or null if the file is not local,
+    * is read as UTF-16 or is too large to map
+    */
+   public static List<RecordChunk> getRecordChunks(String systemId, int numChunks) throws IOException, SAXException {
+      URL url = new URL(systemId);
+      if (!url.getProtocol().equals("file")) {
+         return null;
+      }
+      File file = new File(url.getPath());
+      if (!file.isFile() || file.length() > Integer.MAX_VALUE) {
+         return null;
+      }
+      Charset charset = getMappedCharset(systemId);
+      if (charset == null) {
+         return null;
+      }
+      MappedByteBuffer bytes;
+      FileInputStream in = new FileInputStream(file);
+      try {
+         // the mapping stays valid after the file is closed
+         FileChannel channel = in.getChannel();
+         bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+         in.close();
+      }
+      // skip over junk at the beginning of the file
+      while (bytes.hasRemaining() && bytes.get(bytes.position()) != '0') {
+         bytes.get();
+      }
+      List<RecordChunk> chunks = new ArrayList<RecordChunk>();
+      if (numChunks > 1) {
+         splitRecords(systemId, bytes, charset, numChunks, chunks);
+      } else {
+         chunks.add(new RecordChunk(systemId, bytes, charset, 1, true));
+      }
+      chunks.get(chunks.size() - 1).isLast = true;
+      return chunks;
+   }
+
+   // Cuts the bytes in front of level-0 lines, counting lines the way GedcomLine.readLine() does
+   private static void splitRecords(String systemId, ByteBuffer bytes, Charset charset, int numChunks,
+                                    List<RecordChunk> chunks) throws IOException {
+      int limit = bytes.limit();
+      int chunkStart = bytes.position();
+      int chunkLineNr = 1;
+      int chunkSize = 0;
+      int nextCut = chunkStart + 1;
+      int pos = chunkStart;
+      int lineNr = 1;
+      while (pos < limit) {
+         if (pos >= nextCut && startsRecord(bytes, pos, charset)) {
+            chunks.add(new RecordChunk(systemId, slice(bytes, chunkStart, pos), charset, chunkLineNr, chunks.isEmpty()));
+            if (chunkSize == 0) {
+               chunkSize = Math.max(1, (limit - pos) / numChunks);
+            }
+            chunkStart = pos;
+            chunkLineNr = lineNr;
+            nextCut = pos + chunkSize;
+         }
+         // move to the start of the next line
+         byte b = 0;
+         while (pos < limit && (b = bytes.get(pos)) != '\n' && b != '\r') {
+            pos++;
+         }
+         if (pos < limit) {
+            pos++;
+            if (b == '\r' && pos < limit && bytes.get(pos) == '\n') {
+               pos++;
+            }
+         }
+         lineNr++;
+      }
+      chunks.add(new RecordChunk(systemId, slice(bytes, chunkStart, limit), charset, chunkLineNr, chunks.isEmpty()));
+   }
+
+   // Whether the line starting at pos is a level-0 line that opens a record
+   private static boolean startsRecord(ByteBuffer bytes, int pos, Charset charset) throws IOException {
+      // control characters are dropped from lines, so skip over them along with spaces
+      int i = pos;
+      int limit = bytes.limit();
+      while (i < limit && bytes.get(i) >= 0 && bytes.get(i) <= ' ' && bytes.get(i) != '\n' && bytes.get(i) != '\r') {
+         i++;
+      }
+      if (i == limit || bytes.get(i) != '0') {
+         return false;
+      }
+      GedcomLine line = new GedcomLine(slice(bytes, pos, limit), charset);
+      return line.readLine() && line.startsRecord();
+   }
+
+   private static ByteBuffer slice(ByteBuffer bytes, int start, int end) {
+      // a duplicate rather than a slice, so positions stay the same as in the whole file
+      ByteBuffer rval = bytes.duplicate();
+      rval.limit(end);
+      rval.position(start);
+      return rval;
+   }
+
    /**
     * Parse input from a supplied BufferedReader
     */
    private void parse(BufferedReader reader) throws SAXException, IOException {
+      parse(new GedcomLine(reader), null);
+   }
+
+   /**
+    * Parse one chunk of a file split by getRecordChunks, numbering lines from the first line of the chunk.
+    * Only the first chunk starts the document and only the last one ends it; the elements still open
+    * at the end of any other chunk are ended the way the level-0 line that starts the next chunk ends them.
+    * Unlike parse(String), this does not mark the GEDCOM invalid when the chunk has no people.
+    * @return true if the chunk ended with the parser in the state the next chunk starts in
+    */
+   public boolean parse(RecordChunk chunk) throws SAXException, IOException {
+      this.systemId = chunk.systemId;
+      return parse(chunk.getLines(), chunk);
+   }
+
+   /**
+    * Parse the lines read by the GedcomLine, which are either a whole file or a chunk of one
+    */
+   private boolean parse(GedcomLine gl, RecordChunk chunk) throws SAXException, IOException {
 
-      String line, currentLine, token1, token2;
-      String level;
       int thislevel;
       int prevlevel;
-      String iden, tag, xref, valu, type;
-      int cpos1;
-      int cpos2;
-      int i;
-
-      char[] newlineCharArray = new char[1];
-      newlineCharArray[0] = '\n';
+      String iden, tag, xref;
+      char[] valu;
+      boolean rval = true;
 
-      lineNr = 0;
-      currentLine = "";
+      lineNr = (chunk == null ? 0 : chunk.getFirstLineNr() - 1);
 
       Stack stack = new Stack();
       stack.push("GED");
 
       prevlevel = -1;
 
-      contentHandler.setDocumentLocator(this);
-      contentHandler.startDocument();
-      contentHandler.startElement("", "GED", "GED", emptyAttList);
+      if (chunk == null || chunk.isFirst()) {
+         contentHandler.setDocumentLocator(this);
+         contentHandler.startDocument();
+         contentHandler.startElement("", "GED", "GED", emptyAttList);
+      }
 
       try {
          boolean goodLine = false; // Indicates whether we have found a good line so
                                    // far in the file.
-         while ((line = reader.readLine()) != null) {
+         boolean stopped = false;
+         // Reads each line into a reusable buffer, dropping control characters
+         while (gl.readLine()) {
 
             if (lineNr > 155295 && (lineNr % 1000 == 0))
             {
                System.out.println(lineNr);
             }
-            StringBuffer buf = new StringBuffer();
-            for (int j=0; j < line.length(); j++)
-            {
-               char c = line.charAt(j);
-               if (c >= 32 || c == 13 || c == 10 || c == 9)
-               {
-                  buf.append(c);
-               }
-            }
-            line = buf.toString();            
 
             // We can't be trimming lines
             // because often the spacing at the
             // end of a line is important, such as in
             // NOTE, CONT, and CONC fields
-            //line = line.trim();
 
             lineNr++;
-            currentLine = line;
 
             // parse the GEDCOM line into five fields: level, iden, tag, xref, valu
 
-            if (line.length() > 0) {
-               GedcomLine gl = new GedcomLine(line);
-
-               if (!gl.wasAbleToParse())
+            if (gl.length() > 0) {
+               if (!gl.parse())
                {
-                  logger.info(gedcom.logStr("Line does not appear to be standard: "
+                  gedcom.log(gedcomLogger, Level.INFO,
+                        "Line does not appear to be valid, so we will append to tag above: " + new String(gl.getLineChars()));
+                  gedcom.log(logger, Level.INFO, gedcom.logStr("Line does not appear to be standard: "
                         + this.getLineNumber()) +
                         " appending content to the last tag started.");
-                  contentHandler.characters(line.toCharArray(), 0, line.length());
+                  contentHandler.characters(gl.getLineChars(), 0, gl.length());
                   if (lineNr > 20 && goodLine == false)
                   {
                      gedcom.setInvalid();
+                     stopped = true;
                      break;
                   }
                } else
                {
-                  thislevel = Integer.parseInt(gl.getLevelNum());
+                  thislevel = gl.getLevel();
                   if (thislevel > prevlevel && !(thislevel == prevlevel + 1)) {
                      stack.push("WERELATE_DUMMY");
                      //throw new SAXException("Level numbers must increase by 1");
@@ -475,11 +729,11 @@ public class GedcomParser implements XMLReader, Locator {
 
                   iden = gl.getID();
                   xref = gl.getXRef();
-                  valu = gl.getRemainder();
+                  valu = gl.getRemainderChars();
 
                   // perform validation on the CHAR field (character code)
                   if (tag.equals("CHAR")) {
-                     String encoding = conditionalToUpper(valu.trim().intern());
+                     String encoding = conditionalToUpper(gl.getRemainder().trim().intern());
                      if (!encoding.equals("ANSEL") && !encoding.equals("ASCII") && !encoding.equals("ANSI") &&
                            !encoding.equals("UNICODE") && !encoding.equals("UTF-8") &&
                            !encoding.equals("UTF-16BE") && !encoding.equals("UTF-16") &&
@@ -487,7 +741,7 @@ public class GedcomParser implements XMLReader, Locator {
                            !encoding.equals("IBMPC") && !encoding.equals("IBM DOS") &&
                            !encoding.equals("WINDOWS-1250") && !encoding.equals("WINDOWS-1251") &&
                            !encoding.equals("IBM WINDOWS"))
-                        throw new SAXException("WARNING: Unknown character set: " + valu);
+                        throw new SAXException("WARNING: Unknown character set: " + gl.getRemainder());
                   }
 
                   // insert any necessary closing tags
@@ -505,8 +759,8 @@ public class GedcomParser implements XMLReader, Locator {
                      stack.push(tag);
                      prevlevel = thislevel;
                   }
-                  if (valu != null && valu.length() > 0) {
-                     contentHandler.characters(valu.toCharArray(), 0, valu.length());
+                  if (valu != null && valu.length > 0) {
+                     contentHandler.characters(valu, 0, valu.length);
                   }
                }
                /*
@@ -598,12 +852,21 @@ public class GedcomParser implements XMLReader, Locator {
             }
          }
 
-         contentHandler.endElement("", "GED", "GED");
-         if (gedcom.getPeople().size() == 0)
-         {
-            gedcom.setInvalid();
+         if (chunk == null || chunk.isLast()) {
+            contentHandler.endElement("", "GED", "GED");
+            if (chunk == null && gedcom.getPeople().size() == 0)
+            {
+               gedcom.setInvalid();
+            }
+            contentHandler.endDocument();
+         } else if (!stopped) {
+            while (prevlevel >= 0) {
+               String endtag = (String) stack.pop();
+               contentHandler.endElement("", endtag, endtag);
+               prevlevel--;
+            }
+            rval = (stack.size() == 1);
          }
-         contentHandler.endDocument();
          //System.err.println("Parsing complete: " + lineNr + " lines");
 
       } catch (SAXException e1) {
@@ -617,9 +880,9 @@ public class GedcomParser implements XMLReader, Locator {
          throw err;
       }
       finally {
-         reader.close();
+         gl.close();
       }
-
+      return rval;
    }
 
    ;
@@ -90,6 +90,17 @@ public class Citation extends ReferenceContainer implements ReferencedObject {
       }
    }
 
+   // Only the fields that equals compares directly are hashed, because the notes of a citation
+   // are still being added to while it is printed
+   public int hashCode()
+   {
+      int hash = (id == null ? 0 : id.hashCode());
+      hash = 31 * hash + (page == null ? 0 : page.hashCode());
+      hash = 31 * hash + (date == null ? 0 : date.hashCode());
+      hash = 31 * hash + (text == null ? 0 : text.hashCode());
+      return 31 * hash + quality.ordinal();
+   }
+
    /**
     * Imple
     * @return
@@ -0,0 +1,101 @@
+package org.werelate.gedcom;
+
+/**
+ * Accumulates the text of a tag while it is on the tag stack.
+ * Long notes arrive as thousands of CONC and CONT lines, so the text is kept in a builder
+ * and only turned into a String when it is asked for; the String is kept until the next change.
+ * The content is null until something is set.
+ */
+class ContentBuffer {
+   private final StringBuilder buf = new StringBuilder();
+   private boolean isNull;
+   // Value of buf, or null if buf has changed since it was last asked for
+   private String value;
+
+   /**
+    * @param content initial content, may be null
+    */
+   public ContentBuffer(String content) {
+      set(content);
+   }
+
+   /**
+    * @return the content, or null if no content has been set
+    */
+   public String get() {
+      if (isNull) {
+         return null;
+      }
+      if (value == null) {
+         value = buf.toString();
+      }
+      return value;
+   }
+
+   /**
+    * Replaces the content
+    * @param content new content, may be null
+    */
+   public void set(String content) {
+      buf.setLength(0);
+      if (content != null) {
+         buf.append(content);
+      }
+      isNull = (content == null);
+      value = content;
+   }
+
+   /**
+    * Appends the text as the + operator would
+    * @param text text to append
+    */
+   public void append(String text) {
+      if (isNull) {
+         // null + text
+         buf.append((String) null);
+         isNull = false;
+      }
+      buf.append(text);
+      value = null;
+   }
+
+   /**
+    * Appends the characters without making a String of them first
+    */
+   public void append(char[] ch, int start, int length) {
+      if (isNull) {
+         buf.append((String) null);
+         isNull = false;
+      }
+      buf.append(ch, start, length);
+      value = null;
+   }
+
+   /**
+    * @return true if the content contains the text
+    */
+   public boolean contains(String text) {
+      return !isNull && buf.indexOf(text) >= 0;
+   }
+
+   /**
+    * @return true if the content is null or only whitespace, as Utils.isEmpty would say
+    */
+   public boolean isBlank() {
+      if (!isNull) {
+         for (int i = 0; i < buf.length(); i++) {
+            if (buf.charAt(i) > ' ') {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return true if the content ends with the character
+    */
+   public boolean endsWith(char c) {
+      return !isNull && buf.length() > 0 && buf.charAt(buf.length() - 1) == c;
+   }
+}
@@ -0,0 +1,339 @@
+package org.werelate.gedcom;
+
+import org.werelate.util.ElementWriter;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An element of the XML content of a page in the inprocess file: the person, family or mysource
+ * element and everything under it.
+ * <p/>
+ * GedcomXML keeps the content of every page in memory until the pages are generated, so this holds
+ * only what it uses: the name, the attributes, and the child elements and text. Attributes are kept
+ * sorted by name, as they are in a DOM attribute map, so they are visited and written in the same order
+ * as when the content was a DOM document.
+ * <p/>
+ * CDATA sections are read as text, so their text is written escaped along with the rest of the element's
+ * text, and comments are dropped. The DOM version wrote a CDATA section or a comment as an element named
+ * #cdata-section or #comment with the raw text in it, which isn't well-formed XML; the pages GedcomXML
+ * writes into the inprocess file never have either inside their content.
+ */
+class ContentElement {
+   private static final String[] NO_ATTRIBUTES = new String[0];
+   private static final Object[] NO_CHILDREN = new Object[0];
+
+   private final String name;
+   private ContentElement parent = null;
+   // attribute names and values, alternately, sorted by name
+   private String[] atts = NO_ATTRIBUTES;
+   // child ContentElements and text Strings, in document order
+   private Object[] children = NO_CHILDREN;
+
+   public ContentElement(String name) {
+      this.name = name;
+   }
+
+   /**
+    * Reads the element the reader is positioned at, and everything under it
+    * @param reader positioned at a start element
+    * @param attNames names of the attributes to look for while reading
+    * @param found the elements read that have any of those attributes are added to this, in document order
+    * @return the element
+    */
+   public static ContentElement read(XMLStreamReader reader, String[] attNames, List<ContentElement> found)
+         throws XMLStreamException {
+      ContentElement element = new ContentElement(reader.getLocalName());
+      for (int i = 0; i < reader.getAttributeCount(); i++)
+      {
+         element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      }
+      for (String attName : attNames)
+      {
+         if (element.hasAttribute(attName))
+         {
+            found.add(element);
+            break;
+         }
+      }
+      List<Object> children = null;
+      // the reader may return the text of a node in several pieces
+      StringBuilder text = new StringBuilder();
+      while (true)
+      {
+         int event = reader.next();
+         if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+             event == XMLStreamConstants.SPACE)
+         {
+            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+         } else if (event == XMLStreamConstants.START_ELEMENT || event == XMLStreamConstants.END_ELEMENT)
+         {
+            if (children == null)
+            {
+               children = new ArrayList<Object>();
+            }
+            if (text.length() > 0)
+            {
+               // most text between elements is a single newline
+               children.add(text.length() == 1 && text.charAt(0) == '\n' ? "\n" : text.toString());
+               text.setLength(0);
+            }
+            if (event == XMLStreamConstants.END_ELEMENT)
+            {
+               break;
+            }
+            ContentElement child = read(reader, attNames, found);
+            child.parent = element;
+            children.add(child);
+         }
+      }
+      if (children.size() > 0)
+      {
+         element.children = children.toArray();
+      }
+      return element;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public ContentElement getParent() {
+      return parent;
+   }
+
+   private int findAttribute(String attName) {
+      int low = 0;
+      int high = atts.length / 2 - 1;
+      while (low <= high)
+      {
+         int mid = (low + high) >>> 1;
+         int cmp = atts[mid * 2].compareTo(attName);
+         if (cmp < 0)
+         {
+            low = mid + 1;
+         } else if (cmp > 0)
+         {
+            high = mid - 1;
+         } else
+         {
+            return mid;
+         }
+      }
+      return -(low + 1);
+   }
+
+   public int getAttributeCount() {
+      return atts.length / 2;
+   }
+
+   public String getAttributeName(int i) {
+      return atts[i * 2];
+   }
+
+   public String getAttributeValue(int i) {
+      return atts[i * 2 + 1];
+   }
+
+   public boolean hasAttribute(String attName) {
+      return findAttribute(attName) >= 0;
+   }
+
+   /**
+    * @return the value of the attribute, or the empty string if the element doesn't have it, like Element.getAttribute
+    */
+   public String getAttribute(String attName) {
+      int i = findAttribute(attName);
+      return (i >= 0 ? atts[i * 2 + 1] : "");
+   }
+
+   public void setAttribute(String attName, String value) {
+      int i = findAttribute(attName);
+      if (i >= 0)
+      {
+         atts[i * 2 + 1] = value;
+      } else
+      {
+         i = -(i + 1);
+         String[] newAtts = new String[atts.length + 2];
+         System.arraycopy(atts, 0, newAtts, 0, i * 2);
+         newAtts[i * 2] = attName;
+         newAtts[i * 2 + 1] = value;
+         System.arraycopy(atts, i * 2, newAtts, i * 2 + 2, atts.length - i * 2);
+         atts = newAtts;
+      }
+   }
+
+   public void removeAttribute(String attName) {
+      int i = findAttribute(attName);
+      if (i >= 0)
+      {
+         String[] newAtts = (atts.length == 2 ? NO_ATTRIBUTES : new String[atts.length - 2]);
+         System.arraycopy(atts, 0, newAtts, 0, i * 2);
+         System.arraycopy(atts, i * 2 + 2, newAtts, i * 2, atts.length - i * 2 - 2);
+         atts = newAtts;
+      }
+   }
+
+   /**
+    * Removes all of the attributes except the one given
+    */
+   public void retainAttribute(String attName) {
+      int i = findAttribute(attName);
+      atts = (i >= 0 ? new String[] {attName, atts[i * 2 + 1]} : NO_ATTRIBUTES);
+   }
+
+   /**
+    * @return the child elements, in document order
+    */
+   public List<ContentElement> getChildren() {
+      List<ContentElement> elements = new ArrayList<ContentElement>();
+      for (Object child : children)
+      {
+         if (child instanceof ContentElement)
+         {
+            elements.add((ContentElement) child);
+         }
+      }
+      return elements;
+   }
+
+   /**
+    * @return the child elements with any of the given names, in document order
+    */
+   public List<ContentElement> getChildren(String... names) {
+      List<ContentElement> elements = new ArrayList<ContentElement>();
+      for (Object child : children)
+      {
+         if (child instanceof ContentElement && isOneOf(((ContentElement) child).name, names))
+         {
+            elements.add((ContentElement) child);
+         }
+      }
+      return elements;
+   }
+
+   /**
+    * @return the first child element with the given name, or null
+    */
+   public ContentElement getChild(String childName) {
+      for (Object child : children)
+      {
+         if (child instanceof ContentElement && ((ContentElement) child).name.equals(childName))
+         {
+            return (ContentElement) child;
+         }
+      }
+      return null;
+   }
+
+   private static boolean isOneOf(String name, String[] names) {
+      for (String n : names)
+      {
+         if (n.equals(name))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @return the text of this element and all of the elements under it, like Node.getTextContent
+    */
+   public String getTextContent() {
+      if (children.length == 1 && children[0] instanceof String)
+      {
+         return (String) children[0];
+      }
+      StringBuilder buf = new StringBuilder();
+      appendTextContent(buf);
+      return buf.toString();
+   }
+
+   private void appendTextContent(StringBuilder buf) {
+      for (Object child : children)
+      {
+         if (child instanceof String)
+         {
+            buf.append((String) child);
+         } else
+         {
+            ((ContentElement) child).appendTextContent(buf);
+         }
+      }
+   }
+
+   /**
+    * Removes this element from its parent
+    */
+   public void remove() {
+      replaceWith(null);
+   }
+
+   /**
+    * Puts the given element in the place of this one
+    * @param replacement element to put in its place, or null to remove this one
+    */
+   public void replaceWith(ContentElement replacement) {
+      Object[] siblings = parent.children;
+      int i = Arrays.asList(siblings).indexOf(this);
+      if (replacement != null)
+      {
+         siblings[i] = replacement;
+         replacement.parent = parent;
+      } else
+      {
+         Object[] newSiblings = new Object[siblings.length - 1];
+         System.arraycopy(siblings, 0, newSiblings, 0, i);
+         System.arraycopy(siblings, i + 1, newSiblings, i, siblings.length - i - 1);
+         parent.children = newSiblings;
+      }
+      parent = null;
+   }
+
+   /**
+    * Writes the element, with its text trimmed, and the elements under it
+    * @param buf buffer to write to
+    */
+   public void write(StringBuffer buf) {
+      ElementWriter ew = new GedcomElementWriter(name);
+      for (int i = 0; i < atts.length; i += 2)
+      {
+         ew.put(atts[i], atts[i + 1]);
+      }
+      StringBuffer subBuf = new StringBuffer();
+      StringBuffer subText = new StringBuffer();
+      for (Object child : children)
+      {
+         if (child instanceof String)
+         {
+            subText.append(((String) child).trim());
+         } else
+         {
+            ((ContentElement) child).write(subBuf);
+         }
+      }
+      ew.setSubXML(subBuf.toString());
+      ew.setSubText(subText.toString());
+      ew.write(buf);
+   }
+
+   /**
+    * Writes the child elements, leaving out this element and its text
+    * @param buf buffer to write to
+    */
+   public void writeChildren(StringBuffer buf) {
+      for (Object child : children)
+      {
+         if (child instanceof ContentElement)
+         {
+            ((ContentElement) child).write(buf);
+         }
+      }
+   }
+}
@@ -252,13 +252,12 @@ public class Event extends ReferenceContainer implements Comparable {
 
    /**
     * Prints the Event as an XML tag, with references
+    * @param buf to print the tag to
     * @param gedcom
-    * @return the String version of the XML tag for the event
     * @throws Uploader.PrintException
     */
-   public String printTag(Gedcom gedcom) throws Uploader.PrintException 
+   public void printTag(StringBuffer buf, Gedcom gedcom) throws Uploader.PrintException
    {
-      String outText = "";
       if (!Utils.isEmpty(toString()) &&
             (this.atts.size() > 0
             || !Utils.isEmpty(getContent())
@@ -268,19 +267,17 @@ public class Event extends ReferenceContainer implements Comparable {
          GedcomElementWriter ew = new GedcomElementWriter("event_fact");
          formatTag(ew, gedcom);
          printReferences(ew);
-         outText = ew.write();
+         ew.write(buf);
       }
-      return outText;
    }
 
    /**
     * Prepares the Event as an XML tag, without references
+    * @param buf to print the tag to
     * @param gedcom
-    * @return the String version of the XML tag for the event
     */
-    public String prepareTag(Gedcom gedcom) 
+    public void prepareTag(StringBuffer buf, Gedcom gedcom)
    {
-      String outText = "";
       if (!Utils.isEmpty(toString()) &&
             (this.atts.size() > 0
             || !Utils.isEmpty(getContent())
@@ -289,9 +286,8 @@ public class Event extends ReferenceContainer implements Comparable {
       {
          GedcomElementWriter ew = new GedcomElementWriter("event_fact");
          formatTag(ew, gedcom);
-         outText = ew.write();
+         ew.write(buf);
       }
-      return outText;
    }
 
    /**
@@ -578,6 +574,16 @@ public class Event extends ReferenceContainer implements Comparable {
       return 0;
    }
 
+   // Sort key of the date, from the dates already parsed for the GEDCOM if there is one
+   private Integer getDateSortKey(String date)
+   {
+      if (gedcom == null)
+      {
+         return new EventDate(date).getDateSortKey();
+      }
+      return gedcom.getDates().get(date).getDateSortKey();
+   }
+
    // Compares the attributes in the two events
    // with each other to determine ordering.
    private int compareAtts(Event other)
@@ -586,8 +592,8 @@ public class Event extends ReferenceContainer implements Comparable {
       {
          String thisDate = getAttribute("DATE");
          String otherDate = other.getAttribute("DATE");
-         Integer thisStdDate = new EventDate(thisDate).getDateSortKey();                 // method replaced Oct 2021 by Janet Bjorndahl
-         Integer otherStdDate = new EventDate(otherDate).getDateSortKey();               // method replaced Oct 2021 by Janet Bjorndahl
+         Integer thisStdDate = getDateSortKey(thisDate);                 // method replaced Oct 2021 by Janet Bjorndahl
+         Integer otherStdDate = getDateSortKey(otherDate);               // method replaced Oct 2021 by Janet Bjorndahl
          if (!thisStdDate.equals(otherStdDate))
          {
             return thisStdDate.compareTo(otherStdDate);
@@ -647,7 +653,7 @@ public class Event extends ReferenceContainer implements Comparable {
          printLDSSourceCitations(gedcom, ec, buf);
          ew.setSubXML('\n' + buf.toString());
       }
-      out.print(ew.write());
+      ew.write(out);
    }
 
    /**
@@ -1,11 +1,11 @@
 package org.werelate.gedcom;
 
 import org.werelate.util.Utils;
-import org.werelate.util.MultiMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.print.PrintException;
+import java.io.PrintWriter;
 import java.util.*;
 
 /**
@@ -99,22 +99,93 @@ public abstract class EventContainer extends TopObject {
       }
    }
 
-   // Encloses the parameter outText in CDATA
-   protected static String encloseInCDATA(String outText) {
+   private static boolean isControlCharacter(char c) {
+      return c < 32 && c != '\n' && c != '\r' && c != '\f' && c != '\t';
+   }
+
+   // Prints the parameter outText to out enclosed in CDATA, without control characters
+   // and with the HTML formatting replaced. The text is copied to out in chunks.
+   protected static void printInCDATA(PrintWriter out, CharSequence outText) {
       // Before we do the enclosing, we want to remove
       // any control characters
-      StringBuffer result = new StringBuffer();
-      for (char c : outText.toCharArray())
+      for (int i = 0; i < outText.length(); i++)
+      {
+         if (isControlCharacter(outText.charAt(i)))
+         {
+            StringBuilder result = new StringBuilder(outText.length());
+            for (int j = 0; j < outText.length(); j++)
+            {
+               char c = outText.charAt(j);
+               if (!isControlCharacter(c))
+               {
+                  result.append(c);
+               }
+            }
+            outText = result;
+            break;
+         }
+      }
+      out.print("<![CDATA[");
+      char[] chunk = new char[4096];
+      int len = 0;
+      for (int i = 0; i < outText.length(); i++)
+      {
+         char c = outText.charAt(i);
+         String replacement = null;
+         int skip = 0;
+         if (c == '«')
+         {
+            if (startsWith(outText, i, "«b»"))
+            {
+               replacement = "'''";
+               skip = 2;
+            } else if (startsWith(outText, i, "«/b»"))
+            {
+               replacement = "'''";
+               skip = 3;
+            } else if (startsWith(outText, i, "«tab»"))
+            {
+               replacement = "    ";
+               skip = 4;
+            }
+         } else if (c == ']' && startsWith(outText, i, "]]>"))
+         {
+            // Encodes any instances of "]]>" in the text
+            replacement = "]]]]><![CDATA[>";
+            skip = 2;
+         }
+         if (len + 16 > chunk.length)
+         {
+            out.write(chunk, 0, len);
+            len = 0;
+         }
+         if (replacement == null)
+         {
+            chunk[len++] = c;
+         } else
+         {
+            replacement.getChars(0, replacement.length(), chunk, len);
+            len += replacement.length();
+            i += skip;
+         }
+      }
+      out.write(chunk, 0, len);
+      out.print("]]>");
+   }
+
+   private static boolean startsWith(CharSequence text, int offset, String prefix) {
+      if (offset + prefix.length() > text.length())
       {
-         if (c >= 32 || c == '\n' || c == '\r' || c == '\f' || c == '\t')
+         return false;
+      }
+      for (int i = 0; i < prefix.length(); i++)
+      {
+         if (text.charAt(offset + i) != prefix.charAt(i))
          {
-            result.append(c);
+            return false;
          }
       }
-      outText = Utils.replaceHTMLFormatting(result.toString());
-      // Encodes any instances of "<![CDATA[" in the text
-      outText = "<![CDATA[" + outText.replaceAll("\\]\\]>", "]]]]><![CDATA[>") + "]]>";
-      return outText;
+      return true;
    }
 
    public void printCitation(Citation cit, StringBuffer sourceBuffer, StringBuffer noteBuffer, Gedcom gedcom) throws Uploader.PrintException, Gedcom.PostProcessException {
@@ -201,7 +272,7 @@ public abstract class EventContainer extends TopObject {
          if (!Utils.isEmpty(event.toString()) && !event.getType().equals(Event.Type.ReferenceNumber))
          {
             event.printCitsNotesImages(sourceBuffer, noteBuffer, this, gedcom);
-            buf.append(event.printTag(gedcom));
+            event.printTag(buf, gedcom);
          }
       }
    }
@@ -218,9 +289,36 @@ public abstract class EventContainer extends TopObject {
       {
          if (!Utils.isEmpty(event.toString()) && !event.getType().equals(Event.Type.ReferenceNumber))
          {
-            buf.append(event.prepareTag(gedcom));
+            event.prepareTag(buf, gedcom);
+         }
+      }
+   }
+
+   /**
+    * @return whether printing this EventContainer resolves notes cited by ID, which are shared
+    * with everything else that cites them (see ReferenceContainer.citesNotes)
+    */
+   public boolean citesNotes()
+   {
+      if (getNoteCitations().size() > 0)
+      {
+         return true;
+      }
+      for (Citation cit : getCitations())
+      {
+         if (cit.citesNotes())
+         {
+            return true;
+         }
+      }
+      for (Event event : getEvents())
+      {
+         if (event.citesNotes())
+         {
+            return true;
          }
       }
+      return false;
    }
 
    // List of all citations attached to this EventContainer object
@@ -243,15 +341,16 @@ public abstract class EventContainer extends TopObject {
       return citations;
    }
 
-   private MultiMap <String, Citation> printedCitations = new MultiMap<String, Citation>();
+   // Each printed citation maps to itself, so an equal citation finds it by hashing
+   private Map <Citation, Citation> printedCitations = new HashMap<Citation, Citation>();
    public Citation getPrintedCitation(Citation cit)
    {
-      return  printedCitations.getEqual(cit.getId(), cit);
+      return printedCitations.get(cit);
    }
 
    public void addPrintedCitation(Citation cit)
    {
-      printedCitations.put(cit.getId(), cit);
+      printedCitations.put(cit, cit);
    }
 
 
@@ -277,15 +376,15 @@ public abstract class EventContainer extends TopObject {
       }
    }
 
-   private MultiMap <String, Note> printedNotes = new MultiMap<String, Note>();
+   private Map <Note, Note> printedNotes = new HashMap<Note, Note>();
 
    public Note getPrintedNote(Note note)
    {
-      return printedNotes.getEqual(note.getKey(), note);
+      return printedNotes.get(note);
    }
    public void addPrintedNote(Note note)
    {
-      printedNotes.put(note.getKey(), note);
+      printedNotes.put(note, note);
    }
 
    /**
@@ -4,14 +4,17 @@ import org.werelate.util.PlaceUtils;
 import org.werelate.util.SharedUtils;
 import org.werelate.util.Utils;
 import org.werelate.util.MultiMap;
-import org.werelate.util.EventDate;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.werelate.gedcom.Person;
+import nu.xom.Builder;
+import nu.xom.Element;
+import nu.xom.ParsingException;
 
 import java.awt.event.WindowFocusListener;
 import java.util.*;
 import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -294,10 +297,10 @@ public class Family extends EventContainer{
       return false;
    }
 
-   private void checkSpouseDates(Person spouse, boolean isHusband, int minMarriageDay, int maxMarriageDay) {
+   private void checkSpouseDates(Gedcom gedcom, Person spouse, boolean isHusband, int minMarriageDay, int maxMarriageDay) {
       String spousePronoun = isHusband ? "husband" : "wife";
-      int spouseMinBirthDay = new EventDate(spouse.getBirthDate()).getMinDay();                        // method replaced Oct 2021 by Janet Bjorndahl
-      int spouseMaxBirthDay = new EventDate(spouse.getBirthDate()).getMaxDay();                        // method replaced Oct 2021 by Janet Bjorndahl
+      int spouseMinBirthDay = gedcom.getDates().get(spouse.getBirthDate()).getMinDay();                        // method replaced Oct 2021 by Janet Bjorndahl
+      int spouseMaxBirthDay = gedcom.getDates().get(spouse.getBirthDate()).getMaxDay();                        // method replaced Oct 2021 by Janet Bjorndahl
       if (spouseMaxBirthDay > 0 && minMarriageDay > 0 && minMarriageDay - spouseMaxBirthDay > 100 * 365) {
          addProblem("2Marriage is after " + spousePronoun + " is 100 years old");
       }
@@ -308,7 +311,7 @@ public class Family extends EventContainer{
          addProblem("2Marriage is before " + spousePronoun + " is 12 years old");
       }
 
-      int spouseMaxDeathDay = new EventDate(spouse.getDeathDate()).getMaxDay();                        // method replaced Oct 2021 by Janet Bjorndahl
+      int spouseMaxDeathDay = gedcom.getDates().get(spouse.getDeathDate()).getMaxDay();                        // method replaced Oct 2021 by Janet Bjorndahl
       if (spouseMaxDeathDay > 0 && minMarriageDay > 0 && minMarriageDay > spouseMaxDeathDay) {
          addProblem("2Marriage occurs after the death of " + spousePronoun);
       }
@@ -320,10 +323,10 @@ public class Family extends EventContainer{
       if (parent != null)
       {
          // Let's see if the husband was born too early for this parent
-         int parentMinBirthDay = new EventDate(parent.getBirthDate()).getMinDay();                        // method replaced in these 4 rows Oct 2021 by Janet Bjorndahl
-         int parentMaxBirthDay = new EventDate(parent.getBirthDate()).getMaxDay();
-         int parentMinDeathDay = new EventDate(parent.getDeathDate()).getMinDay();
-         int parentMaxDeathDay = new EventDate(parent.getDeathDate()).getMaxDay();
+         int parentMinBirthDay = gedcom.getDates().get(parent.getBirthDate()).getMinDay();                        // method replaced in these 4 rows Oct 2021 by Janet Bjorndahl
+         int parentMaxBirthDay = gedcom.getDates().get(parent.getBirthDate()).getMaxDay();
+         int parentMinDeathDay = gedcom.getDates().get(parent.getDeathDate()).getMinDay();
+         int parentMaxDeathDay = gedcom.getDates().get(parent.getDeathDate()).getMaxDay();
          if (childMaxBirthDay > 0 && parentMinBirthDay > 0) {
             if (isHusband && childMaxBirthDay - parentMinBirthDay < 16 * 365) {
                addProblem("2Husband was less than 16 years old when " + childName + " was born");
@@ -363,7 +366,7 @@ public class Family extends EventContainer{
       }
    }
 
-   private DateStd getMarriageDateStd() {
+   private DateStd getMarriageDateStd(Gedcom gedcom) {
       Integer stdMarriageDate = 0;              // changed type from String (set to null) Oct 2021 by Janet Bjorndahl
       String marriageDate = null;
 
@@ -374,7 +377,7 @@ public class Family extends EventContainer{
             if (!Utils.isEmpty(date)) {
                // Edit dates - warning if the date cannot be interpreted; no message for dates requiring signficant reformating. Changed Sep 2025 by Janet Bjorndahl
                // Old: Edit dates - error if the date cannot be interpreted; otherwise an alert if the date required signficant reformating. Added Aug 2021 by JB
-               EventDate eventDate = new EventDate(date, event.eventType());
+               ParsedDate eventDate = gedcom.getDates().get(date, event.eventType());
                if (eventDate.editDate()) {
 //                  if (eventDate.getSignificantReformat()) {
 //                     addProblem("0" + event.eventType() + " date automatically reformated from \"" + date + "\" to \"" + eventDate.getFormatedDate() + "\"");
@@ -408,6 +411,69 @@ public class Family extends EventContainer{
       return buf.toString();
    }
 
+   // The data last prepared for analysis and its parsed form. Every member of the family
+   // analyzes the family while setting isLiving, and the data rarely changes in between.
+   private String analysisData = null;
+   private Element analysisRoot = null;
+
+   /**
+    * Prepares the data for FamilyDQAnalysis and returns it parsed.
+    * The data is prepared on every call, as prepareDataForAnalysis has side effects,
+    * but it is only parsed again if it differs from the last call.
+    * The element is shared between calls, so it must not be modified. FamilyDQAnalysis only reads it;
+    * TestFamilyAnalysisRoot checks that each analysis Person.setLiving runs leaves it as it was parsed.
+    */
+   public Element getRootForAnalysis(Gedcom gedcom, Builder builder)
+         throws Uploader.PrintException, Gedcom.PostProcessException, ParsingException, IOException
+   {
+      String data = prepareDataForAnalysis(gedcom, getChildPeople(gedcom), 0);
+      if (analysisRoot == null || !data.equals(analysisData))
+      {
+         analysisRoot = SharedUtils.parseText(builder, data, true).getRootElement();
+         analysisData = data;
+      }
+      return analysisRoot;
+   }
+
+   // Preparing sets the adopted and status flags of the children and prints them,
+   // so the flags of each child are locked from the first child to the last
+   private String prepareDataForAnalysis(Gedcom gedcom, List<Person> children, int i)
+         throws Uploader.PrintException, Gedcom.PostProcessException
+   {
+      if (i == children.size())
+      {
+         return prepareDataForAnalysis(gedcom);
+      }
+      synchronized (children.get(i).childFlagsLock)
+      {
+         return prepareDataForAnalysis(gedcom, children, i + 1);
+      }
+   }
+
+   // The children of this family in ID order, so that two families lock the flags of the children
+   // they share in the same order
+   private List<Person> getChildPeople(Gedcom gedcom)
+   {
+      Map<String, Person> children = new TreeMap<String, Person>();
+      for (Child child : getChildren())
+      {
+         Person person = (child.getId() == null ? null : gedcom.getPeople().get(child.getId()));
+         if (person != null)
+         {
+            children.put(child.getId(), person);
+         }
+      }
+      return new ArrayList<Person>(children.values());
+   }
+
+   /**
+    * Frees the data kept by getRootForAnalysis
+    */
+   public void clearAnalysisRoot() {
+      analysisData = null;
+      analysisRoot = null;
+   }
+
    private static final Set<String> LIVING_EVENT_WORDS = Person.LIVING_EVENT_WORDS;
 
    // Determines if this family has events indicating the GEDCOM generator designated 
@@ -451,8 +517,8 @@ public class Family extends EventContainer{
                    thisHusband.getName().givenSurnameEquals(otherHusband.getName()) &&
                    thisWife.getName().givenSurnameEquals(otherWife.getName()))
                {
-                  Integer stdMarriage = getMarriageDateStd().stdDate;                  // type changed from String on this and next line Oct 2021 by Janet Bjorndahl
-                  Integer stdOther = possibleDuplicate.getMarriageDateStd().stdDate;
+                  Integer stdMarriage = getMarriageDateStd(gedcom).stdDate;                  // type changed from String on this and next line Oct 2021 by Janet Bjorndahl
+                  Integer stdOther = possibleDuplicate.getMarriageDateStd(gedcom).stdDate;
                   if (stdMarriage != 0 && stdOther != 0 && stdMarriage.equals(stdOther)) {    // changed Oct 2021 by Janet Bjorndahl
                      addProblem("3This family duplicates another family in your gedcom");
                   }
@@ -498,21 +564,21 @@ public class Family extends EventContainer{
       }
 
       // Let's gather pertinent dates
-      DateStd marriage = getMarriageDateStd();
+      DateStd marriage = getMarriageDateStd(gedcom);
 
       // check problems with marriage date
       int minMarriageDay = 0;
       int maxMarriageDay = 0;
       if (marriage.stdDate != 0) {                                                 // changed Oct 2021 by Janet Bjorndahl
-         minMarriageDay = new EventDate(marriage.date).getMinDay();                // method replaced in these 2 lines Oct 2021 by Janet Bjorndahl
-         maxMarriageDay = new EventDate(marriage.date).getMaxDay();
+         minMarriageDay = gedcom.getDates().get(marriage.date).getMinDay();                // method replaced in these 2 lines Oct 2021 by Janet Bjorndahl
+         maxMarriageDay = gedcom.getDates().get(marriage.date).getMaxDay();
 
          for (String husbandId : getHusbands())
          {
             Person husband = gedcom.getPeople().get(husbandId);
             if(husband != null)
             {
-               checkSpouseDates(husband, true, minMarriageDay, maxMarriageDay);
+               checkSpouseDates(gedcom, husband, true, minMarriageDay, maxMarriageDay);
             }
          }
 
@@ -521,7 +587,7 @@ public class Family extends EventContainer{
             Person wife = gedcom.getPeople().get(wifeId);
             if (wife!=null)
             {
-               checkSpouseDates(wife, false, minMarriageDay, maxMarriageDay);
+               checkSpouseDates(gedcom, wife, false, minMarriageDay, maxMarriageDay);
             }
          }
       }
@@ -534,9 +600,9 @@ public class Family extends EventContainer{
          if (child != null)
          {
             if (!"".equals(child.getBirthDate()) || !"".equals(child.getDeathDate())) {     // method on these 4 lines changed Oct 2021 by Janet Bjorndahl
-               int childMinBirthDay = new EventDate(child.getBirthDate()).getMinDay();       
-               int childMaxBirthDay = new EventDate(child.getBirthDate()).getMaxDay();
-               int childMinDeathDay = new EventDate(child.getDeathDate()).getMinDay();
+               int childMinBirthDay = gedcom.getDates().get(child.getBirthDate()).getMinDay();       
+               int childMaxBirthDay = gedcom.getDates().get(child.getBirthDate()).getMaxDay();
+               int childMinDeathDay = gedcom.getDates().get(child.getDeathDate()).getMinDay();
 
                if (childMinBirthDay > 0 && childMaxBirthDay > 0) {
                   if (child.getBirthDate(false) == null) {
@@ -623,13 +689,13 @@ public class Family extends EventContainer{
          buf.append(Utils.replaceHTMLFormatting(bodyText));
          // Finish printing out the content
          out.print("<content>");
-         String outText = buf.toString();
          if (encodeXML)
          {
-            //outText = Utils.encodeXML(outText);
-            outText = encloseInCDATA(outText);
+            printInCDATA(out, buf);
+         } else
+         {
+            out.print(buf);
          }
-         out.print(outText);
       } catch (Uploader.PrintException e)
       {
          if (e.getGedcom() == null)
@@ -1,5 +1,6 @@
 package org.werelate.gedcom;
 
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.lm.gedml.GedcomParser;
@@ -12,6 +13,12 @@ import org.werelate.util.Utils;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -73,6 +80,16 @@ public class Gedcom implements ContentHandler {
       return (isTrustedUploader ? TRUSTED_CUTOFF_DAY : CUTOFF_DAY);
    }
 
+   // Dates parsed for this GEDCOM; the chunks of a file parsed in parallel share the GEDCOM's
+   private ParsedDate.Cache dates = new ParsedDate.Cache();
+
+   /**
+    * @return the dates parsed for this GEDCOM, and how often they were looked up again
+    */
+   public ParsedDate.Cache getDates() {
+      return dates;
+   }
+
    // This says whether we're ignoring
    // the tag at the top of the stack
    //  and all subtags underneath this tag.
@@ -125,7 +142,8 @@ public class Gedcom implements ContentHandler {
     * Maps ID -> Source for all of the sources found in the gedcom.
     */
    private Map<String, Source> sources = new TreeMap<String, Source>();
-   private Map<Source, String> source2id = new HashMap<Source, String>();
+   // Sources added so far by their fingerprint; sources with the same fingerprint are compared in full
+   private Map<Source.Fingerprint, List<Source>> fingerprint2sources = new HashMap<Source.Fingerprint, List<Source>>();
 
    /**
     * @return Map GEDCOM ID -> source of all souces in this GEDCOM
@@ -134,6 +152,74 @@ public class Gedcom implements ContentHandler {
       return sources;
    }
 
+   // Source ID -> people and families that cite the source; built by indexSourceCitations
+   private Map<String, List<Person>> peopleCitingSource = null;
+   private Map<String, List<Family>> familiesCitingSource = null;
+
+   /**
+    * @param sourceID GEDCOM ID of a source
+    * @return people whose citations (including those in their names, events and notes) refer to the source
+    * @throws PostProcessException
+    */
+   public List<Person> getPeopleCitingSource(String sourceID) throws PostProcessException {
+      indexSourceCitations();
+      List<Person> citing = peopleCitingSource.get(sourceID);
+      return (citing == null ? Collections.<Person>emptyList() : citing);
+   }
+
+   /**
+    * @param sourceID GEDCOM ID of a source
+    * @return families whose citations (including those in their events and notes) refer to the source
+    * @throws PostProcessException
+    */
+   public List<Family> getFamiliesCitingSource(String sourceID) throws PostProcessException {
+      indexSourceCitations();
+      List<Family> citing = familiesCitingSource.get(sourceID);
+      return (citing == null ? Collections.<Family>emptyList() : citing);
+   }
+
+   // Collects the citations of every person and family once, instead of once per source.
+   // Built on first use, when the citations are complete.
+   private synchronized void indexSourceCitations() throws PostProcessException {
+      if (peopleCitingSource != null) {
+         return;
+      }
+      Map<String, List<Person>> citingPeople = new HashMap<String, List<Person>>();
+      for (Person person : getPeople().values()) {
+         for (String sourceID : getCitedIDs(person.getAllCitations(this))) {
+            List<Person> citing = citingPeople.get(sourceID);
+            if (citing == null) {
+               citing = new ArrayList<Person>();
+               citingPeople.put(sourceID, citing);
+            }
+            citing.add(person);
+         }
+      }
+      Map<String, List<Family>> citingFamilies = new HashMap<String, List<Family>>();
+      for (Family family : getFamilies().values()) {
+         for (String sourceID : getCitedIDs(family.getAllCitations(this))) {
+            List<Family> citing = citingFamilies.get(sourceID);
+            if (citing == null) {
+               citing = new ArrayList<Family>();
+               citingFamilies.put(sourceID, citing);
+            }
+            citing.add(family);
+         }
+      }
+      familiesCitingSource = citingFamilies;
+      peopleCitingSource = citingPeople;
+   }
+
+   private static Set<String> getCitedIDs(Set<Citation> citations) {
+      Set<String> ids = new HashSet<String>();
+      for (Citation cit : citations) {
+         if (cit.getId() != null) {
+            ids.add(cit.getId());
+         }
+      }
+      return ids;
+   }
+
    private Source currSource = null;
    private Name currName = null;
 
@@ -224,10 +310,10 @@ public class Gedcom implements ContentHandler {
                         " Unexpected tag inside " + parentName + ": " + childName + ", ignoring";
       if (ignoreUnexpectedTags)
       {
-         logger.info(message);
+         log(Level.INFO, message);
       } else
       {
-         logger.warn(message);
+         log(Level.WARN, message);
          this.incrementWarnings();
       }
       unknownTag = true;
@@ -244,7 +330,7 @@ public class Gedcom implements ContentHandler {
    }
 
    private void ignoreInfo(String parentName, String childName) {
-      logger.info(getUserName() + ':' + getFN() + ": " + "Line " + getLineNumber() +
+      log(Level.INFO, getUserName() + ':' + getFN() + ": " + "Line " + getLineNumber() +
             ": Ignoring tag inside " + parentName + ": " + childName);
    }
 
@@ -274,7 +360,7 @@ public class Gedcom implements ContentHandler {
    // Called when we don't want to print out an info or
    // put any of the text of the tag in the text of the parent element
    private void pushSilentIgnore(String parentName, String childName) {
-      logger.debug(getUserName() + ':' + getFN() + ": " + "Line " + getLineNumber() +
+      log(Level.DEBUG, getUserName() + ':' + getFN() + ": " + "Line " + getLineNumber() +
             ": Ignoring tag inside " + parentName + ": " + childName);
       setSilentlyIgnoring(true);
       finishIgnore(childName);
@@ -302,14 +388,31 @@ public class Gedcom implements ContentHandler {
    public void warn(String warning) {
       this.getLineNumber();
       incrementWarnings();
-      logger.warn(logStr(warning));
+      log(Level.WARN, logStr(warning));
    }
 
    /**
     * @param info to be printed along with a line number
     */
    public void infoLine(String info) {
-      logger.info(lineStatement() + logStr(info));
+      log(Level.INFO, lineStatement() + logStr(info));
+   }
+
+   private void log(Level level, String message) {
+      log(logger, level, message);
+   }
+
+   /**
+    * Logs the message, or keeps it until the chunks are merged when this GEDCOM parses a chunk,
+    * so that the parser's messages about the lines it reads are logged in file order too
+    * @param log logger to log the message to
+    */
+   public void log(Logger log, Level level, String message) {
+      if (chunkLog == null) {
+         log.log(level, message);
+      } else if (log.isEnabled(level)) {
+         chunkLog.add(new LogLine(log, level, message));
+      }
    }
 
    boolean isInIndiSchema = false;
@@ -463,7 +566,7 @@ public class Gedcom implements ContentHandler {
          // method "characters"
          if (!(this.isSilentlyIgnoring()
                || isCONTCONC(localName))) {
-            if (!PlaceUtils.isEmpty(peekTag.getContent()) && !peekTag.getContent().endsWith("\n")) {
+            if (!peekTag.isContentEmpty() && !peekTag.contentEndsWith('\n')) {
                peekTag.append("\n");
             }
             // Gets human readable form of the tag
@@ -952,7 +1055,7 @@ public class Gedcom implements ContentHandler {
       return localName;
    }
 
-   private boolean isSubRepo(String localName) {
+   private static boolean isSubRepo(String localName) {
       return localName.equals("NAME") ||
             isADDR(localName) ||
             isPHON(localName) ||
@@ -960,12 +1063,12 @@ public class Gedcom implements ContentHandler {
             isCALN(localName);
    }
 
-   private boolean isSubNoteTitleText(String localName) {
+   private static boolean isSubNoteTitleText(String localName) {
       return localName.equals("NOTE")
             || localName.equals("ABBR");
    }
 
-   private boolean isSubName(String localName) {
+   private static boolean isSubName(String localName) {
       return localName.equals("GIVN")
             || localName.equals("SURN")
             || localName.equals("NSFX")
@@ -980,7 +1083,7 @@ public class Gedcom implements ContentHandler {
             || localName.equals("DATE");
    }
 
-   private boolean isSubCitation(String localName) {
+   private static boolean isSubCitation(String localName) {
       return localName.equals("PAGE")
             || localName.equals("QUAY");
    }
@@ -1198,7 +1301,7 @@ public class Gedcom implements ContentHandler {
                      peek.equals("TEXT")) {
                   endSubNoteText(popped);
                } else if (hasSubText(peek)) {
-                  if (this.isSubNoteTitleText(localName)) {
+                  if (isSubNoteTitleText(localName)) {
                      tagStack.peek().append(content, " ");
                   } else {
                      warnEnd(peek, popped);
@@ -1321,7 +1424,7 @@ public class Gedcom implements ContentHandler {
                         "\" while ending element \"" + localName + '\"');*/
                }
             } catch (EmptyStackException e) {
-               logger.error("There was an empty stack when trying to end element: " + localName);
+               log(Level.ERROR, "There was an empty stack when trying to end element: " + localName);
                throw e;
             } finally {
                if (tagStack.size() > 0) {
@@ -1333,7 +1436,7 @@ public class Gedcom implements ContentHandler {
    }
 
    private void endSubNoteText(Tag pop) {
-      if (this.isSubNoteTitleText(pop.getName())) {
+      if (isSubNoteTitleText(pop.getName())) {
          tagStack.peek().append(pop.getContent());
       } else if (pop.getName().equals("_TITLE")) {
          // We want to bold the title
@@ -1400,7 +1503,7 @@ public class Gedcom implements ContentHandler {
                   } else
                   {
                      incrementWarnings();
-                     logger.warn(logStr(lineStatement() + "Image citation inside of a souce citation, something we don't yet handle."));
+                     log(Level.WARN, logStr(lineStatement() + "Image citation inside of a souce citation, something we don't yet handle."));
                   }
                } else
                {
@@ -1414,7 +1517,7 @@ public class Gedcom implements ContentHandler {
                } else
                {
                   incrementWarnings();
-                  logger.warn(logStr(lineStatement() + "Image citation inside of an event, which is something we don't yet support."));
+                  log(Level.WARN, logStr(lineStatement() + "Image citation inside of an event, which is something we don't yet support."));
                }
             } else
             {
@@ -1428,7 +1531,13 @@ public class Gedcom implements ContentHandler {
    }
 
    private void endSchemaEntry(String topTag) {
-      schema.put(topTag, currSchemaKey, currSchemaValue);
+      if (isSchemaShared) {
+         // The chunks after the first read the schema found in the first one;
+         // a chunk that changes it has to be parsed again in order.
+         schemaChanged = true;
+      } else {
+         schema.put(topTag, currSchemaKey, currSchemaValue);
+      }
       currSchemaKey = null;
       currSchemaValue = null;
    }
@@ -1460,33 +1569,53 @@ public class Gedcom implements ContentHandler {
          throw new RuntimeException("No ID number for SOUR!");
       } else {
          currSource.eatIgnoredBucket(ignoredBucket);
-         // We check to see if there is another existing
-         // source which already has the same contents as
-         // the source we are about to add.
-         // If there is such an existing source, then
-         // we make the id we are about to add point to the
-         // existing source.
-         //
-         // This has the consequence that when we iterate
-         // through all of the sources in the source map
-         // to print them out,
-         // we need to make sure that the key (id number)
-         // equals the value (Source)'s id number,
-         // so that we only print out each unique source
-         // once.
-         if (source2id.containsKey(currSource))
-         {
-            sources.put(id, sources.get(source2id.get(currSource)));
-         } else
-         {
-            currSource.setID(id);
-            sources.put(id, currSource);
-            source2id.put(currSource, id);
+         if (isChunk) {
+            // The sources of a chunk are deduplicated when the chunk is merged
+            chunkSourceIDs.add(id);
+            chunkSources.add(currSource);
+         } else {
+            addSource(id, currSource);
          }
          currSource = null;
       }
    }
 
+   private void addSource(String id, Source source) {
+      // We check to see if there is another existing
+      // source which already has the same contents as
+      // the source we are about to add.
+      // If there is such an existing source, then
+      // we make the id we are about to add point to the
+      // existing source.
+      //
+      // This has the consequence that when we iterate
+      // through all of the sources in the source map
+      // to print them out,
+      // we need to make sure that the key (id number)
+      // equals the value (Source)'s id number,
+      // so that we only print out each unique source
+      // once.
+      List<Source> sameFingerprint = fingerprint2sources.get(source.getFingerprint());
+      if (sameFingerprint == null)
+      {
+         sameFingerprint = new ArrayList<Source>(1);
+         fingerprint2sources.put(source.getFingerprint(), sameFingerprint);
+      } else
+      {
+         for (Source existing : sameFingerprint)
+         {
+            if (existing.equals(source))
+            {
+               sources.put(id, sources.get(existing.getID()));
+               return;
+            }
+         }
+      }
+      source.setID(id);
+      sources.put(id, source);
+      sameFingerprint.add(source);
+   }
+
    private void endFAM(String id, List<String> ignoredBucket, String textContent) throws RuntimeException {
       if (PlaceUtils.isEmpty(id)) {
          throw new RuntimeException("No ID number for Family!");
@@ -1560,7 +1689,10 @@ public class Gedcom implements ContentHandler {
             // first person to be
             // added. We will mark them
             // as the primary person.
-            currPerson.setPrimary();
+            // (The first person of a chunk is marked when the chunk is merged.)
+            if (!isChunk) {
+               currPerson.setPrimary();
+            }
             setPrimaryPerson(currPerson);
          }
          people.put(id, currPerson);
@@ -1618,7 +1750,7 @@ public class Gedcom implements ContentHandler {
             pop.getName().equals("_FREL")) {
          if (!pop.getContent().equals("Natural") &&
                !pop.getContent().equals("Unknown")) {
-            logger.info(getUserName() + ':' + getFN() + ": " + "Line " + getLineNumber() +
+            log(Level.INFO, getUserName() + ':' + getFN() + ": " + "Line " + getLineNumber() +
                   ": Is not \"Natural\" or \"Unknown\": " + pop.getName() + ": CHIL");
          }
       } else if (pop.getName().equals("_PREF")) {
@@ -1685,7 +1817,7 @@ public class Gedcom implements ContentHandler {
 				} else if (pop.getName().equals("OBJE")) {
 					currCitation.addImage(this, currImage, pop.getID());
 					currImage = null;
-				} else if (this.isSubNoteTitleText(pop.getName())) {
+				} else if (isSubNoteTitleText(pop.getName())) {
 					tagStack.peek().append(pop.getContent());
 				} else if (pop.getName().equals("QUAY")) {
 					currCitation.setQuality(this, pop.getContent());
@@ -1744,7 +1876,7 @@ public class Gedcom implements ContentHandler {
             } else if (!PlaceUtils.isEmpty(pop.getContent())) {
                currSource.addNote(pop.getContent());
             } else {
-               logger.info(logStr(pop.getLineNum() + ": Trying to add an empty note to source"));
+               log(Level.INFO, logStr(pop.getLineNum() + ": Trying to add an empty note to source"));
             }
          } else if (pop.getName().equals("DATE")) {
             currSource.addNote("Date: " + pop.getContent());
@@ -1816,7 +1948,7 @@ public class Gedcom implements ContentHandler {
          throws RuntimeException {
       if (isSOUR(pop.getName())) {
          endCurrCitation(currTitle, pop.getContent(), pop.getIgnoredBucket());
-      } else if (this.isSubNoteTitleText(pop.getName()))
+      } else if (isSubNoteTitleText(pop.getName()))
       {
          if (currTitle != null)
          {
@@ -1844,9 +1976,7 @@ public class Gedcom implements ContentHandler {
       // not already contain the new line
       if (addressLine(localName)) {
 
-         if (!tagStack.peek().getContent().contains(content)) {
-            tagStack.peek().append(content, "\n");
-         }
+         tagStack.peek().appendUnlessContained(content, "\n");
       } else if (addressPart(localName)) {
          // don't attend addressPart because we end up repeating place
 //         if (!tagStack.peek().getContent().contains(content)) {
@@ -1890,21 +2020,21 @@ public class Gedcom implements ContentHandler {
       }
    }
 
-   private boolean addressLine(String localName) {
+   private static boolean addressLine(String localName) {
       return localName.equals("ADR1")
             || localName.equals("ADR2")
             || localName.equals("_NAME")
             || isSubNoteTitleText(localName);
    }
 
-   private boolean addressPart(String localName) {
+   private static boolean addressPart(String localName) {
       return localName.equals("STAE")
             || localName.equals("CITY")
             || localName.equals("POST")
             || localName.equals("CTRY");
    }
 
-   private boolean isSubAddress(String localName) {
+   private static boolean isSubAddress(String localName) {
       return addressLine(localName) || addressPart(localName);
    }
 
@@ -1961,7 +2091,7 @@ public class Gedcom implements ContentHandler {
       } else if (localName.equals("STAT") || localName.equals("_STAT")) {
          if (!content.equals("MARRIED")) {
             currFamily.addNote("Status: " + content);
-            logger.info(logStr("In FAM " + localName + " not \"MARRIED\""));
+            log(Level.INFO, logStr("In FAM " + localName + " not \"MARRIED\""));
          }
       } else {
          warnEnd(peekName, pop);
@@ -2158,13 +2288,16 @@ public class Gedcom implements ContentHandler {
       }
    }
 
-   public void characters(char ch[], int start, int length) throws SAXException {
-      String s = new String(ch);
-      if (isIgnoring()) {
-         tagStack.get(ignoreLevel).append(s);
-      } else if (tagStack.size() > 0) {
-         String tagName = tagStack.peek().getName();
-         if (Person.isAttribute(tagName)
+   // Whether characters() keeps the text of each tag name seen so far, leaving out the schema tags
+   // and the text of top-level records, which depend on the file being read
+   private static final Map<String, Boolean> TAKES_TEXT = new ConcurrentHashMap<String, Boolean>();
+   // Files can bring any number of custom tags, so only this many names are kept
+   private static final int MAX_TAKES_TEXT = 4096;
+
+   private static boolean takesText(String tagName) {
+      Boolean takesText = TAKES_TEXT.get(tagName);
+      if (takesText == null) {
+         takesText = Person.isAttribute(tagName)
                || Event.isAttribute(tagName)
                || isSubName(tagName)
                || Family.isAttribute(tagName)
@@ -2179,13 +2312,26 @@ public class Gedcom implements ContentHandler {
                || isMEDI(tagName)
                || tagName.equals("_MEDI")
                || tagName.equals("_TITLE")
-               || schema.contains(tagName)
                || isCONTCONC(tagName)
-               || tagName.equals("_PREF")
+               || tagName.equals("_PREF");
+         if (TAKES_TEXT.size() < MAX_TAKES_TEXT) {
+            TAKES_TEXT.put(tagName, takesText);
+         }
+      }
+      return takesText;
+   }
+
+   public void characters(char ch[], int start, int length) throws SAXException {
+      if (isIgnoring()) {
+         tagStack.get(ignoreLevel).append(ch, start, length);
+      } else if (tagStack.size() > 0) {
+         String tagName = tagStack.peek().getName();
+         if (takesText(tagName)
+               || schema.contains(tagName)
                || (tagStack.size() == 1
                && (tagName.equals("INDI")
                || tagName.equals("FAM")))) {
-            tagStack.peek().append(s);
+            tagStack.peek().append(ch, start, length);
          } else {
             warn("Characters for unrecognized tag: " + tagName);
          }
@@ -2529,14 +2675,23 @@ public class Gedcom implements ContentHandler {
    }*/
 
    private GedcomParser gp = null;
-   private int numWarnings = 0;
+   // Warnings may be counted from several threads while setting isLiving
+   private final AtomicInteger numWarnings = new AtomicInteger();
+   private final IssueTable issues = new IssueTable();
+
+   /**
+    * @return data quality issues found for the people of this GEDCOM while setting isLiving
+    */
+   public IssueTable getIssues() {
+      return issues;
+   }
 
    public int getNumWarnings() {
-      return numWarnings;
+      return numWarnings.get();
    }
 
    public void incrementWarnings() {
-      numWarnings++;
+      numWarnings.incrementAndGet();
    }
 
    private int getLineNumber() {
@@ -2555,6 +2710,166 @@ public class Gedcom implements ContentHandler {
 
    private boolean ignoreUnexpectedTags = false;
 
+   // Set on the GEDCOMs that parse the chunks of a file being parsed in parallel
+   private boolean isChunk = false;
+   private boolean isSchemaShared = false;
+   private boolean schemaChanged = false;
+   private List<String> chunkSourceIDs = null;
+   private List<Source> chunkSources = null;
+   private List<LogLine> chunkLog = null;
+
+   private static class LogLine {
+      private final Logger logger;
+      private final Level level;
+      private final String message;
+
+      private LogLine(Logger logger, Level level, String message) {
+         this.logger = logger;
+         this.level = level;
+         this.message = message;
+      }
+   }
+
+   // Number of chunks to split the records into for each thread, so that
+   // threads that finish early can pick up more work
+   private static final int CHUNKS_PER_THREAD = 4;
+
+   /**
+    * Creates an empty GEDCOM that parses a chunk of the file for gedcom.
+    * Its top-level maps keep their insertion order so they can be merged in file order.
+    */
+   private Gedcom(Gedcom gedcom, Schema schema, boolean isSchemaShared) {
+      this.uploader = gedcom.uploader;
+      this.ignoreUnexpectedTags = gedcom.ignoreUnexpectedTags;
+      setTreeID(gedcom.getTreeID());
+      setUserName(gedcom.getUserName());
+      setIsTrustedUploader(gedcom.isTrustedUploader());
+      setFN(gedcom.getFN());
+      this.dates = gedcom.dates;
+      this.schema = schema;
+      this.isSchemaShared = isSchemaShared;
+      isChunk = true;
+      chunkSourceIDs = new ArrayList<String>();
+      chunkSources = new ArrayList<Source>();
+      chunkLog = new ArrayList<LogLine>();
+      repos = new LinkedHashMap<String, Repository>();
+      notes = new LinkedHashMap<String, Note>();
+      todos = new LinkedHashMap<String, String>();
+      images = new LinkedHashMap<String, Image>();
+      gp = new GedcomParser();
+      gp.setContentHandler(this);
+      gp.setErrorHandler(new DefaultHandler());
+   }
+
+   /**
+    * Parses the file in chunks of whole records on a fork-join pool, then merges the chunks in file order.
+    * The first chunk, which holds the header, is parsed before the others so they can use its schema.
+    * Nothing is added to this GEDCOM unless every chunk ends in the state that the next one starts in,
+    * so the result is the same as parsing the file in order.
+    * The chunks hold back what they log, which is logged in file order once they have been merged,
+    * so nothing is logged twice when the file has to be parsed in order after all.
+    * @return false if the file has to be parsed in order instead
+    */
+   private boolean parseInParallel(String systemId, int numThreads) throws IOException, SAXException
+   {
+      List<GedcomParser.RecordChunk> chunks = GedcomParser.getRecordChunks(systemId, numThreads * CHUNKS_PER_THREAD);
+      if (chunks == null || chunks.size() < 3)
+      {
+         return false;
+      }
+      List<Gedcom> parts = new ArrayList<Gedcom>();
+      Gedcom header = new Gedcom(this, new Schema(), false);
+      parts.add(header);
+      ForkJoinPool pool = new ForkJoinPool(numThreads);
+      try {
+         if (!pool.submit(header.parseTask(chunks.get(0))).get() || header.isInvalid())
+         {
+            return false;
+         }
+         List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+         for (GedcomParser.RecordChunk chunk : chunks.subList(1, chunks.size()))
+         {
+            Gedcom part = new Gedcom(this, header.schema, true);
+            parts.add(part);
+            tasks.add(part.parseTask(chunk));
+         }
+         for (Future<Boolean> result : pool.invokeAll(tasks))
+         {
+            if (!result.get())
+            {
+               return false;
+            }
+         }
+      } catch (ExecutionException e) {
+         // Parsing in order reports the error at the right line
+         logger.debug(logStr("Parsing in order after a chunk failed: " + e.getCause()));
+         return false;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while parsing " + systemId);
+      } finally {
+         pool.shutdown();
+      }
+
+      schema = header.schema;
+      for (Gedcom part : parts)
+      {
+         merge(part);
+      }
+      for (Gedcom part : parts)
+      {
+         for (LogLine line : part.chunkLog)
+         {
+            line.logger.log(line.level, line.message);
+         }
+         part.chunkLog = null;
+      }
+      if (people.size() == 0)
+      {
+         setInvalid();
+      }
+      return true;
+   }
+
+   // Parses a chunk and checks that the handler is back where it starts a record
+   private Callable<Boolean> parseTask(final GedcomParser.RecordChunk chunk) {
+      return new Callable<Boolean>() {
+         public Boolean call() throws Exception {
+            return gp.parse(chunk) && (chunk.isLast() || isBetweenRecords()) && !schemaChanged;
+         }
+      };
+   }
+
+   private boolean isBetweenRecords() {
+      return tagStack.isEmpty() && !isIgnoring() && !isSilentlyIgnoring() && ignoreLevel == -1 &&
+            currPerson == null && currFamily == null && currSource == null && currName == null &&
+            currRepo == null && currEvent == null && currCitation == null && currChild == null &&
+            currImage == null && currTitle == null && currData == null && currNote == null &&
+            currAltName == null && pedi == null && !primaryChildOf &&
+            currSchemaKey == null && currSchemaValue == null && !isInIndiSchema && !isInFamSchema;
+   }
+
+   // Adds the records of a chunk as if they had been parsed after the ones already here
+   private void merge(Gedcom part) {
+      if (people.size() == 0 && part.getPrimaryPerson() != null)
+      {
+         part.getPrimaryPerson().setPrimary();
+         setPrimaryPerson(part.getPrimaryPerson());
+      }
+      people.putAll(part.people);
+      families.putAll(part.families);
+      for (int i = 0; i < part.chunkSources.size(); i++)
+      {
+         addSource(part.chunkSourceIDs.get(i), part.chunkSources.get(i));
+      }
+      repos.putAll(part.repos);
+      notes.putAll(part.notes);
+      todos.putAll(part.todos);
+      images.putAll(part.images);
+      numWarnings.addAndGet(part.getNumWarnings());
+      unknownTag |= part.unknownTag;
+   }
+
    /**
     * Constructor
     * @param uploader uploader object which is controlling this GEDCOM
@@ -2570,6 +2885,21 @@ public class Gedcom implements ContentHandler {
                  int treeId, boolean isTrustedUploader,
                  boolean ignoreUnexpectedTags, StringBuffer placeXMLBuffer)
          throws IOException, SAXException, PostProcessException
+   {
+      this(uploader, fn, userName, placeServer, defaultCountry, treeId, isTrustedUploader, ignoreUnexpectedTags,
+            placeXMLBuffer, uploader != null && uploader.isMemoryMappedParsing(),
+            (uploader == null ? 1 : uploader.getParsingThreads()));
+   }
+
+   /**
+    * Constructor that is given how to parse the file instead of asking the uploader
+    * @param memoryMapped whether to read the file through a memory mapping
+    * @param parsingThreads number of threads to parse the records of a memory-mapped file on
+    */
+   Gedcom(Uploader uploader, String fn, String userName, String placeServer, String defaultCountry,
+          int treeId, boolean isTrustedUploader, boolean ignoreUnexpectedTags, StringBuffer placeXMLBuffer,
+          boolean memoryMapped, int parsingThreads)
+         throws IOException, SAXException, PostProcessException
    {
       this.uploader = uploader;
       this.ignoreUnexpectedTags = ignoreUnexpectedTags;
@@ -2579,8 +2909,13 @@ public class Gedcom implements ContentHandler {
       gp = new GedcomParser();
       gp.setContentHandler(this);
       gp.setErrorHandler(new DefaultHandler());
+      gp.setMemoryMapped(memoryMapped);
       setFN(fn);
-      gp.parse("file://" + (new File(fn)).getAbsolutePath());
+      String systemId = "file://" + (new File(fn)).getAbsolutePath();
+      if (!gp.isMemoryMapped() || parsingThreads <= 1 || !parseInParallel(systemId, parsingThreads))
+      {
+         gp.parse(systemId);
+      }
       if (!isInvalid)
       {
          postProcess(placeServer, defaultCountry, placeXMLBuffer);
@@ -3,19 +3,27 @@ package org.werelate.gedcom;
 import org.w3c.dom.*;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 import org.werelate.util.Utils;
 import org.werelate.util.PlaceUtils;
 import org.werelate.util.MultiMap;
 import org.werelate.util.ElementWriter;
+import org.werelate.util.NodeWriter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.xml.xpath.*;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.TransformerException;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.io.*;
@@ -32,7 +40,8 @@ public class GedcomXML {
          LogManager.getLogger("org.werelate.gedcom.GedcomXML");
 
    private Map<String, Node> id2Page = new HashMap<String, Node>();
-   private Map<String, Document> id2Content = new HashMap<String, Document>();
+   private Map<String, Node> id2Place = new HashMap<String, Node>();
+   private Map<String, ContentElement> id2Content = new HashMap<String, ContentElement>();
    private Map<String, String> id2Text = new HashMap<String,String>();
    private Set<String> excludedIds = new HashSet<String>();
    private Set<String> livingIds = new HashSet<String>();
@@ -41,16 +50,37 @@ public class GedcomXML {
    private Set<String> familyIds = new HashSet <String>();
    private Set<String> mysourceIds = new HashSet<String>();
    private Map<String, String> id2Title = new HashMap<String, String>();
+   // [given, surname] -> person title, since many people in a GEDCOM share names
+   private Map<List<String>, String> name2Title = new HashMap<List<String>, String>();
    private Map<String, String> id2ReservedTitle = new HashMap<String, String>();
    private Map<String, String> placeText2Id = new HashMap<String, String>();
    private Map<String, String> placeId2Standardized = new HashMap<String, String>();
    private Map<String, String> id2Uid = new HashMap<String,String>();
    private Map<String, Integer> id2Namespace = new HashMap<String, Integer>();
+   // The place attributes in the content of the pages, by their text, in the order they were read,
+   // so that updateContent can update the places without walking the content
+   private Map<String, List<PlaceReference>> placeText2References = new LinkedHashMap<String, List<PlaceReference>>();
    private MultiMap<String,String> id2ExistingPageTitles = new MultiMap <String, String>();
    private Document doc = null;
    private String primaryPerson = null;
 
 
+   // A place attribute of an element in the content of a page
+   private static class PlaceReference {
+      private final String id;
+      private final ContentElement content;
+      private final ContentElement element;
+      private final String attribute;
+
+      private PlaceReference(String id, ContentElement content, ContentElement element, String attribute)
+      {
+         this.id = id;
+         this.content = content;
+         this.element = element;
+         this.attribute = attribute;
+      }
+   }
+
    public class GedcomXMLException extends Exception {
       public GedcomXMLException(String message)
       {
@@ -157,8 +187,7 @@ public class GedcomXML {
             {
                if (!regenerate) {
                   // We should also update the place node for this id.
-                  XPathExpression expression = xpe.compile("/gedcom/place[@key='" + id + "']");
-                  Node placeNode = (Node) expression.evaluate(doc, XPathConstants.NODE);
+                  Node placeNode = id2Place.get(id);
                   if (!match)
                   {
                      matchTitle = placeNode.getAttributes().getNamedItem("text").getNodeValue();
@@ -269,20 +298,19 @@ public class GedcomXML {
    // Check to see if any families that are
    // not already marked living, should be marked
    // living because a husband or wife is now living
-   private void rerunFamilyLiving() throws XPathExpressionException
+   private void rerunFamilyLiving()
    {
       for (String id : familyIds)
       {
          // Let's first determine if any of the
          // parents are currently living.
-         Node content = id2Content.get(id);
-         NodeList spouseIds = (NodeList) spouseIdExpression.evaluate(content, XPathConstants.NODESET);
+         ContentElement content = id2Content.get(id);
+         List<ContentElement> spouses = getChildren(content, FAMILY, "husband", "wife");
 
          boolean hasLivingSpouse = false;
-         for (int i=0; i < spouseIds.getLength(); i++)
+         for (ContentElement spouse : spouses)
          {
-            String spouseId = spouseIds.item(i).getNodeValue();
-            if (livingIds.contains(spouseId))
+            if (spouse.hasAttribute("id") && livingIds.contains(spouse.getAttribute("id")))
             {
                hasLivingSpouse = true;
                break;
@@ -303,70 +331,51 @@ public class GedcomXML {
       }
    }
 
-   private static XPathExpression pageExpression;
-   private static XPathExpression placeExpression;
-   public static XPathExpression namespaceExpression;
-   public static XPathExpression nameExpression;
-   public static XPathExpression idExpression;
-   public static XPathExpression excludedExpression;
-   public static XPathExpression livingExpression;
-   private static XPathExpression contentExpression;
-   private static XPathExpression husbandIdExpression;
-   private static XPathExpression wifeIdExpression;
-   private static XPathExpression spouseIdExpression;
-   private static XPathExpression sourceTitleExpression;
-   private static XPathExpression familyReferenceExpression;
-   private static XPathExpression personReferenceExpression;
-   private static XPathExpression personReferenceAttributeExpression;
-   private static XPathExpression childOfFamilyExpression;
-   private static XPathExpression sourceCitationExpression;
-   private static XPathExpression sourceIdExpression;
-   private static XPathExpression sourcesExpression;
-   private static XPathExpression placeAttributeExpression;
    private static XPathExpression resultExpression;
-   private static XPathExpression eventExpression;
-   private static XPathExpression altNameExpression;
-   private static XPathExpression noteExpression;
-   private static XPathExpression uidExpression;
    private static final XPath xpe = Uploader.xpe;
 
    static
    {
       try
       {
-         pageExpression = xpe.compile("/gedcom/page");
-         placeExpression = xpe.compile("/gedcom/place");
-         namespaceExpression = xpe.compile("@namespace");
-         idExpression = xpe.compile("@id");
-         uidExpression = xpe.compile("@uid");
-         excludedExpression = xpe.compile("@exclude");
-         livingExpression = xpe.compile("@living");
-         contentExpression = xpe.compile("content");
-         husbandIdExpression = xpe.compile("/family/husband[1]/@id");
-         wifeIdExpression = xpe.compile("/family/wife[1]/@id");
-         spouseIdExpression = xpe.compile("/family/husband/@id | /family/wife/@id");
-         sourceTitleExpression = xpe.compile("/mysource/title | /source/title");
-         familyReferenceExpression = xpe.compile("person/child_of_family | person/spouse_of_family");
-         personReferenceExpression = xpe.compile("family/husband | family/wife | family/child");
-         personReferenceAttributeExpression = xpe.compile("@child_of_family | @spouse_of_family");
-         childOfFamilyExpression = xpe.compile("person/child_of_family");
-         sourceCitationExpression = xpe.compile("person/source_citation | family/source_citation");
-         sourceIdExpression = xpe.compile("@source_id");
-         sourcesExpression = xpe.compile("person/name[@sources] | person/alt_name[@sources] | person/event_fact[@sources] | person/note[@sources] | family/name[@sources] | family/alt_name[@sources] | family/event_fact[@sources] | family/note[@sources]");
-         placeAttributeExpression = xpe.compile("//@place | //@birthplace | //@deathplace | //@chrplace | //@burialplace");
          resultExpression = xpe.compile("/readGedcomData/result");
-         eventExpression = xpe.compile("person/event_fact | family/event_fact");
-         nameExpression = xpe.compile("person/name");
-         altNameExpression = xpe.compile("person/alt_name");
-         noteExpression = xpe.compile("person/note | family/note");
-         //textExpression = xpe.compile("@text");
-         //titleExpression = xpe.compile("@title");
       } catch (XPathExpressionException e)
       {
          throw new RuntimeException(e);
       }
    }
 
+   // Names of the content's root element, and of the child elements that refer to other pages,
+   // for selecting what the person/child_of_family | person/spouse_of_family style of XPath expression used to select
+   private static final String[] PERSON = {"person"};
+   private static final String[] FAMILY = {"family"};
+   private static final String[] PERSON_FAMILY = {"person", "family"};
+   private static final String[] SOURCE = {"mysource", "source"};
+   private static final String[] FAMILY_REFERENCES = {"child_of_family", "spouse_of_family"};
+   private static final String[] PERSON_REFERENCES = {"husband", "wife", "child"};
+   private static final String[] PLACE_ATTRIBUTES = {"birthplace", "burialplace", "chrplace", "deathplace", "place"};
+
+   /**
+    * @param content root element of a page's content, may be null
+    * @param rootNames names the root element must have
+    * @param names names of the child elements to return
+    * @return the root's child elements with any of the names, in document order
+    */
+   private static List<ContentElement> getChildren(ContentElement content, String[] rootNames, String... names)
+   {
+      if (content == null || !Arrays.asList(rootNames).contains(content.getName()))
+      {
+         return Collections.emptyList();
+      }
+      return content.getChildren(names);
+   }
+
+   private static ContentElement getChild(ContentElement content, String[] rootNames, String name)
+   {
+      List<ContentElement> children = getChildren(content, rootNames, name);
+      return (children.size() > 0 ? children.get(0) : null);
+   }
+
    private static final String stringXmlSection = "(<(mysource|person|family)>.*?</(mysource|person|family)>)|(<(mysource|person|family)/>)";
    public static final Pattern pPageContentXml = Pattern.compile(stringXmlSection, Pattern.DOTALL);
 
@@ -389,80 +398,214 @@ public class GedcomXML {
       return null;
    }
 
-   public void parse(String filename) throws XPathException, XPathExpressionException,
-         SAXException, IOException, GedcomXMLException
+   private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+   private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+   static
    {
-      doc = Uploader.db.parse(new InputSource(new InputStreamReader(new FileInputStream(filename), "UTF-8")));
-      Node primaryPersonNode = doc.getFirstChild().getAttributes().getNamedItem("primary_person");
-      if (primaryPersonNode != null)
+      xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+      // The page contents are in CDATA sections. They are written back out as CDATA sections by save() when a page
+      // isn't updated, as when two pages have the same id, so the reader must say which text came from them.
+      if (xmlInputFactory.isPropertySupported(REPORT_CDATA_EVENT))
       {
-         primaryPerson = primaryPersonNode.getNodeValue();
+         xmlInputFactory.setProperty(REPORT_CDATA_EVENT, Boolean.TRUE);
       }
+   }
 
-      // First let's get the standardized places.
-      NodeList places = (NodeList) placeExpression.evaluate(doc, XPathConstants.NODESET);
-      for (int i = 0; i < places.getLength(); i++)
+   /**
+    * Reads the inprocess XML file in a single pass, building the document that save() writes
+    * and filling in the page and place maps as each page and place element ends.
+    */
+   public void parse(String filename) throws XPathException, XPathExpressionException,
+         SAXException, IOException, GedcomXMLException
+   {
+      InputStream in = new FileInputStream(filename);
+      try
       {
-         Node place = places.item(i);
-         String id = place.getAttributes().getNamedItem("key").getNodeValue();
-         String text = place.getAttributes().getNamedItem("text").getNodeValue();
-         placeText2Id.put(text, id);
-         Node titleNode = place.getAttributes().getNamedItem("title");  // can be null if the place standardizes to the empty string
-         placeId2Standardized.put(id, titleNode == null ? text : titleNode.getNodeValue());
+         XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new InputStreamReader(in, "UTF-8"));
+         try
+         {
+            load(reader);
+         } finally
+         {
+            reader.close();
+         }
+      } catch (XMLStreamException e)
+      {
+         throw toSAXException(e);
+      } finally
+      {
+         in.close();
       }
+   }
 
-      // We're going to go through all of the top level objects, and
-      // we're going to add those objects to appropriate maps.
-      NodeList pages = (NodeList) pageExpression.evaluate(doc, XPathConstants.NODESET);
-      //reserveIds(pages);
-      // We're going to load all of the pages into a set of maps:
-
-      for (int i= 0; i < pages.getLength(); i++)
+   private void load(XMLStreamReader reader) throws XMLStreamException, SAXException, IOException, GedcomXMLException
+   {
+      doc = Uploader.db.newDocument();
+      Node parent = doc;
+      int depth = 0;
+      boolean isGedcom = false;
+      // the reader may return the text of a node in several pieces
+      StringBuilder text = new StringBuilder();
+      boolean isCDATA = false;
+      while (reader.hasNext())
       {
-         Node page = pages.item(i);
-         int namespace = Integer.parseInt((String) namespaceExpression.evaluate(page, XPathConstants.STRING));
-         String id = (String) idExpression.evaluate(page, XPathConstants.STRING);
-         id2Page.put(id, page);
-         String uid = (String) uidExpression.evaluate(page, XPathConstants.STRING);
-         if (!PlaceUtils.isEmpty(uid))
+         int event = reader.next();
+         if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+             event == XMLStreamConstants.SPACE)
          {
-            id2Uid.put(id, uid);
+            if (isCDATA != (event == XMLStreamConstants.CDATA))
+            {
+               appendText(parent, text, isCDATA);
+               isCDATA = !isCDATA;
+            }
+            if (depth > 0)
+            {
+               text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            continue;
          }
-         id2Namespace.put(id, namespace);
-
-         // Now depending on the namespace, we need to generate the
-         // appropriate wiki title:
-         switch (namespace)
+         appendText(parent, text, isCDATA);
+         switch (event)
          {
-            case Utils.PERSON_NAMESPACE:
-               personIds.add(id);
+            case XMLStreamConstants.START_ELEMENT:
+               Element element = doc.createElement(getName(reader.getPrefix(), reader.getLocalName()));
+               for (int i = 0; i < reader.getAttributeCount(); i++)
+               {
+                  element.setAttribute(getName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                                       reader.getAttributeValue(i));
+               }
+               parent.appendChild(element);
+               parent = element;
+               depth++;
+               if (depth == 1)
+               {
+                  isGedcom = element.getNodeName().equals("gedcom");
+                  if (element.hasAttribute("primary_person"))
+                  {
+                     primaryPerson = element.getAttribute("primary_person");
+                  }
+               }
                break;
-            case Utils.FAMILY_NAMESPACE:
-               familyIds.add(id);
+            case XMLStreamConstants.END_ELEMENT:
+               if (depth == 2 && isGedcom)
+               {
+                  if (parent.getNodeName().equals("place"))
+                  {
+                     addPlace(parent);
+                  } else if (parent.getNodeName().equals("page"))
+                  {
+                     addPage((Element) parent);
+                  }
+               }
+               parent = parent.getParentNode();
+               depth--;
+               break;
+            case XMLStreamConstants.COMMENT:
+               parent.appendChild(doc.createComment(reader.getText()));
                break;
-            case Utils.MYSOURCE_NAMESPACE:
-               mysourceIds.add(id);
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+               parent.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
                break;
             default:
                break;
          }
+      }
+   }
 
-         String excluded = (String) excludedExpression.evaluate(page, XPathConstants.STRING);
-         if (!PlaceUtils.isEmpty(excluded) && excluded.trim().toLowerCase().equals("true"))
-         {
-            excludedIds.add(id);
-         }
-         String living = (String) livingExpression.evaluate(page, XPathConstants.STRING);
-         if (!PlaceUtils.isEmpty(living) && living.trim().toLowerCase().equals("true"))
+   private void appendText(Node parent, StringBuilder text, boolean isCDATA)
+   {
+      if (text.length() > 0)
+      {
+         parent.appendChild(isCDATA ? doc.createCDATASection(text.toString()) : doc.createTextNode(text.toString()));
+         text.setLength(0);
+      }
+   }
+
+   private static SAXException toSAXException(XMLStreamException e)
+   {
+      if (e.getLocation() != null)
+      {
+         return new SAXParseException(e.getMessage(), null, null,
+                                      e.getLocation().getLineNumber(), e.getLocation().getColumnNumber(), e);
+      }
+      return new SAXException(e.getMessage(), e);
+   }
+
+   private static String getName(String prefix, String localName)
+   {
+      return (Utils.isEmpty(prefix) ? localName : prefix + ':' + localName);
+   }
+
+   private void addPlace(Node place)
+   {
+      String id = place.getAttributes().getNamedItem("key").getNodeValue();
+      String text = place.getAttributes().getNamedItem("text").getNodeValue();
+      placeText2Id.put(text, id);
+      Node titleNode = place.getAttributes().getNamedItem("title");  // can be null if the place standardizes to the empty string
+      placeId2Standardized.put(id, titleNode == null ? text : titleNode.getNodeValue());
+      if (!id2Place.containsKey(id))
+      {
+         id2Place.put(id, place);
+      }
+   }
+
+   private void addPage(Element page) throws SAXException, IOException, GedcomXMLException
+   {
+      int namespace = Integer.parseInt(page.getAttribute("namespace"));
+      String id = page.getAttribute("id");
+      id2Page.put(id, page);
+      String uid = page.getAttribute("uid");
+      if (!PlaceUtils.isEmpty(uid))
+      {
+         id2Uid.put(id, uid);
+      }
+      id2Namespace.put(id, namespace);
+
+      // Now depending on the namespace, we need to generate the
+      // appropriate wiki title:
+      switch (namespace)
+      {
+         case Utils.PERSON_NAMESPACE:
+            personIds.add(id);
+            break;
+         case Utils.FAMILY_NAMESPACE:
+            familyIds.add(id);
+            break;
+         case Utils.MYSOURCE_NAMESPACE:
+            mysourceIds.add(id);
+            break;
+         default:
+            break;
+      }
+
+      String excluded = page.getAttribute("exclude");
+      if (!PlaceUtils.isEmpty(excluded) && excluded.trim().toLowerCase().equals("true"))
+      {
+         excludedIds.add(id);
+      }
+      String living = page.getAttribute("living");
+      if (!PlaceUtils.isEmpty(living) && living.trim().toLowerCase().equals("true"))
+      {
+         livingIds.add(id);
+      }
+
+      // We need to load the content node info:
+      // First let's get the XML portion:
+      Node contentNode = getContentNode(page);
+      parseContent(contentNode != null ? contentNode.getTextContent() : "", id);
+   }
+
+   // Returns the first content element of the page, or null
+   private static Node getContentNode(Node page)
+   {
+      for (Node child = page.getFirstChild(); child != null; child = child.getNextSibling())
+      {
+         if (child.getNodeType() == Node.ELEMENT_NODE && child.getNodeName().equals("content"))
          {
-            livingIds.add(id);
+            return child;
          }
-
-         // We need to load the content node info:
-         // First let's get the XML portion:
-         String content = (String) contentExpression.evaluate(page, XPathConstants.STRING);
-         parseContent(content, id);
       }
+      return null;
    }
 
    private void parseContent(String content, String id)
@@ -473,20 +616,74 @@ public class GedcomXML {
       {
          String xmlContentString = mXmlContent.group(0);
          String text = content.substring(mXmlContent.end()).trim();
-         // Now let's parse this into an Xml node:
-         Document contentDocument = Uploader.db.parse(new InputSource(new StringReader(xmlContentString)));
-         id2Content.put(id, contentDocument);
+         // Now let's parse this into a content element:
+         List<ContentElement> placeElements = new ArrayList<ContentElement>();
+         ContentElement contentElement = readContent(xmlContentString, placeElements);
+         id2Content.put(id, contentElement);
          id2Text.put(id, text);
+         for (ContentElement element : placeElements)
+         {
+            for (String placeAttribute : PLACE_ATTRIBUTES)
+            {
+               if (element.hasAttribute(placeAttribute))
+               {
+                  addPlaceReference(id, contentElement, element, placeAttribute);
+               }
+            }
+         }
       } else
       {
          throw new GedcomXMLException("Could not find content section for id="+id);
       }
    }
 
+   private void addPlaceReference(String id, ContentElement content, ContentElement element, String attribute)
+   {
+      String text = element.getAttribute(attribute);
+      List<PlaceReference> references = placeText2References.get(text);
+      if (references == null)
+      {
+         references = new ArrayList<PlaceReference>();
+         placeText2References.put(text, references);
+      }
+      references.add(new PlaceReference(id, content, element, attribute));
+   }
+
+   private static ContentElement readContent(String xmlContentString, List<ContentElement> placeElements)
+         throws SAXException
+   {
+      try
+      {
+         XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(new StringReader(xmlContentString));
+         try
+         {
+            reader.nextTag();
+            return ContentElement.read(reader, PLACE_ATTRIBUTES, placeElements);
+         } finally
+         {
+            reader.close();
+         }
+      } catch (XMLStreamException e)
+      {
+         throw toSAXException(e);
+      }
+   }
+
    // This method goes trough the xml page objects
    //  and adds their wikiTitle to
    // the list of reservation requests to be sent to the
    // reservation server.
+   // Person.getWikiTitle only looks at the given name and the surname
+   private String getPersonTitle(Name name) {
+      List<String> key = Arrays.asList(name.getGiven(), name.getSurname());
+      String title = name2Title.get(key);
+      if (title == null) {
+         title = Utils.prepareWikiTitle(Person.getWikiTitle(name));
+         name2Title.put(key, title);
+      }
+      return title;
+   }
+
    public void addRequests(Uploader.RequestsList requestsList, String username)
          throws XPathExpressionException
    {
@@ -496,10 +693,10 @@ public class GedcomXML {
       {
          if (!excludedIds.contains(id))
          {
-            Document content = id2Content.get(id);
+            ContentElement content = id2Content.get(id);
             Name name = new Name();
             name.parseFromPersonXML(content, livingIds.contains(id));
-            String title = Utils.prepareWikiTitle(Person.getWikiTitle(name));
+            String title = getPersonTitle(name);
             id2Title.put(id, title);
             if (!matchedIds.contains(id))
             {
@@ -516,19 +713,19 @@ public class GedcomXML {
       {
          if (!excludedIds.contains(id) && !matchedIds.contains(id))
          {
-            Document content = id2Content.get(id);
+            ContentElement content = id2Content.get(id);
 
             ew.put("namespace", Integer.toString(Utils.FAMILY_NAMESPACE));
 
             // Now we need to get the ids of the husband and wife.
             String husbandTitle, wifeTitle;
 
-            String husbandId = (String)husbandIdExpression.evaluate(content, XPathConstants.STRING);
+            String husbandId = getSpouseId(content, "husband");
             if (PlaceUtils.isEmpty(husbandId) || PlaceUtils.isEmpty(husbandTitle = id2Title.get(husbandId)))
             {
                husbandTitle = "Unknown";
             }
-            String wifeId = (String) wifeIdExpression.evaluate(content, XPathConstants.STRING);
+            String wifeId = getSpouseId(content, "wife");
             if (PlaceUtils.isEmpty(wifeId) || PlaceUtils.isEmpty(wifeTitle = id2Title.get(wifeId)))
             {
                wifeTitle = "Unknown";
@@ -548,9 +745,9 @@ public class GedcomXML {
       {
          if (!excludedIds.contains(id) && !matchedIds.contains(id))
          {
-            Document content = id2Content.get(id);
+            ContentElement titleElement = getChild(id2Content.get(id), SOURCE, "title");
             // Now we need to get the source title out.
-            String title = username + '/' + sourceTitleExpression.evaluate(content, XPathConstants.STRING);
+            String title = username + '/' + (titleElement == null ? "" : titleElement.getTextContent());
             title = Utils.prepareWikiTitle(title);
             id2Title.put(id, title);
             String reservedTitle = title;
@@ -566,6 +763,13 @@ public class GedcomXML {
       }
    }
 
+   // The id of the family's first husband or wife
+   private static String getSpouseId(ContentElement content, String spouse)
+   {
+      ContentElement spouseElement = getChild(content, FAMILY, spouse);
+      return (spouseElement == null ? "" : spouseElement.getAttribute("id"));
+   }
+
    public void setReservedTitles (Map <Uploader.ReservationRequest, Queue<String>> reservations)
          throws XPathExpressionException, GedcomXMLException
    {
@@ -580,7 +784,7 @@ public class GedcomXML {
          else if (!excludedIds.contains(id))
          {
             // Let's get the namespace:
-            int namespace = Integer.parseInt((String) namespaceExpression.evaluate(page, XPathConstants.STRING));
+            int namespace = id2Namespace.get(id);
             String title = id2Title.get(id);
 
             if (!PlaceUtils.isEmpty(title))
@@ -644,60 +848,148 @@ public class GedcomXML {
 
    private Uploader uploader = null;
 
+   private static final int CHUNKS_PER_THREAD = 4;
+
+   // The work a phase does on one page. It may change the page's content, but nothing shared;
+   // anything it collects for the phase goes in a slot for the page, which the phase merges afterwards in page order.
+   private interface PageWork {
+      public void run(int i);
+   }
+
+   /**
+    * Runs the work for pages 0 to count - 1. With more than one content thread, runs of consecutive
+    * pages are worked on at the same time on a fork-join pool.
+    */
+   private void forEachPage(int count, final PageWork work)
+   {
+      int numThreads = (uploader != null ? uploader.getContentThreads() : 1);
+      if (numThreads <= 1 || count < 2)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            work.run(i);
+         }
+         return;
+      }
+      int numChunks = Math.min(count, numThreads * CHUNKS_PER_THREAD);
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (int chunk = 0; chunk < numChunks; chunk++)
+      {
+         final int start = (int) ((long) count * chunk / numChunks);
+         final int end = (int) ((long) count * (chunk + 1) / numChunks);
+         tasks.add(new Callable<Object>() {
+            public Object call()
+            {
+               for (int i = start; i < end; i++)
+               {
+                  work.run(i);
+               }
+               return null;
+            }
+         });
+      }
+      ForkJoinPool pool = new ForkJoinPool(numThreads);
+      try
+      {
+         for (Future<Object> result : pool.invokeAll(tasks))
+         {
+            result.get();
+         }
+      } catch (ExecutionException e)
+      {
+         if (e.getCause() instanceof RuntimeException)
+         {
+            throw (RuntimeException) e.getCause();
+         } else if (e.getCause() instanceof Error)
+         {
+            throw (Error) e.getCause();
+         }
+         throw new RuntimeException(e.getCause());
+      } catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("Interrupted while updating the content of the pages");
+      } finally
+      {
+         pool.shutdown();
+      }
+   }
+
    public void updateContent (String placeServer) throws XPathExpressionException, IOException
    {
-      updateCollectionContent(personIds, familyReferenceExpression, "Family", null, null);
-      updateCollectionContent(familyIds, personReferenceExpression, "Person", personReferenceAttributeExpression, "Family");
+      updateCollectionContent(personIds, PERSON, FAMILY_REFERENCES, "Family", null, null);
+      updateCollectionContent(familyIds, FAMILY, PERSON_REFERENCES, "Person", FAMILY_REFERENCES, "Family");
 
       // Now let's update all of the places referenced.
       // The first step ensures that each place has the correct Place page titlr
       // based on any changes the user made to place matching.
       // It also accumulates a list of all places to get standard display names for.
+      // Each place text is looked up once for all of the attributes that have it.
+      // An attribute is skipped if it no longer has the text it was indexed under,
+      // or if the content of its page has been replaced since.
+      List<String> placeValues = new ArrayList<String>();
+      List<List<PlaceReference>> placeReferences = new ArrayList<List<PlaceReference>>();
+      for (Map.Entry<String, List<PlaceReference>> entry : placeText2References.entrySet())
+      {
+         String text = entry.getKey();
+         List<PlaceReference> references = new ArrayList<PlaceReference>();
+         for (PlaceReference reference : entry.getValue())
+         {
+            if (id2Content.get(reference.id) == reference.content && reference.element.hasAttribute(reference.attribute) &&
+                reference.element.getAttribute(reference.attribute).equals(text))
+            {
+               references.add(reference);
+            }
+         }
+         if (references.size() > 0)
+         {
+            placeValues.add(text);
+            placeReferences.add(references);
+         }
+      }
       Set <String> placeNames = new HashSet <String>();
-      for (Map.Entry<String, Document> entry : id2Content.entrySet())
+      for (int i = 0; i < placeValues.size(); i++)
       {
-         NodeList placeReferences = (NodeList) placeAttributeExpression.evaluate(entry.getValue(),
-               XPathConstants.NODESET);
-         for (int i=0; i < placeReferences.getLength(); i++)
+         String text = placeValues.get(i);
+         String id = placeText2Id.get(text);
+         if (id != null)
          {
-            Node placeNode = placeReferences.item(i);
-            String text = placeNode.getNodeValue();
-            String id = placeText2Id.get(text);
-            if (id != null)
+            String placeTitle = placeId2Standardized.get(id);
+            if (placeTitle != null && !placeTitle.equals(text))
             {
-               String placeTitle = placeId2Standardized.get(id);
-               if (placeTitle != null && !placeTitle.equals(text))
-               {
-                  placeNode.setTextContent(placeTitle + '|' + text);
-               }
+               placeValues.set(i, placeTitle + '|' + text);
+               setPlaceReferences(placeReferences.get(i), placeValues.get(i));
             }
-            placeNames.add(placeNode.getNodeValue().replace('|','^'));     // use ^ as a stand-in for the pipe
          }
+         placeNames.add(placeValues.get(i).replace('|','^'));     // use ^ as a stand-in for the pipe
       }
 
       // The second step is to refine display names. This can't be done before
       // the first step, since the first step matches on the place text
       // as it was in the gedcom file.
       uploader.getPlaceDisplayNames(placeServer, placeNames, place2displayName);
-      for (Map.Entry<String, Document> entry : id2Content.entrySet())
+      for (int i = 0; i < placeValues.size(); i++)
       {
-         NodeList placeReferences = (NodeList) placeAttributeExpression.evaluate(entry.getValue(),
-               XPathConstants.NODESET);
-         for (int i=0; i < placeReferences.getLength(); i++)
-         {
-            Node placeNode = placeReferences.item(i);
-            String text = placeNode.getNodeValue();
-            String displayName = getPlace2displayName(text);
-            if (displayName != null) {
-               placeNode.setTextContent(displayName);
-            }
+         String displayName = getPlace2displayName(placeValues.get(i));
+         if (displayName != null) {
+            setPlaceReferences(placeReferences.get(i), displayName);
          }
       }
+      // The places are updated only once
+      placeText2References.clear();
+   }
+
+   private static void setPlaceReferences(List<PlaceReference> references, String value)
+   {
+      for (PlaceReference reference : references)
+      {
+         reference.element.setAttribute(reference.attribute, value);
+      }
    }
 
-   private void updateCollectionContent(Set<String> collection, XPathExpression expression,
-                                        String referenceNamespacePrefix, XPathExpression attributeExpression,
-                                        String attributeNamespacePrefix) throws XPathExpressionException
+   private void updateCollectionContent(Set<String> collection, final String[] rootNames, final String[] referenceNames,
+                                        final String referenceNamespacePrefix, final String[] attributeNames,
+                                        final String attributeNamespacePrefix)
    {
       // Now that we've reserved the IDs, we need
       // to replace all places that refer to them
@@ -706,51 +998,65 @@ public class GedcomXML {
       // At the same time, if the reference is to
       // an excluded page, then we need to remove
       // the reference.
-      for (String pageId : collection)
-      {
-         Document content = id2Content.get(pageId);
-
-         NodeList references = (NodeList) expression.evaluate(content, XPathConstants.NODESET);
-         for (int i= 0; i < references.getLength(); i++)
+      // The titles of the matched pages that each page refers to are
+      // added to id2ExistingPageTitles afterwards, in the order they were found.
+      final List<String> pageIds = new ArrayList<String>(collection);
+      // filled in at each page's index; the workers only set elements, so they don't change the list's structure
+      final List<List<String>> existingTitles =
+            new ArrayList<List<String>>(Collections.nCopies(pageIds.size(), (List<String>) null));
+      forEachPage(pageIds.size(), new PageWork() {
+         public void run(int i)
          {
-            Node reference = references.item(i);
-            String id = (String) idExpression.evaluate(reference, XPathConstants.STRING);
-            if (id2ReservedTitle.containsKey(id))
+            String pageId = pageIds.get(i);
+            List<String> titles = new ArrayList<String>();
+            existingTitles.set(i, titles);
+            ContentElement content = id2Content.get(pageId);
+
+            for (ContentElement reference : getChildren(content, rootNames, referenceNames))
             {
-               Node titleNode = content.createAttribute("title");
-               String title = id2ReservedTitle.get(id);
-               if (matchedIds.contains(id))
+               String id = reference.getAttribute("id");
+               if (id2ReservedTitle.containsKey(id))
                {
-                  id2ExistingPageTitles.put(pageId, referenceNamespacePrefix + ":" + title);
+                  String title = id2ReservedTitle.get(id);
+                  if (matchedIds.contains(id))
+                  {
+                     titles.add(referenceNamespacePrefix + ":" + title);
+                  }
+                  reference.setAttribute("title", title);
                }
-               titleNode.setNodeValue(title);
-               reference.getAttributes().setNamedItem(titleNode);
-            }
-            if (attributeExpression != null)
-            {
-               NodeList attributes = (NodeList) attributeExpression.evaluate(reference, XPathConstants.NODESET);
-               for (int j=0; j < attributes.getLength(); j++)
+               if (attributeNames != null)
                {
-                  Node attribute = attributes.item(j);
-                  String refId = attribute.getNodeValue();
-                  if (excludedIds.contains(refId)) {
-                     // remove this attribute (the hard way)
-                     NamedNodeMap attrs = reference.getAttributes();
-                     attrs.removeNamedItem(attribute.getNodeName());
-                  }
-                  else if (id2ReservedTitle.containsKey(refId))
+                  for (String attributeName : attributeNames)
                   {
-                     String title = id2ReservedTitle.get(refId);
-                     if (matchedIds.contains(refId))
+                     if (!reference.hasAttribute(attributeName))
                      {
-                        id2ExistingPageTitles.put(pageId, attributeNamespacePrefix + ":" + title);
+                        continue;
+                     }
+                     String refId = reference.getAttribute(attributeName);
+                     if (excludedIds.contains(refId)) {
+                        reference.removeAttribute(attributeName);
+                     }
+                     else if (id2ReservedTitle.containsKey(refId))
+                     {
+                        String title = id2ReservedTitle.get(refId);
+                        if (matchedIds.contains(refId))
+                        {
+                           titles.add(attributeNamespacePrefix + ":" + title);
+                        }
+                        reference.setAttribute(attributeName, title);
                      }
-                     attribute.setNodeValue(title);
                   }
                }
             }
+            updateSourceCitations(content);
+         }
+      });
+      for (int i = 0; i < pageIds.size(); i++)
+      {
+         for (String title : existingTitles.get(i))
+         {
+            id2ExistingPageTitles.put(pageIds.get(i), title);
          }
-         updateSourceCitations(content);
       }
    }
 
@@ -790,34 +1096,28 @@ public class GedcomXML {
    public void fixTitleOnlyMySourceReferences()
    {
       Map <String,String> titleOnlyMySource2Title = new HashMap<String,String>();
-      for (Map.Entry<String, Document> entry : id2Content.entrySet())
+      for (Map.Entry<String, ContentElement> entry : id2Content.entrySet())
       {
          String id = entry.getKey();
          if (this.id2Namespace.get(id) == Utils.MYSOURCE_NAMESPACE)
          {
-            Document content = entry.getValue();
+            ContentElement content = entry.getValue();
 
             // Now we need to determine if the mysource contains only a title
             // attribute.
-            NodeList mysourceNodeChildren = content.getFirstChild().getChildNodes();
             boolean foundNonTitle = false;
             String foundTitle = null;
-            for (int i =0; i < mysourceNodeChildren.getLength(); i++)
+            for (ContentElement child : content.getChildren())
             {
-               Node child = mysourceNodeChildren.item(i);
-               if (child.getNodeType() == Node.ELEMENT_NODE)
+               if (child.getName().equals("title"))
                {
-                  if (child.getNodeName().equals("title"))
-                  {
-                     foundTitle = child.getTextContent();
-                  }
-                  else
-                  {
-                     foundNonTitle = true;
-                     break;
-                  }
+                  foundTitle = child.getTextContent();
+               }
+               else
+               {
+                  foundNonTitle = true;
+                  break;
                }
-
             }
 
             if (foundTitle != null && !foundNonTitle)
@@ -832,31 +1132,23 @@ public class GedcomXML {
       // Ok. Now that we've found all of the applicable mysources, we just
       // need to fix all of the references.
 
-      for (Map.Entry<String, Document> entry : id2Content.entrySet())
+      for (Map.Entry<String, ContentElement> entry : id2Content.entrySet())
       {
          String id = entry.getKey();
          int namespace = id2Namespace.get(id);
          if (namespace == Utils.FAMILY_NAMESPACE ||
                namespace == Utils.PERSON_NAMESPACE)
          {
-            Document content = entry.getValue();
-            Node personFamilyNode = content.getFirstChild();
-            NodeList childList = personFamilyNode.getChildNodes();
-            for (int i= 0; i < childList.getLength(); i++)
+            ContentElement content = entry.getValue();
+            for (ContentElement node : content.getChildren("source_citation"))
             {
-               Node node = childList.item(i);
-               if (node.getNodeName().equals("source_citation"))
+               // Now let's see if the title matches a mysource
+               String citationId = node.getAttribute("source_id");
+               if (titleOnlyMySource2Title.containsKey(citationId))
                {
-                  // Now let's see if the title matches a mysource
-                  String citationId = node.getAttributes().getNamedItem("source_id").getNodeValue();
-                  if (titleOnlyMySource2Title.containsKey(citationId))
-                  {
-                     // Then we need to change the title by taking out the namespace reference,
-                     // and just leaving the title as-is.
-                     Node newTitleAttribute = content.createAttribute("title");
-                     newTitleAttribute.setNodeValue(titleOnlyMySource2Title.get(citationId));
-                     node.getAttributes().setNamedItem(newTitleAttribute);
-                  }
+                  // Then we need to change the title by taking out the namespace reference,
+                  // and just leaving the title as-is.
+                  node.setAttribute("title", titleOnlyMySource2Title.get(citationId));
                }
             }
          }
@@ -866,6 +1158,8 @@ public class GedcomXML {
    public void prepareForGeneration()
          throws XPathExpressionException, TransformerException, GedcomXMLException
    {
+      // The page elements are changed here, and the content of the pages is prepared afterwards, page by page
+      final List<String> ids = new ArrayList<String>();
       for (Map.Entry<String, Node> entry : id2Page.entrySet())
       {
          String id = entry.getKey();
@@ -880,334 +1174,301 @@ public class GedcomXML {
                // exclude this page from generation.
                excludePage(page);
             }
-            // We need to update the content of this page.
-            Document content = id2Content.get(id);
+            ids.add(id);
+         }
+      }
+      forEachPage(ids.size(), new PageWork() {
+         public void run(int i)
+         {
+            prepareContentForGeneration(ids.get(i));
+         }
+      });
 
-            if (livingIds.contains(id))
+      updatePageContent();
+   }
+
+   private void prepareContentForGeneration(String id)
+   {
+      // We need to update the content of this page.
+      ContentElement content = id2Content.get(id);
+
+      if (livingIds.contains(id))
+      {
+         // Then we need to get rid of all events:
+         removeElements(getChildren(content, PERSON_FAMILY, "event_fact"));
+
+         // If this is a person, then we also need to get rid of the
+         // name, etc.
+         List<ContentElement> names = getChildren(content, PERSON, "name");
+         if (names.size() > 0)
+         {
+            // Let's get the surname.
+            String surname = null;
+            ContentElement name;
+            for (int i=0; i < names.size() -1; i++)
             {
-               // Then we need to get rid of all events:
-               NodeList events = (NodeList) eventExpression.evaluate(content, XPathConstants.NODESET);
-               for (int i=0; i < events.getLength(); i++)
+               name = names.get(i);
+               if (Utils.isEmpty(surname) && name.hasAttribute("surname"))
                {
-                  removeNode(events.item(i));
+                  surname = name.getAttribute("surname");
                }
+               name.remove();
+            }
+            name = names.get(names.size() -1);
+            if (Utils.isEmpty(surname) && name.hasAttribute("surname"))
+            {
+               surname = name.getAttribute("surname");
+            }
+            // Let's replace the node.
+            ContentElement replacement = new ContentElement("name");
+            replacement.setAttribute("given", "Living");
+            if (!Utils.isEmpty(surname))
+            {
+               replacement.setAttribute("surname", surname);
+            }
+            name.replaceWith(replacement);
+         }
 
-               // If this is a person, then we also need to get rid of the
-               // name, etc.
-               NodeList names = (NodeList) nameExpression.evaluate(content, XPathConstants.NODESET);
-               if (names.getLength() > 0)
-               {
-                  // Let's get the surname.
-                  String surname = null;
-                  Node name;
-                  for (int i=0; i < names.getLength() -1; i++)
-                  {
-                     name = names.item(i);
-                     if (Utils.isEmpty(surname) && name.getAttributes().getNamedItem("surname") != null)
-                     {
-                        surname = name.getAttributes().getNamedItem("surname").getNodeValue();
-                     }
-                     removeNode(names.item(i));
-                  }
-                  name = names.item(names.getLength() -1);
-                  if (Utils.isEmpty(surname) && name.getAttributes().getNamedItem("surname") != null)
-                  {
-                     surname = name.getAttributes().getNamedItem("surname").getNodeValue();
-                  }
-                  // Let's replace the node.
-                  Node replacement = content.createElement("name");
-                  Node givenNode = content.createAttribute("given");
-                  givenNode.setNodeValue("Living");
-                  replacement.getAttributes().setNamedItem(givenNode);
-                  if (!Utils.isEmpty(surname))
-                  {
-                     Node surnameNode = content.createAttribute("surname");
-                     surnameNode.setNodeValue(surname);
-                     replacement.getAttributes().setNamedItem(surnameNode);
-                  }
-                  name.getParentNode().replaceChild(replacement, name);
-               }
+         removeElements(getChildren(content, PERSON, "alt_name"));
+         removeElements(getChildren(content, PERSON_FAMILY, "source_citation"));
+         removeElements(getChildren(content, PERSON_FAMILY, "note"));
+      }
 
-               removeNodes(content, altNameExpression);
-               removeNodes(content, sourceCitationExpression);
-               removeNodes(content, noteExpression);
-            }
+      // Let's remove all of the ids for person/family references
+      if (content.getName().equals("person"))
+      {
+         removeIdReferences(getChildren(content, PERSON, FAMILY_REFERENCES));
+      } else if (content.getName().equals("family"))
+      {
+         // Ok -- if the person referenced is living, then we need to remove everything except for
+         // the title.
+         for (ContentElement personReference : getChildren(content, FAMILY, PERSON_REFERENCES))
+         {
+            // let's get the title, because that's the only thing we're going to
+            // preserve.
+            String refId = personReference.getAttribute("id");
 
-            // Let's remove all of the ids for person/family references
-            if (content.getFirstChild().getNodeName().equals("person"))
+            if (excludedIds.contains(refId))
             {
-               removeIdReferences((NodeList) familyReferenceExpression.evaluate(content, XPathConstants.NODESET));
-            } else if (content.getFirstChild().getNodeName().equals("family"))
+               // We need to remove the family reference.
+               personReference.remove();
+            } else if (livingIds.contains(refId))
             {
-               NodeList personReferences = (NodeList) personReferenceExpression.evaluate(content, XPathConstants.NODESET);
-               // Ok -- if the person referenced is living, then we need to remove everything except for
-               // the title.
-               for (int i=0; i < personReferences.getLength(); i++)
-               {
-                  Node personReference = personReferences.item(i);
-                  // let's get the title, because that's the only thing we're going to
-                  // preserve.
-                  String refId = personReference.getAttributes().getNamedItem("id").getNodeValue();
+               // Then let's remove everything except for the title.
+               personReference.retainAttribute("title");
+               // Now let's add in the given = "Living"
+               personReference.setAttribute("given", "Living");
+            } else
+            {
+               personReference.removeAttribute("id");
+            }
+         }
+      } else if (content.getName().equals("mysource") ||
+            content.getName().equals("source"))
+      {
+         // Let's get rid of the title nodes for all of the
+         // source (mysource) top-level objects
+         ContentElement titleNode = getChild(content, SOURCE, "title");
+         if (titleNode != null)
+         {
+            titleNode.remove();
+         }
+      }
 
-                  if (excludedIds.contains(refId))
-                  {
-                     // We need to remove the family reference.
-                     removeNode(personReference);
-                  } else if (livingIds.contains(refId))
-                  {
-                     // Then let's remove everything except for the title.
-                     int j = 0;
-                     while (j < personReference.getAttributes().getLength())
-                     {
-                        String nodeName = personReference.getAttributes().item(j).getNodeName();
-                        if (nodeName.equals("title"))
-                        {
-                           j++;
-                        }else
-                        {
-                           personReference.getAttributes().removeNamedItem(personReference.getAttributes().item(j).getNodeName());
-                        }
-                     }
-                     // Now let's add in the given = "Living"
-                     Node givenNode = content.createAttribute("given");
-                     givenNode.setNodeValue("Living");
-                     personReference.getAttributes().setNamedItem(givenNode);
-                  } else
-                  {
-                     personReference.getAttributes().removeNamedItem("id");
-                  }
-               }
-            } else if (content.getFirstChild().getNodeName().equals("mysource") ||
-                  content.getFirstChild().getNodeName().equals("source"))
+      if (content.getName().equals("person") ||
+            content.getName().equals("family"))
+      {
+         // Let's remove mysource ids from source citations, and remove
+         // any source citations and references to them if the mysource has
+         // been excluded.
+         List<ContentElement> sourceCitations = getChildren(content, PERSON_FAMILY, "source_citation");
+         // Let's redo the existingIds in the form of a stack:
+         Set<String> removedIds = new HashSet<String>();
+         // map from the old (higher numbered) ids to the new ones, because
+         // we are moving some higher ids to replace numbered ones which are
+         // lower.
+         Map<String, String> high2Low = new HashMap<String, String>();
+
+         // First let's remove the nodes that point to sources which are excluded.
+
+         // First removed specifies the first removed / moved sourceCitation id
+         // which hasn't already been replaced by a subsequent id.
+         // -1 indicates that there are no previous citations which
+         // haven't already been filled in by a subsequent id.
+         int firstRemoved = -1;
+         boolean removedCitation = false;
+         for (ContentElement sourceCitation : sourceCitations)
+         {
+            String citationId = sourceCitation.getAttribute("id");
+            String sourceId = sourceCitation.getAttribute("source_id");
+            if (excludedIds.contains(sourceId) ||
+                  // If this source has nothing but a citation id, let's just go ahead and remove it.
+                  (!Utils.isEmpty(citationId) && sourceCitation.getAttributeCount() <= 1 && Utils.isEmpty(sourceCitation.getTextContent())))
             {
-               // Let's get rid of the title nodes for all of the
-               // source (mysource) top-level objects
-               Node titleNode = (Node) sourceTitleExpression.evaluate(content, XPathConstants.NODE);
-               if (titleNode != null)
+               // We need to remove the citation, and all references to it.
+               sourceCitation.remove();
+               removedIds.add(citationId);
+               if (firstRemoved == -1)
                {
-                  removeNode(titleNode);
+                  firstRemoved = Integer.parseInt(citationId.substring(1));
                }
-            }
-
-            if (content.getFirstChild().getNodeName().equals("person") ||
-                  content.getFirstChild().getNodeName().equals("family"))
+               removedCitation = true;
+            } else
             {
-               // Let's remove mysource ids from source citations, and remove
-               // any source citations and references to them if the mysource has
-               // been excluded.
-               NodeList sourceCitations = (NodeList) sourceCitationExpression.evaluate(content, XPathConstants.NODESET);
-               // Let's redo the existingIds in the form of a stack:
-               Set<String> removedIds = new HashSet<String>();
-               // map from the old (higher numbered) ids to the new ones, because
-               // we are moving some higher ids to replace numbered ones which are
-               // lower.
-               Map<String, String> high2Low = new HashMap<String, String>();
-
-               // First let's remove the nodes that point to sources which are excluded.
-
-               // First removed specifies the first removed / moved sourceCitation id
-               // which hasn't already been replaced by a subsequent id.
-               // -1 indicates that there are no previous citations which
-               // haven't already been filled in by a subsequent id.
-               int firstRemoved = -1;
-               boolean removedCitation = false;
-               for (int i=0; i < sourceCitations.getLength(); i++)
+               if (!Utils.isEmpty(sourceId))
                {
-                  Node sourceCitation = sourceCitations.item(i);
-                  String citationId = (String) idExpression.evaluate(sourceCitation, XPathConstants.STRING);
-                  String sourceId = (String) sourceIdExpression.evaluate(sourceCitation, XPathConstants.STRING);
-                  if (excludedIds.contains(sourceId) ||
-                        // If this source has nothing but a citation id, let's just go ahead and remove it.
-                        (!Utils.isEmpty(citationId) && sourceCitation.getAttributes().getLength() <= 1 && Utils.isEmpty(sourceCitation.getTextContent())))
-                  {
-                     // We need to remove the citation, and all references to it.
-                     removeNode(sourceCitation);
-                     removedIds.add(citationId);
-                     if (firstRemoved == -1)
-                     {
-                        firstRemoved = Integer.parseInt(citationId.substring(1));
-                     }
-                     removedCitation = true;
-                  } else
-                  {
-                     if (!Utils.isEmpty(sourceId))
-                     {
-                        sourceCitation.getAttributes().removeNamedItem("source_id");
-                     }
+                  sourceCitation.removeAttribute("source_id");
+               }
 
-                     // Ok. This ID has not been removed, so let's move the id
-                     // back to fill in any gaps immediately before it.
-                     if (firstRemoved > 0)
-                     {
-                        // let's move this id to fill in the gap.
-                        String firstRemovedId = "S" + firstRemoved;
-                        sourceCitation.getAttributes().getNamedItem("id").setNodeValue(firstRemovedId);
-                        high2Low.put(citationId, firstRemovedId);
-                        firstRemoved++;
-                     }
-                  }
+               // Ok. This ID has not been removed, so let's move the id
+               // back to fill in any gaps immediately before it.
+               if (firstRemoved > 0)
+               {
+                  // let's move this id to fill in the gap.
+                  String firstRemovedId = "S" + firstRemoved;
+                  sourceCitation.setAttribute("id", firstRemovedId);
+                  high2Low.put(citationId, firstRemovedId);
+                  firstRemoved++;
                }
+            }
+         }
 
-               if (removedCitation)
+         if (removedCitation)
+         {
+            // Now we need to find all references to citation ids, and replace or remove them when necessary.
+            for (ContentElement sourcesAttributeParent : getChildren(content, PERSON_FAMILY, "name", "alt_name", "event_fact", "note"))
+            {
+               // We need to find all references to the citationId, and remove
+               // the reference.
+               // probably the simplest way of doing that is to split up the
+               // list, remove all references to the item, and then print the
+               // list back out.
+               String sources = sourcesAttributeParent.getAttribute("sources");
+               if (!Utils.isEmpty(sources))
                {
-                  // Now we need to find all references to citation ids, and replace or remove them when necessary.
-                  NodeList sourcesAttributeParents = (NodeList) sourcesExpression.evaluate(content, XPathConstants.NODESET);
-                  for (int j=0; j < sourcesAttributeParents.getLength(); j++)
+                  String [] split = sources.split("\\s*,\\s*");
+                  List <String> newIds = new ArrayList<String>();
+                  for (String item : split)
                   {
-                     Node sourcesAttributeParent = sourcesAttributeParents.item(j);
-                     Node sourcesAttribute = sourcesAttributeParent.getAttributes().getNamedItem("sources");
-                     // We need to find all references to the citationId, and remove
-                     // the reference.
-                     // probably the simplest way of doing that is to split up the
-                     // list, remove all references to the item, and then print the
-                     // list back out.
-                     if (!Utils.isEmpty(sourcesAttribute.getNodeValue()))
+                     if (!removedIds.contains(item))
                      {
-                        String [] split = sourcesAttribute.getNodeValue().split("\\s*,\\s*");
-                        List <String> newIds = new ArrayList<String>();
-                        for (String item : split)
+                        if (high2Low.containsKey(item))
                         {
-                           if (!removedIds.contains(item))
-                           {
-                              if (high2Low.containsKey(item))
-                              {
-                                 newIds.add(high2Low.get(item));
-                              } else
-                              {
-                                 newIds.add(item);
-                              }
-                           }
-                        }
-
-                        // Now let's print it back out:
-                        if (newIds.size() > 0)
-                        {
-                           String newCitationList = newIds.get(0);
-                           for (int i = 1; i < newIds.size(); i++)
-                           {
-                              newCitationList += ", " + newIds.get(i);
-                           }
-                           sourcesAttribute.setNodeValue(newCitationList);
+                           newIds.add(high2Low.get(item));
                         } else
                         {
-                           sourcesAttributeParent.getAttributes().removeNamedItem("sources");
+                           newIds.add(item);
                         }
                      }
                   }
+
+                  // Now let's print it back out:
+                  if (newIds.size() > 0)
+                  {
+                     String newCitationList = newIds.get(0);
+                     for (int i = 1; i < newIds.size(); i++)
+                     {
+                        newCitationList += ", " + newIds.get(i);
+                     }
+                     sourcesAttributeParent.setAttribute("sources", newCitationList);
+                  } else
+                  {
+                     sourcesAttributeParent.removeAttribute("sources");
+                  }
                }
             }
          }
       }
-
-      updatePageContent();
    }
 
-   private static void removeNodes(Document content, XPathExpression expression) throws XPathExpressionException {
-      NodeList removeNodes = (NodeList) expression.evaluate(content, XPathConstants.NODESET);
-      for (int i=0; i < removeNodes.getLength(); i++)
+   private static void removeElements(List<ContentElement> elements)
+   {
+      for (ContentElement element : elements)
       {
-         removeNode(removeNodes.item(i));
+         element.remove();
       }
    }
 
-   private void removeIdReferences(NodeList references) throws XPathExpressionException {
-      for (int i= 0; i < references.getLength(); i++)
+   private void removeIdReferences(List<ContentElement> references)
+   {
+      for (ContentElement reference : references)
       {
-         Node reference = references.item(i);
-         String referenceId = (String) idExpression.evaluate(reference, XPathConstants.STRING);
+         String referenceId = reference.getAttribute("id");
          if (excludedIds.contains(referenceId))
          {
             // We need to remove the family reference.
-            removeNode(reference);
+            reference.remove();
          } else
          {
             // Id might not be there if the page was updated in phase 2
             // by the user.
-            if (reference.getAttributes().getNamedItem("id") !=null)
-            {
-               reference.getAttributes().removeNamedItem("id");
-            }
+            reference.removeAttribute("id");
          }
       }
    }
 
-   private void updateSourceCitations(Document content) throws XPathExpressionException {
-      NodeList sourceCitations = (NodeList) sourceCitationExpression.evaluate(content, XPathConstants.NODESET);
-
-      for (int i=0; i < sourceCitations.getLength(); i++)
+   private void updateSourceCitations(ContentElement content)
+   {
+      for (ContentElement sourceCitation : getChildren(content, PERSON_FAMILY, "source_citation"))
       {
-         Node sourceCitation = sourceCitations.item(i);
-         String id = (String) sourceIdExpression.evaluate(sourceCitation, XPathConstants.STRING);
+         String id = sourceCitation.getAttribute("source_id");
 
          if (id2ReservedTitle.containsKey(id))
          {
-            Node titleNode = content.createAttribute("title");
+            String title = "";
             int namespace = id2Namespace.get(id);
             if (namespace == Utils.SOURCE_NAMESPACE)
             {
                // Then we need to replace the title with the matched source title:
-               titleNode.setNodeValue("Source:" + id2ReservedTitle.get(id));
+               title = "Source:" + id2ReservedTitle.get(id);
             } else if (namespace == Utils.MYSOURCE_NAMESPACE)
             {
-               titleNode.setNodeValue("MySource:" + id2ReservedTitle.get(id));
+               title = "MySource:" + id2ReservedTitle.get(id);
             }
-            sourceCitation.getAttributes().setNamedItem(titleNode);
+            sourceCitation.setAttribute("title", title);
          }
       }
    }
-   private static TransformerFactory xformFactory = TransformerFactory.newInstance();
-   public static Transformer idTransform;
-   static
-   {
-      try
-      {
-         idTransform = xformFactory.newTransformer();
-      } catch (TransformerConfigurationException e)
-      {
-         throw new RuntimeException (e);
-      }
-   }
    public void save(File outputFile) throws
          TransformerException, XPathExpressionException,
          FileNotFoundException, IOException,
          GedcomXMLException
    {
       updatePageContent();
-      javax.xml.transform.Source input;
-      Result output;
       // Ok, now that we've reset the content values of all the nodes,
       // let's go ahead and write the entire document out to a file.
-      input = new DOMSource(doc);
-      FileOutputStream outputStream = new FileOutputStream(outputFile);
-      output = new StreamResult(new PrintWriter(outputStream));
-      idTransform.transform(input, output);
-      outputStream.close();
+      PrintWriter out = new PrintWriter(new FileOutputStream(outputFile));
+      out.print(NodeWriter.XML_DECLARATION);
+      NodeWriter.write(doc, out);
+      out.close();
+      if (out.checkError())
+      {
+         throw new IOException("Error writing " + outputFile);
+      }
    }
 
-   private Transformer updatePageContent()
-         throws XPathExpressionException, GedcomXMLException
+   private void updatePageContent() throws GedcomXMLException
    {
-      for (Map.Entry<String, Node> entry : id2Page.entrySet())
+      final List<String> ids = new ArrayList<String>(id2Page.keySet());
+      for (String id : ids)
       {
-         String id = entry.getKey();
-         Node page = entry.getValue();
-         // Now that we've serialized the content, let's go ahead
-         // and set the pages content.
-         Node contentNode = (Node) contentExpression.evaluate(page, XPathConstants.NODE);
-         if (id2Text.containsKey(id))
+         if (!id2Text.containsKey(id))
          {
+            throw new GedcomXMLException("id2Text doesn't contain: " + id);
+         }
+      }
+      // The text of each page's content is written on its own,
+      // and then set in the page elements.
+      final String[] contentText = new String[ids.size()];
+      forEachPage(ids.size(), new PageWork() {
+         public void run(int i)
+         {
+            String id = ids.get(i);
             StringBuffer xmlBuffer = new StringBuffer();
-            Node firstChild = id2Content.get(id).getFirstChild();
-            ElementWriter ew = new GedcomElementWriter(firstChild.getNodeName());
+            ContentElement content = id2Content.get(id);
+            ElementWriter ew = new GedcomElementWriter(content.getName());
             StringBuffer subBuffer = new StringBuffer();
-            for (int i=0; i < firstChild.getChildNodes().getLength(); i++)
-            {
-               Node child = firstChild.getChildNodes().item(i);
-               if (child.getNodeType() != Node.TEXT_NODE)
-               {
-                  serializeContent(child, subBuffer);
-               }
-            }
+            content.writeChildren(subBuffer);
             ew.setSubXML(subBuffer.toString());
             ew.write(xmlBuffer);
             String additionalText = id2Text.get(id);
@@ -1222,79 +1483,57 @@ public class GedcomXML {
             {
                xmlBuffer.append(additionalText.trim());
             }
-            contentNode.setTextContent(xmlBuffer.toString().trim());
-         } else
-         {
-            throw new GedcomXMLException("id2Text doesn't contain: " + id);
+            contentText[i] = xmlBuffer.toString().trim();
          }
+      });
+      for (int i = 0; i < ids.size(); i++)
+      {
+         // Now that we've serialized the content, let's go ahead
+         // and set the pages content.
+         getContentNode(id2Page.get(ids.get(i))).setTextContent(contentText[i]);
       }
-      return idTransform;
    }
 
-   private void recalculateFamilyPersonReferences() throws XPathExpressionException
+   private void recalculateFamilyPersonReferences()
    {
       for (String familyId : familyIds)
       {
-         Document content = id2Content.get(familyId);
-         NodeList personReferences = (NodeList) personReferenceExpression.evaluate(content, XPathConstants.NODESET);
-         for (int i =0; i < personReferences.getLength(); i++)
+         ContentElement content = id2Content.get(familyId);
+         for (ContentElement personReference : getChildren(content, FAMILY, PERSON_REFERENCES))
          {
-            Node personReference = personReferences.item(i);
-            String id = personReference.getAttributes().getNamedItem("id").getNodeValue();
+            String id = personReference.getAttribute("id");
             // First let's remove all of the attributes.
-            int j = 0;
-            while (j < personReference.getAttributes().getLength())
-            {
-               String nodeName = personReference.getAttributes().item(j).getNodeName();
-               if (nodeName.equals("id"))
-               {
-                  j++;
-               } else
-               {
-                  personReference.getAttributes().removeNamedItem(nodeName);
-               }
-            }
+            personReference.retainAttribute("id");
 
             // now let's add all of the attributes back in that we need to.
-            Document personContent = id2Content.get(id);
+            ContentElement personContent = id2Content.get(id);
 
             // Let's put the name elements:
 
             Name name = new Name();
             name.parseFromPersonXML(personContent, livingIds.contains(id));
-            Node att;
             if (!Utils.isEmpty(name.getPrefix()))
             {
-               att = content.createAttribute("title_prefix");
-               att.setNodeValue(name.getPrefix());
-               personReference.getAttributes().setNamedItem(att);
+               personReference.setAttribute("title_prefix", name.getPrefix());
             }
             if (!Utils.isEmpty(name.getSuffix()))
             {
-               att = content.createAttribute("title_suffix");
-               att.setNodeValue(name.getSuffix());
-               personReference.getAttributes().setNamedItem(att);
+               personReference.setAttribute("title_suffix", name.getSuffix());
             }
             if (!Utils.isEmpty(name.getGiven()))
             {
-               att = content.createAttribute("given");
-               att.setNodeValue(name.getGiven());
-               personReference.getAttributes().setNamedItem(att);
+               personReference.setAttribute("given", name.getGiven());
             }
             if (!Utils.isEmpty(name.getSurname()))
             {
-               att = content.createAttribute("surname");
-               att.setNodeValue(name.getSurname());
-               personReference.getAttributes().setNamedItem(att);
+               personReference.setAttribute("surname", name.getSurname());
             }
 
             // We need to make sure that they are added in the right order,
             // First let's loop through the events, and get any birth or death dates.
-            NodeList events = (NodeList)eventExpression.evaluate(personContent, XPathConstants.NODESET);
-            for (j=0; j < events.getLength(); j++)
+            for (ContentElement event : getChildren(personContent, PERSON_FAMILY, "event_fact"))
             {
-               Node event = events.item(j);
-               String typeStr = event.getAttributes().getNamedItem("type").getNodeValue();
+               String typeStr = event.getAttribute("type");
                String typeName = null;
 
                if (typeStr.equals("Birth"))
@@ -1313,81 +1552,54 @@ public class GedcomXML {
 
                if (typeName!= null)
                {
-                  Node dateNode = event.getAttributes().getNamedItem("date");
-                  if (dateNode != null)
+                  if (event.hasAttribute("date"))
                   {
-                     att = content.createAttribute(typeName + "date");
-                     att.setNodeValue(dateNode.getNodeValue());
-                     personReference.getAttributes().setNamedItem(att);
+                     personReference.setAttribute(typeName + "date", event.getAttribute("date"));
                   }
-                  Node placeNode = event.getAttributes().getNamedItem("place");
-                  if (placeNode != null)
+                  if (event.hasAttribute("place"))
                   {
-                     att = content.createAttribute(typeName + "place");
-                     att.setNodeValue(placeNode.getNodeValue());
-                     personReference.getAttributes().setNamedItem(att);
+                     personReference.setAttribute(typeName + "place", event.getAttribute("place"));
+                     addPlaceReference(familyId, content, personReference, typeName + "place");
                   }
                }
             }
 
-            if (!personReference.getNodeName().startsWith("child"))
+            if (!personReference.getName().startsWith("child"))
             {
-               Node childOfFamily = (Node) childOfFamilyExpression.evaluate(personContent, XPathConstants.NODE);
+               ContentElement childOfFamily = getChild(personContent, PERSON, "child_of_family");
                if (childOfFamily != null)
                {
-                  att = content.createAttribute("child_of_family");
-                  att.setNodeValue(childOfFamily.getAttributes().getNamedItem("id").getNodeValue());
-                  personReference.getAttributes().setNamedItem(att);
+                  personReference.setAttribute("child_of_family", childOfFamily.getAttribute("id"));
                }
             }
          }
       }
    }
 
-   public static String serializeNode(Node node) throws TransformerException
-   {
-      javax.xml.transform.Source input;
-      Result output;
-      input = new DOMSource(node);
-      StringWriter contentStringWriter = new StringWriter();
-      output = new StreamResult(contentStringWriter);
-      idTransform.transform(input, output);
-      String returnValue = contentStringWriter.toString();
-      returnValue = returnValue.replaceAll("<\\?xml\\s+version=\"1.0\"\\s+encoding=\"UTF-8\"(\\s+standalone=\"no\")?\\?>", "");
-      return returnValue;
-   }
-
-   public static void serializeContent(Node node, StringBuffer buf)
-   {
-      ElementWriter ew = new GedcomElementWriter(node.getNodeName());
-      if (node.getAttributes() != null)
+   // serializeNode is called once per generated page, so each thread keeps its buffer
+   private static final ThreadLocal<StringBuilder> serializeBuffer = new ThreadLocal<StringBuilder>() {
+      protected StringBuilder initialValue()
       {
-         for (int i=0; i < node.getAttributes().getLength(); i++)
-         {
-            Node attribute = node.getAttributes().item(i);
-            ew.put(attribute.getNodeName(), attribute.getNodeValue());
-         }
+         return new StringBuilder();
       }
-      StringBuffer subBuf = new StringBuffer();
-      StringBuffer subText = new StringBuffer();
-      for (int i=0; i < node.getChildNodes().getLength(); i++)
+   };
+
+   /**
+    * @return the node as XML, without an XML declaration
+    */
+   public static String serializeNode(Node node) throws TransformerException
+   {
+      StringBuilder buf = serializeBuffer.get();
+      buf.setLength(0);
+      try
       {
-         Node childNode = node.getChildNodes().item(i);
-         if (childNode.getNodeType() == Node.TEXT_NODE)
-         {
-            subText.append(childNode.getTextContent().trim());
-         } else
-         {
-            serializeContent(childNode, subBuf);
-         }
-      }
-      if (node.getNodeValue() != null && !node.getNodeValue().trim().equals(""))
+         NodeWriter.write(node, buf);
+      } catch (IOException e)
       {
-         subBuf.append(node.getNodeValue());
+         // StringBuilder doesn't throw
+         throw new RuntimeException(e);
       }
-      ew.setSubXML(subBuf.toString());
-      ew.setSubText(subText.toString());
-      ew.write(buf);
+      return buf.toString();
    }
 
    /**
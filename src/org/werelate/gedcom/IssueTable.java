@@ -0,0 +1,89 @@
+package org.werelate.gedcom;
+
+import java.util.List;
+
+/**
+ * The data quality issues that PersonDQAnalysis and FamilyDQAnalysis found for the people of a GEDCOM.
+ * <p/>
+ * The analyses return their issues as rows of {category, description, namespace, page id, immediate fix},
+ * padded with empty rows. The table keeps only the real rows, in one array per column, and the issues
+ * of a person are added together so that the person only has to remember where they start.
+ * Nothing is allocated until the first issue is added.
+ */
+public class IssueTable {
+   public static final int CATEGORY = 0;
+   public static final int DESCRIPTION = 1;
+   public static final int NAMESPACE = 2;
+   public static final int PAGE_ID = 3;
+   public static final int IMMEDIATE_FIX = 4;
+   private static final int NUM_COLUMNS = 5;
+
+   // columns[column][row]
+   private String[][] columns = null;
+   private int size = 0;
+
+   /**
+    * Adds the issues found for one person
+    * @param issues issue arrays returned by the analyses; each is read up to its first row without a category
+    * @return the row of the first issue added
+    */
+   public synchronized int add(List<String[][]> issues) {
+      int first = size;
+      for (String[][] rows : issues) {
+         for (int i = 0; i < rows.length && rows[i][CATEGORY] != null; i++) {
+            if (columns == null || size == columns[0].length) {
+               grow();
+            }
+            for (int column = 0; column < NUM_COLUMNS; column++) {
+               columns[column][size] = (column < rows[i].length ? rows[i][column] : null);
+            }
+            size++;
+         }
+      }
+      return first;
+   }
+
+   /**
+    * @param issues issue arrays returned by the analyses
+    * @return the number of rows add will store for them
+    */
+   public static int count(List<String[][]> issues) {
+      int count = 0;
+      for (String[][] rows : issues) {
+         for (int i = 0; i < rows.length && rows[i][CATEGORY] != null; i++) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   private void grow() {
+      int capacity = (columns == null ? 16 : columns[0].length * 2);
+      String[][] grown = new String[NUM_COLUMNS][capacity];
+      if (columns != null) {
+         for (int column = 0; column < NUM_COLUMNS; column++) {
+            System.arraycopy(columns[column], 0, grown[column], 0, size);
+         }
+      }
+      columns = grown;
+   }
+
+   /**
+    * @param row row returned by add, plus the index of the issue within the person's issues
+    * @param column CATEGORY, DESCRIPTION, NAMESPACE, PAGE_ID or IMMEDIATE_FIX
+    * @return the value
+    */
+   public synchronized String get(int row, int column) {
+      if (row >= size) {
+         throw new IndexOutOfBoundsException("Issue " + row + " of " + size);
+      }
+      return columns[column][row];
+   }
+
+   /**
+    * @return the number of issues in the table
+    */
+   public synchronized int size() {
+      return size;
+   }
+}
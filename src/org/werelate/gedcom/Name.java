@@ -3,8 +3,6 @@ package org.werelate.gedcom;
 import org.werelate.util.Utils;
 import org.werelate.util.PlaceUtils;
 import org.werelate.util.ElementWriter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -13,11 +11,6 @@ import java.io.PrintWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathConstants;
-
 /**
  * Created by IntelliJ IDEA.
  * User: npowell
@@ -111,40 +104,23 @@ public class Name extends ReferenceContainer {
 
    }
 
-   private static final XPath xpe = Uploader.xpe;
-   private static XPathExpression nameExpression;
-   private static XPathExpression givenExpression;
-   private static XPathExpression surnameExpression;
-   private static XPathExpression titlePrefixExpression;
-   private static XPathExpression titleSuffixExpression;
-   static
+   void parseFromPersonXML(ContentElement personContent, boolean living)
    {
-      try
+      ContentElement name = null;
+      if (personContent != null && personContent.getName().equals("person"))
       {
-         nameExpression = xpe.compile("person/name");
-         givenExpression = xpe.compile("@given");
-         surnameExpression = xpe.compile("@surname");
-         titlePrefixExpression = xpe.compile("@title_prefix");
-         titleSuffixExpression = xpe.compile("@title_suffix");
-      } catch (XPathExpressionException e)
-      {
-
+         name = personContent.getChild("name");
       }
-   }
-
-   public void parseFromPersonXML(Document personContentXML, boolean living) throws XPathExpressionException
-   {
-      Node name = (Node) nameExpression.evaluate(personContentXML, XPathConstants.NODE);
       if (living) {
          setGiven("Living");
       }
       if (name != null) {
          if (!living) {
-            setGiven((String) givenExpression.evaluate(name, XPathConstants.STRING));
-            setPrefix((String) titlePrefixExpression.evaluate(name, XPathConstants.STRING));
-            setSuffix((String) titleSuffixExpression.evaluate(name, XPathConstants.STRING));
+            setGiven(name.getAttribute("given"));
+            setPrefix(name.getAttribute("title_prefix"));
+            setSuffix(name.getAttribute("title_suffix"));
          }
-         setSurname((String) surnameExpression.evaluate(name, XPathConstants.STRING));
+         setSurname(name.getAttribute("surname"));
       }
    }
 
@@ -146,6 +146,12 @@ public class Note implements ReferencedObject {
       }
    }
 
+   // Consistent with equals; the source citations are left out because equals compares them only loosely
+   public int hashCode()
+   {
+      return 31 * (note == null ? 0 : note.hashCode()) + (id == null ? 0 : id.hashCode());
+   }
+
    /**
     *
     * @return the note id, if applicable
@@ -0,0 +1,160 @@
+package org.werelate.gedcom;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Prints the pages of the inprocess XML file.
+ * <p/>
+ * With one thread, each page is printed straight to the file as it is added. With more, pages are
+ * rendered on a pool into their own buffers and written to the file in the order they were added.
+ * No more than PAGES_PER_THREAD pages per thread are rendered or waiting to be written at a time.
+ * <p/>
+ * Pages added as shared change objects that other pages print as well, such as notes cited by ID,
+ * and what they print depends on how often those objects have been printed before. They are
+ * rendered one at a time, in order, on the thread that adds the pages, when their turn comes to be written.
+ */
+public class PagePrinter {
+   private static final int PAGES_PER_THREAD = 16;
+
+   public interface Page {
+      /**
+       * Prints the page. Uploader.PrintExceptions are handled by the page.
+       */
+      public void print(PrintWriter out) throws Gedcom.PostProcessException;
+   }
+
+   // The text of a rendered page, and the exception that stopped it, if any
+   private static class Rendering {
+      private String text;
+      private Throwable error = null;
+   }
+
+   private final PrintWriter out;
+   private final ForkJoinPool pool;
+   private final int window;
+   // Future<Rendering> of each page rendered on the pool, or the Page itself for shared pages
+   private final LinkedList<Object> pending = new LinkedList<Object>();
+
+   /**
+    * @param out to write the pages to
+    * @param numThreads number of threads to render the pages on; 1 prints them in order on the calling thread
+    */
+   public PagePrinter(PrintWriter out, int numThreads) {
+      this.out = out;
+      this.pool = (numThreads > 1 ? new ForkJoinPool(numThreads) : null);
+      this.window = numThreads * PAGES_PER_THREAD;
+   }
+
+   /**
+    * Adds a page, writing the earliest pages to the file once the window is full
+    * @param page to print
+    * @param shared whether printing the page changes objects that other pages print
+    * @throws Gedcom.PostProcessException thrown by a page that was written; the pages after it are not written
+    */
+   public void add(final Page page, boolean shared) throws Gedcom.PostProcessException {
+      if (pool == null)
+      {
+         page.print(out);
+         return;
+      }
+      if (shared)
+      {
+         pending.add(page);
+      } else
+      {
+         pending.add(pool.submit(new Callable<Rendering>() {
+            public Rendering call() {
+               return render(page);
+            }
+         }));
+      }
+      while (pending.size() > window)
+      {
+         writeNext();
+      }
+   }
+
+   /**
+    * Writes the remaining pages and stops the pool
+    * @throws Gedcom.PostProcessException thrown by a page that was written; the pages after it are not written
+    */
+   public void finish() throws Gedcom.PostProcessException {
+      while (!pending.isEmpty())
+      {
+         writeNext();
+      }
+      if (pool != null)
+      {
+         pool.shutdown();
+      }
+   }
+
+   private static Rendering render(Page page) {
+      Rendering rendering = new Rendering();
+      StringWriter buf = new StringWriter();
+      PrintWriter pageOut = new PrintWriter(buf);
+      try
+      {
+         page.print(pageOut);
+      } catch (Throwable t)
+      {
+         rendering.error = t;
+      }
+      pageOut.flush();
+      rendering.text = buf.toString();
+      return rendering;
+   }
+
+   @SuppressWarnings("unchecked")
+   private void writeNext() throws Gedcom.PostProcessException {
+      Object next = pending.removeFirst();
+      Rendering rendering;
+      if (next instanceof Page)
+      {
+         rendering = render((Page) next);
+      } else
+      {
+         try
+         {
+            rendering = ((Future<Rendering>) next).get();
+         } catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+            throw new Gedcom.PostProcessException("Interrupted while printing pages", null, null);
+         } catch (ExecutionException e)
+         {
+            // render catches everything the page throws
+            rendering = new Rendering();
+            rendering.text = "";
+            rendering.error = e.getCause();
+         }
+      }
+      // A page that fails is written as far as it got, as it would be when printed straight to the file
+      out.write(rendering.text);
+      if (rendering.error != null)
+      {
+         pool.shutdownNow();
+         pending.clear();
+         if (rendering.error instanceof Gedcom.PostProcessException)
+         {
+            throw (Gedcom.PostProcessException) rendering.error;
+         } else if (rendering.error instanceof RuntimeException)
+         {
+            throw (RuntimeException) rendering.error;
+         } else if (rendering.error instanceof Error)
+         {
+            throw (Error) rendering.error;
+         } else
+         {
+            throw new RuntimeException(rendering.error);
+         }
+      }
+   }
+}
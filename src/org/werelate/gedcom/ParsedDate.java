@@ -0,0 +1,138 @@
+package org.werelate.gedcom;
+
+import org.werelate.util.EventDate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The day range and sort key of a date string, as EventDate parses it.
+ * A date read for an event type is also edited, and whether the edit succeeded is kept with it.
+ * <p/>
+ * Cutoff and problem detection look at the same dates again and again,
+ * and most GEDCOMs use a small set of date strings ("ABT 1850", "1900") thousands of times,
+ * so each GEDCOM keeps the dates it has parsed in a Cache.
+ */
+public class ParsedDate {
+   /**
+    * The dates parsed for one GEDCOM, with the number of lookups it answered and missed.
+    * Pages are printed in parallel, so lookups don't lock; two threads that miss the same string
+    * both parse it and get equal results.
+    */
+   public static class Cache {
+      private static final int MAX_CACHED_DATES = 50000;
+
+      // GEDCOM lines cannot contain NUL, so it stands for a null date, and separates the event type from the date
+      private static final char NUL = '\u0000';
+
+      private final Map<String, ParsedDate> dates = new ConcurrentHashMap<String, ParsedDate>();
+      private final Map<String, ParsedDate> editedDates = new ConcurrentHashMap<String, ParsedDate>();
+      private final AtomicLong hits = new AtomicLong();
+      private final AtomicLong misses = new AtomicLong();
+
+      /**
+       * @param date date string from the GEDCOM, may be null
+       * @return the parsed date, from the cache if the string has been parsed before
+       */
+      public ParsedDate get(String date) {
+         return get(dates, (date == null ? String.valueOf(NUL) : date), date, null, false);
+      }
+
+      /**
+       * @param date date string from the GEDCOM, may be null
+       * @param eventType type of the event the date belongs to
+       * @return the date as EventDate(date, eventType) reads it after editDate,
+       *    from the cache if the string has been read for this event type before
+       */
+      public ParsedDate get(String date, String eventType) {
+         return get(editedDates, eventType + NUL + (date == null ? String.valueOf(NUL) : date), date, eventType, true);
+      }
+
+      private ParsedDate get(Map<String, ParsedDate> map, String key, String date, String eventType, boolean isEdited) {
+         ParsedDate parsed = map.get(key);
+         if (parsed != null) {
+            hits.incrementAndGet();
+            return parsed;
+         }
+         misses.incrementAndGet();
+         parsed = new ParsedDate(date, eventType, isEdited);
+         // a GEDCOM with more distinct dates than this parses the rest each time
+         if (map.size() < MAX_CACHED_DATES) {
+            map.put(key, parsed);
+         }
+         return parsed;
+      }
+
+      /**
+       * @return number of lookups answered from the cache
+       */
+      public long getHits() {
+         return hits.get();
+      }
+
+      /**
+       * @return number of lookups that had to parse the date
+       */
+      public long getMisses() {
+         return misses.get();
+      }
+   }
+
+   private final boolean isValid;
+   private final String errorMessage;
+   private final int minDay;
+   private final int maxDay;
+   private final Integer dateSortKey;
+
+   private ParsedDate(String date, String eventType, boolean isEdited) {
+      EventDate eventDate;
+      if (!isEdited) {
+         eventDate = new EventDate(date);
+         isValid = true;
+         errorMessage = null;
+      } else {
+         eventDate = new EventDate(date, eventType);
+         isValid = eventDate.editDate();
+         errorMessage = (isValid ? null : eventDate.getErrorMessage());
+      }
+      minDay = eventDate.getMinDay();
+      maxDay = eventDate.getMaxDay();
+      dateSortKey = eventDate.getDateSortKey();
+   }
+
+   /**
+    * @return same as EventDate.editDate; always true for a date read without an event type
+    */
+   public boolean editDate() {
+      return isValid;
+   }
+
+   /**
+    * @return same as EventDate.getErrorMessage, or null if the date was edited successfully
+    */
+   public String getErrorMessage() {
+      return errorMessage;
+   }
+
+   /**
+    * @return same as EventDate.getMinDay
+    */
+   public int getMinDay() {
+      return minDay;
+   }
+
+   /**
+    * @return same as EventDate.getMaxDay
+    */
+   public int getMaxDay() {
+      return maxDay;
+   }
+
+   /**
+    * @return same as EventDate.getDateSortKey
+    */
+   public Integer getDateSortKey() {
+      return dateSortKey;
+   }
+}
@@ -13,6 +13,9 @@ import nu.xom.Builder;
 import nu.xom.Element;
 import nu.xom.ParsingException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.PrintWriter;
 import java.io.IOException;
 import java.util.regex.Matcher;
@@ -86,6 +89,10 @@ public class Person extends EventContainer implements Comparable {
       isAdopted = adopted;
    }
 
+   // Held by a family while it sets the adopted and status flags and reads them back,
+   // as the person may also be a child of a family being prepared on another thread
+   final Object childFlagsLock = new Object();
+
    private Set<String> childOfFamilies = new HashSet<String>();
    /**
     *
@@ -257,8 +264,11 @@ public class Person extends EventContainer implements Comparable {
       this.wikiTitle= null;
    }
 
-   // issues: [][0] = category, [][1] = description, [][2] = namesspace, [][3] = pageid, [][4] = whether the wiki requires immediate fix
-   private String[][] issues = new String[1000][5];
+   // This person's data quality issues are rows firstIssue to firstIssue + numIssues - 1 of issueTable,
+   // which is the table of the whole GEDCOM; see IssueTable for the columns
+   private IssueTable issueTable = null;
+   private int firstIssue = 0;
+   private int numIssues = 0;
 
    private static final int USUAL_LONGEST_LIFE = FamilyDQAnalysis.USUAL_LONGEST_LIFE;
 
@@ -529,28 +539,38 @@ public class Person extends EventContainer implements Comparable {
 
       // Find data quality issues on the person page, determine if the person is definitely dead,
       // and get a first cut at the latest possible birth year.
-      String data = prepareDataForAnalysis(gedcom);
-      Element root = SharedUtils.parseText(new Builder(), data, true).getRootElement();
-      PersonDQAnalysis personDQAnalysis = new PersonDQAnalysis(root, getID(), true);
-      if (personDQAnalysis.isDeadOrExempt() == 1) 
-      {
-         setLiving(LivingStatus.DEAD);
-      }
-      issues = personDQAnalysis.getIssues();
-      Integer latestBirth = personDQAnalysis.getLatestBirth();
-
-      // Find data quality issues for the person in relation to their parents,
-      // and refine the latest possible birth year based on dates of parents and siblings.
-      for (String familyID : getChildOfFamilies()) {
-         Family family = gedcom.getFamilies().get(familyID);
-         if (family != null) {
-            data = family.prepareDataForAnalysis(gedcom);
-            root = SharedUtils.parseText(new Builder(), data, true).getRootElement();
-            FamilyDQAnalysis familyDQAnalysis = new FamilyDQAnalysis(root, family.getID(), getID(), true);
-            appendIssues(issues, familyDQAnalysis.getIssues());
-            familyDQAnalysis.refineChildBirthYear();
-            latestBirth = SharedUtils.minInteger(latestBirth, familyDQAnalysis.getCLatestBirth());
+      Builder builder = new Builder();
+      Element root;
+      Integer latestBirth;
+      List<String[][]> issues = new ArrayList<String[][]>();
+      try
+      {
+         String data = prepareDataForAnalysis(gedcom);
+         root = SharedUtils.parseText(builder, data, true).getRootElement();
+         PersonDQAnalysis personDQAnalysis = new PersonDQAnalysis(root, getID(), true);
+         if (personDQAnalysis.isDeadOrExempt() == 1)
+         {
+            setLiving(LivingStatus.DEAD);
          }
+         issues.add(personDQAnalysis.getIssues());
+         latestBirth = personDQAnalysis.getLatestBirth();
+
+         // Find data quality issues for the person in relation to their parents,
+         // and refine the latest possible birth year based on dates of parents and siblings.
+         for (String familyID : getChildOfFamilies()) {
+            Family family = gedcom.getFamilies().get(familyID);
+            if (family != null) {
+               root = family.getRootForAnalysis(gedcom, builder);
+               FamilyDQAnalysis familyDQAnalysis = new FamilyDQAnalysis(root, family.getID(), getID(), true);
+               issues.add(familyDQAnalysis.getIssues());
+               familyDQAnalysis.refineChildBirthYear();
+               latestBirth = SharedUtils.minInteger(latestBirth, familyDQAnalysis.getCLatestBirth());
+            }
+         }
+      } finally
+      {
+         // Keep the issues found so far, even if an analysis failed
+         setIssues(gedcom.getIssues(), issues);
       }
 
       // If it cannot yet be determined if the person is living, 
@@ -563,8 +583,7 @@ public class Person extends EventContainer implements Comparable {
             {
                Family family = gedcom.getFamilies().get(familyID);
                if (family != null) {
-                  data = family.prepareDataForAnalysis(gedcom);
-                  root = SharedUtils.parseText(new Builder(), data, true).getRootElement();
+                  root = family.getRootForAnalysis(gedcom, builder);
                   FamilyDQAnalysis familyDQAnalysis = new FamilyDQAnalysis(root, family.getID(), "none", true);
                   if (getGender() == Gender.male)
                   {
@@ -615,28 +634,40 @@ public class Person extends EventContainer implements Comparable {
    // use the person's relatives to guess as to whether he is
    // living or dead.
    //
-   // Mark a living person's unknown-status spouse, children, and siblings as living
-   private void setLivingSecondPass(Gedcom gedcom) 
+   // Mark a living person's unknown-status spouse, children, and siblings as living,
+   // and add the people who were marked to markedLiving
+   private void setLivingSecondPass(Gedcom gedcom, Collection<Person> markedLiving)
          throws Uploader.PrintException, Gedcom.PostProcessException
    {
       if (getLiving() == LivingStatus.LIVING) {
-         markFamilyMembersLiving(getChildOfFamilies(), gedcom, false);
-         markFamilyMembersLiving(getSpouseOfFamilies(), gedcom, true);
+         markFamilyMembersLiving(getChildOfFamilies(), gedcom, false, markedLiving);
+         markFamilyMembersLiving(getSpouseOfFamilies(), gedcom, true, markedLiving);
       }
    }
 
-   /*
-    * Copy issues from one array into another, after the last issue in the destination array.
-    */
-   public void appendIssues(String[][] issues1, String[][] issues2) {
-      int i=0;
-      for (i=0; issues1[i][0] != null; i++);
-      for (int j=0; issues2[j][0] != null; j++) {
-         issues1[i++] = issues2[j];
+   // Moves the issues returned by the analyses into the GEDCOM's issue table
+   private void setIssues(IssueTable table, List<String[][]> issues) {
+      // Other threads may be adding their issues at the same time, so count our own
+      numIssues = IssueTable.count(issues);
+      firstIssue = table.add(issues);
+      issueTable = (numIssues > 0 ? table : null);
+   }
+
+   // This person's data quality issues, each a row of the IssueTable columns
+   List<String[]> getIssueRows() {
+      List<String[]> rows = new ArrayList<String[]>();
+      for (int i = firstIssue; i < firstIssue + numIssues; i++) {
+         String[] row = new String[IssueTable.IMMEDIATE_FIX + 1];
+         for (int column = 0; column < row.length; column++) {
+            row[column] = issueTable.get(i, column);
+         }
+         rows.add(row);
       }
+      return rows;
    }
 
-   private void markFamilyMembersLiving(Set<String> families, Gedcom gedcom, boolean includeSpouses) {
+   private void markFamilyMembersLiving(Set<String> families, Gedcom gedcom, boolean includeSpouses,
+                                        Collection<Person> markedLiving) {
       for (String famID : families) {
          Family fam = gedcom.getFamilies().get(famID);
          if (fam != null) {
@@ -645,6 +676,7 @@ public class Person extends EventContainer implements Comparable {
                   Person p = gedcom.getPeople().get(personID);
                   if (p != null && p.getLiving() == LivingStatus.UNKNOWN) {
                      p.setLiving(LivingStatus.LIVING);
+                     markedLiving.add(p);
                   }
                }
             }
@@ -652,6 +684,7 @@ public class Person extends EventContainer implements Comparable {
                Person p = gedcom.getPeople().get(child.getId());
                if (p != null && p.getLiving() == LivingStatus.UNKNOWN) {
                   p.setLiving(LivingStatus.LIVING);
+                  markedLiving.add(p);
                }
             }
          }
@@ -668,52 +701,203 @@ public class Person extends EventContainer implements Comparable {
     * in the gedcom passed into this method
     */
    public static void setLiving (Gedcom gedcom) throws Gedcom.PostProcessException
+   {
+      setLiving(gedcom, 1);
+   }
+
+   /**
+    * Sets the living status of all individuals
+    * in the gedcom passed into this method
+    * @param numThreads number of threads for the first pass over the people;
+    * 1 goes through them in order on the calling thread
+    */
+   public static void setLiving (Gedcom gedcom, int numThreads) throws Gedcom.PostProcessException
    {
       // try to mark people living or dead based on dates of themselves or their near relatives
+      if (numThreads > 1 && gedcom.getPeople().size() > 1)
+      {
+         setLivingFirstPassInParallel(gedcom, numThreads);
+      } else
+      {
+         for (Person person : gedcom.getPeople().values())
+         {
+            person.trySetLivingFirstPass(gedcom);
+         }
+      }
+      for (Family family : gedcom.getFamilies().values())
+      {
+         family.clearAnalysisRoot();
+      }
+
+      // Mark people living if their status is unknown and a near relative has been marked living.
+      // Everyone marked living is queued once, so that all generations are marked
+      // without sweeping the whole GEDCOM again for each one.
+      LinkedList<Person> queue = new LinkedList<Person>();
       for (Person person : gedcom.getPeople().values())
       {
+         if (person.getLiving() == LivingStatus.LIVING) {
+            queue.add(person);
+         }
+      }
+      List<Person> markedLiving = new ArrayList<Person>();
+      while (!queue.isEmpty()) {
+         Person person = queue.removeFirst();
          try
          {
-            person.setLivingFirstPass(gedcom);
-         } catch (Gedcom.PostProcessException e)
+            person.setLivingSecondPass(gedcom, markedLiving);
+         } catch (Uploader.PrintException e)
          {
             gedcom.warn("Caught post process exception while attempting to set person \"" +
-                        person.getID() + "\"'s isLiving status in first pass: " + e);
-         } catch (Exception e)
-         {
-            gedcom.warn("Caught exception while attempting to set person \"" +
-                        person.getID() + "\"'s isLiving status in first pass: " + e);
+                        person.getID() + "\"'s isLiving status in second pass: " + e);
          }
+         // Only people whose status was unknown are marked, so nobody is queued twice
+         queue.addAll(markedLiving);
+         markedLiving.clear();
       }
 
-      // Mark people living if their status is unknown and a near relative has been marked living.
-      // Iterate as long as people are being marked living to ensure all generations are marked.
-      boolean foundLiving = true;
-      Set<String> livingIds = new HashSet<String>();
-      while (foundLiving) {
-         foundLiving = false;
-         for (Person person : gedcom.getPeople().values())
+      // mark everyone else dead
+      for (Person person : gedcom.getPeople().values()) {
+         if (person.getLiving() == LivingStatus.UNKNOWN) {
+            person.setLiving(LivingStatus.DEAD);
+         }
+      }
+   }
+
+   private void trySetLivingFirstPass(Gedcom gedcom)
+   {
+      try
+      {
+         setLivingFirstPass(gedcom);
+      } catch (Gedcom.PostProcessException e)
+      {
+         gedcom.warn("Caught post process exception while attempting to set person \"" +
+                     getID() + "\"'s isLiving status in first pass: " + e);
+      } catch (Exception e)
+      {
+         gedcom.warn("Caught exception while attempting to set person \"" +
+                     getID() + "\"'s isLiving status in first pass: " + e);
+      }
+   }
+
+   // Runs the first pass of setLiving on a fork-join pool.
+   // The first pass of a person reads and changes the person's relatives (see getFirstPassRelatives),
+   // so two people who are relatives in that sense are run one after the other, in GEDCOM order,
+   // and see each other's changes just as they would going through the people in order.
+   // Everyone else is run at the same time.
+   private static void setLivingFirstPassInParallel(final Gedcom gedcom, int numThreads)
+         throws Gedcom.PostProcessException
+   {
+      final List<Person> people = new ArrayList<Person>(gedcom.getPeople().values());
+      Map<String, Integer> indexes = new HashMap<String, Integer>();
+      for (int i = 0; i < people.size(); i++)
+      {
+         indexes.put(people.get(i).getID(), i);
+      }
+      // The people who have to wait for each person, and the number of people each person waits for
+      final List<Set<Integer>> followers = new ArrayList<Set<Integer>>(people.size());
+      for (int i = 0; i < people.size(); i++)
+      {
+         followers.add(new HashSet<Integer>());
+      }
+      for (int i = 0; i < people.size(); i++)
+      {
+         for (String relativeID : people.get(i).getFirstPassRelatives(gedcom))
          {
-            try
+            Integer j = indexes.get(relativeID);
+            if (j != null && j != i)
             {
-               if (person.getLiving() == LivingStatus.LIVING && livingIds.add(person.getID())) {
-                  foundLiving = true;
-                  person.setLivingSecondPass(gedcom);
+               followers.get(Math.min(i, j)).add(Math.max(i, j));
+            }
+         }
+      }
+      final AtomicInteger[] waitingFor = new AtomicInteger[people.size()];
+      for (int i = 0; i < people.size(); i++)
+      {
+         waitingFor[i] = new AtomicInteger();
+      }
+      for (Set<Integer> f : followers)
+      {
+         for (Integer j : f)
+         {
+            waitingFor[j].incrementAndGet();
+         }
+      }
+
+      final ForkJoinPool pool = new ForkJoinPool(numThreads);
+      final CountDownLatch done = new CountDownLatch(people.size());
+      class FirstPass implements Runnable {
+         private final int i;
+
+         FirstPass(int i) {
+            this.i = i;
+         }
+
+         public void run() {
+            try {
+               people.get(i).trySetLivingFirstPass(gedcom);
+            } finally {
+               for (Integer j : followers.get(i)) {
+                  if (waitingFor[j].decrementAndGet() == 0) {
+                     pool.execute(new FirstPass(j));
+                  }
                }
-            } catch (Uploader.PrintException e)
+               done.countDown();
+            }
+         }
+      }
+      try {
+         for (int i = 0; i < people.size(); i++)
+         {
+            if (waitingFor[i].get() == 0)
             {
-               gedcom.warn("Caught post process exception while attempting to set person \"" +
-                           person.getID() + "\"'s isLiving status in second pass: " + e);
+               pool.execute(new FirstPass(i));
             }
          }
+         done.await();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new Gedcom.PostProcessException("Interrupted while setting isLiving", gedcom, null);
+      } finally {
+         pool.shutdown();
       }
+   }
 
-      // mark everyone else dead
-      for (Person person : gedcom.getPeople().values()) {
-         if (person.getLiving() == LivingStatus.UNKNOWN) {
-            person.setLiving(LivingStatus.DEAD);
+   // IDs of the people whose data the first pass of this person reads or changes:
+   // the members of the person's families, and the members of the families that
+   // the spouses in those families are primarily children of.
+   private Set<String> getFirstPassRelatives(Gedcom gedcom)
+   {
+      Set<String> relatives = new HashSet<String>();
+      for (String famID : getFamilies())
+      {
+         Family fam = gedcom.getFamilies().get(famID);
+         if (fam != null)
+         {
+            addMembers(fam, relatives);
+            for (String spouseID : fam.getSpouses())
+            {
+               Person spouse = gedcom.getPeople().get(spouseID);
+               if (spouse != null && spouse.getPrimaryChildOf() != null)
+               {
+                  Family parents = gedcom.getFamilies().get(spouse.getPrimaryChildOf());
+                  if (parents != null)
+                  {
+                     addMembers(parents, relatives);
+                  }
+               }
+            }
          }
       }
+      return relatives;
+   }
+
+   private static void addMembers(Family fam, Set<String> ids)
+   {
+      ids.addAll(fam.getSpouses());
+      for (Family.Child child : fam.getChildren())
+      {
+         ids.add(child.getId());
+      }
    }
 
    // If someone named "Living" isn't marked living, remove their name
@@ -742,14 +926,14 @@ public class Person extends EventContainer implements Comparable {
       return bornBeforeCutoff;
    }
    
-   private boolean hasEventsBeforeCutoff(int cutOffDay) {
+   private boolean hasEventsBeforeCutoff(Gedcom gedcom, int cutOffDay) {
       for (Event event : getEvents())
       {
          String date = event.getAttribute("DATE");
          if (!Utils.isEmpty(date))
          {
             date = date.trim().toLowerCase();
-            int maxDay = new EventDate(date).getMaxDay();                      // method replaced Oct 2021 by Janet Bjorndahl
+            int maxDay = gedcom.getDates().get(date).getMaxDay();                      // method replaced Oct 2021 by Janet Bjorndahl
             if (maxDay != 0 && maxDay < cutOffDay) {
                return true;
             }
@@ -758,7 +942,7 @@ public class Person extends EventContainer implements Comparable {
       return false;
    }
 
-   private boolean hasBirthEventAfterCutoff(int cutOffDay) {
+   private boolean hasBirthEventAfterCutoff(Gedcom gedcom, int cutOffDay) {
       for (Event event : getEvents())
       {
          String date = event.getAttribute("DATE");
@@ -769,7 +953,7 @@ public class Person extends EventContainer implements Comparable {
               event.getType() == Event.Type.alt_christening) &&
              !Utils.isEmpty(date)) {
             date = date.trim().toLowerCase();
-            int maxDay = new EventDate(date).getMaxDay();                      // method replaced Oct 2021 by Janet Bjorndahl
+            int maxDay = gedcom.getDates().get(date).getMaxDay();                      // method replaced Oct 2021 by Janet Bjorndahl
             if (maxDay > cutOffDay) {
                return true;
             }
@@ -788,7 +972,7 @@ public class Person extends EventContainer implements Comparable {
          {
             for (String personID : fam.getSpouses()) {
                Person p = gedcom.getPeople().get(personID);
-               if (p != null && !p.isBornBeforeCutoff() && !p.hasBirthEventAfterCutoff(gedcom.getCutoffDay())) {
+               if (p != null && !p.isBornBeforeCutoff() && !p.hasBirthEventAfterCutoff(gedcom, gedcom.getCutoffDay())) {
                   p.setBornBeforeCutoff(gedcom);
                }
             }
@@ -803,7 +987,7 @@ public class Person extends EventContainer implements Comparable {
             spouseChildren.addAll(fam.getSpouses());
             for (String personID : spouseChildren) {
                Person p = gedcom.getPeople().get(personID);
-               if (p != null && !p.isBornBeforeCutoff() && !p.hasBirthEventAfterCutoff(gedcom.getCutoffDay())) {
+               if (p != null && !p.isBornBeforeCutoff() && !p.hasBirthEventAfterCutoff(gedcom, gedcom.getCutoffDay())) {
                   p.setBornBeforeCutoff(gedcom);
                }
             }
@@ -812,7 +996,7 @@ public class Person extends EventContainer implements Comparable {
    }
    public static void setAllBornBeforeCutoff(Gedcom gedcom) {
       for (Person person: gedcom.getPeople().values()) {
-         if (person.hasEventsBeforeCutoff(gedcom.getCutoffDay())) {
+         if (person.hasEventsBeforeCutoff(gedcom, gedcom.getCutoffDay())) {
             person.setBornBeforeCutoff(gedcom);
          }
       }
@@ -910,11 +1094,13 @@ public class Person extends EventContainer implements Comparable {
     *
     * If the person does not have a valid name, then
     * "Unknown" is returned
+    *
+    * Synchronized because pages printed in parallel look up the titles of the people they mention
     * @param gedcom
     * @return
     * @throws Gedcom.PostProcessException
     */
-   public String getWikiTitle(Gedcom gedcom) throws Gedcom.PostProcessException {
+   public synchronized String getWikiTitle(Gedcom gedcom) throws Gedcom.PostProcessException {
       if (Utils.isEmpty(wikiTitle))
       {
          if (getName() != null)
@@ -1190,13 +1376,13 @@ public class Person extends EventContainer implements Comparable {
       primary = true;
    }
 
-   public void findProblems()
+   public void findProblems(Gedcom gedcom)
    {
       String birthDate = null;
       String deathDate = null;
       String burialDate = null;
-      List <EventDate> nonBirthStdDates = new ArrayList<EventDate>();              // data type changed from String on this and next line Oct 2021 by Janet Bjorndahl
-      List <EventDate> nonDeathProbateStdDates = new ArrayList<EventDate>();
+      List <ParsedDate> nonBirthStdDates = new ArrayList<ParsedDate>();              // data type changed from String on this and next line Oct 2021 by Janet Bjorndahl
+      List <ParsedDate> nonDeathProbateStdDates = new ArrayList<ParsedDate>();
 
       // Let's find potential problems for this person.
       for (Event event : getEvents())
@@ -1211,7 +1397,7 @@ public class Person extends EventContainer implements Comparable {
             if (!Utils.isEmpty(date)) {
                // Edit dates - warning if the date cannot be interpreted; no message for dates requiring signficant reformating. Changed Sep 2025 by Janet Bjorndahl
                // Old: Edit dates - error if the date cannot be interpreted; otherwise an alert if the date required signficant reformating. Added Aug 2021 by JB
-               EventDate eventDate = new EventDate(date, event.eventType());
+               ParsedDate eventDate = gedcom.getDates().get(date, event.eventType());
                if (eventDate.editDate()) {
 //                  if (eventDate.getSignificantReformat()) {
 //                     addProblem("0" + event.eventType() + " date automatically reformated from \"" + date + "\" to \"" + eventDate.getFormatedDate() + "\"");
@@ -1249,12 +1435,12 @@ public class Person extends EventContainer implements Comparable {
          }
       }
 
-      int minDeathDay = new EventDate(deathDate).getMinDay();            // method replaced in these 6 rows Oct 2021 by Janet Bjorndahl
-      int maxDeathDay = new EventDate(deathDate).getMaxDay();
-      int minBurialDay = new EventDate(burialDate).getMinDay();
-      int maxBurialDay = new EventDate(burialDate).getMaxDay();
-      int minBirthDay = new EventDate(birthDate).getMinDay();
-      int maxBirthDay = new EventDate(birthDate).getMaxDay();
+      int minDeathDay = gedcom.getDates().get(deathDate).getMinDay();            // method replaced in these 6 rows Oct 2021 by Janet Bjorndahl
+      int maxDeathDay = gedcom.getDates().get(deathDate).getMaxDay();
+      int minBurialDay = gedcom.getDates().get(burialDate).getMinDay();
+      int maxBurialDay = gedcom.getDates().get(burialDate).getMaxDay();
+      int minBirthDay = gedcom.getDates().get(birthDate).getMinDay();
+      int maxBirthDay = gedcom.getDates().get(birthDate).getMaxDay();
 
       if (minDeathDay > 0 && maxBirthDay > 0 && minDeathDay - maxBirthDay > 115*365) {
          addProblem("2Death is more than 115 years after birth");
@@ -1270,7 +1456,7 @@ public class Person extends EventContainer implements Comparable {
       }
 
       if (minBirthDay > 0) {
-         for (EventDate otherDate : nonBirthStdDates) {                // data type changed from String Oct 2021 by Janet Bjorndahl
+         for (ParsedDate otherDate : nonBirthStdDates) {                // data type changed from String Oct 2021 by Janet Bjorndahl
             int otherDay = otherDate.getMaxDay();                      // method replaced Oct 2021 by Janet Bjorndahl
             if (otherDay > 0 && otherDay < minBirthDay) {
                addProblem("2An event occurs before birth");
@@ -1280,7 +1466,7 @@ public class Person extends EventContainer implements Comparable {
       }
 
       if (maxDeathDay > 0) {
-         for (EventDate otherDate : nonDeathProbateStdDates)           // data type changed from String Oct 2021 by Janet Bjorndahl
+         for (ParsedDate otherDate : nonDeathProbateStdDates)           // data type changed from String Oct 2021 by Janet Bjorndahl
          {
             int otherDay = otherDate.getMinDay();                      // method replaced Oct 2021 by Janet Bjorndahl
             if (otherDay != 0 && otherDay - maxDeathDay > 365)
@@ -1314,9 +1500,10 @@ public class Person extends EventContainer implements Comparable {
       }
 
       // If circular relationship found, report it. (Other issues may duplicate issues already handled in above code.)
-      for (int i=0; issues[i][0] != null ; i++) {
-         if (issues[i][1].equals("Child and spouse of the same family")) {
-            addProblem("2" + issues[i][1]);
+      for (int i = firstIssue; i < firstIssue + numIssues; i++) {
+         String description = issueTable.get(i, IssueTable.DESCRIPTION);
+         if (description.equals("Child and spouse of the same family")) {
+            addProblem("2" + description);
          }
       }
    }
@@ -1378,13 +1565,13 @@ public class Person extends EventContainer implements Comparable {
          // We want to finish printing the images
          // Finish printing out the content
          out.print("<content>");
-         String outText = buf.toString();
          if (encodeXML)
          {
-            //outText = Utils.encodeXML(outText);
-            outText = encloseInCDATA(outText);
+            printInCDATA(out, buf);
+         } else
+         {
+            out.print(buf);
          }
-         out.print(outText);
       } catch (Uploader.PrintException e)
       {
          logger.warn(e);
@@ -1393,6 +1580,25 @@ public class Person extends EventContainer implements Comparable {
       out.println("</page>");
    }
 
+   /**
+    * @return whether printing this person resolves notes cited by ID, including those cited in the person's names
+    */
+   public boolean citesNotes()
+   {
+      if (super.citesNotes() || (getName() != null && getName().citesNotes()))
+      {
+         return true;
+      }
+      for (AlternateName an : getAltNames())
+      {
+         if (an.citesNotes())
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
    // Prints this person's names, with references
    private void printNames(StringBuffer buf, StringBuffer sourceBuffer, StringBuffer noteBuffer, Gedcom gedcom)
          throws Uploader.PrintException, Gedcom.PostProcessException
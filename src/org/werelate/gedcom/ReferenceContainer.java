@@ -241,6 +241,36 @@ abstract public class ReferenceContainer {
       }
    }
 
+   /**
+    * @return whether this object, or a source citation in it or in its notes, cites a note by ID.
+    * Those notes are shared with everything else that cites them, and printing changes them.
+    */
+   public boolean citesNotes()
+   {
+      if (getNoteCitations().size() > 0)
+      {
+         return true;
+      }
+      for (Citation cit : getCitations())
+      {
+         if (cit.citesNotes())
+         {
+            return true;
+         }
+      }
+      for (Note note : getNotes())
+      {
+         for (Citation cit : note.getSourceCitations())
+         {
+            if (cit.citesNotes())
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
    // Returns the name to be used for specifying the parent of an image
    // tag, because the image tag is being put inside of the data element
    protected abstract String getParentName() throws Gedcom.PostProcessException;
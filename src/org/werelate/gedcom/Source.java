@@ -54,18 +54,84 @@ public class Source extends EventContainer {
 
    private String hashString()
    {
-      String rval = Abbreviation + url + author + pubInfo + callNum + type +
-            peri + place + repositoryID + repositoryName + repAddr + text + title;
+      StringBuilder buf = new StringBuilder();
+      buf.append(Abbreviation).append(url).append(author).append(pubInfo).append(callNum).append(type)
+         .append(peri).append(place).append(repositoryID).append(repositoryName).append(repAddr)
+         .append(text).append(title);
       for (Note.Citation cit : getNoteCitations())
       {
-         rval += cit.getId();
+         buf.append(cit.getId());
       }
       for (String note : getNotes())
       {
-         rval += note;
+         buf.append(note);
+      }
+      return buf.toString();
+   }
+
+   /**
+    * 128-bit hash of a source's content, taken over the same character sequence as hashString,
+    * so sources that are equal always have the same fingerprint
+    */
+   public static final class Fingerprint {
+      private long h1 = 0xcbf29ce484222325L;
+      private long h2 = 0x84222325cbf29ce4L;
+
+      private Fingerprint() {
+      }
+
+      private Fingerprint add(String s) {
+         if (s == null) {
+            s = "null";
+         }
+         for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            h1 = (h1 ^ c) * 0x100000001b3L;
+            h2 = (h2 + c) * 0x9e3779b97f4a7c15L;
+         }
+         return this;
+      }
+
+      public int hashCode() {
+         return (int) (h1 ^ (h1 >>> 32));
+      }
+
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Fingerprint)) {
+            return false;
+         }
+         Fingerprint other = (Fingerprint) obj;
+         return h1 == other.h1 && h2 == other.h2;
+      }
+   }
+
+   private Fingerprint fingerprint = null;
+
+   /**
+    * The fingerprint is computed the first time it is asked for, which should be after the record has been read
+    * @return fingerprint of the source's content
+    */
+   public Fingerprint getFingerprint()
+   {
+      if (fingerprint == null)
+      {
+         Fingerprint fp = new Fingerprint();
+         fp.add(Abbreviation).add(url).add(author).add(pubInfo).add(callNum).add(type)
+           .add(peri).add(place).add(repositoryID).add(repositoryName).add(repAddr)
+           .add(text).add(title);
+         for (Note.Citation cit : getNoteCitations())
+         {
+            fp.add(cit.getId());
+         }
+         for (String note : getNotes())
+         {
+            fp.add(note);
+         }
+         fingerprint = fp;
       }
-      return rval;
+      return fingerprint;
    }
+
    public int hashCode ()
    {
       return hashString().hashCode();
@@ -322,23 +388,15 @@ public class Source extends EventContainer {
          }
       }
 
-      // exclude sources that aren't referenced anywhere
-      for (Person person : gedcom.getPeople().values()) {
+      // exclude sources that aren't referenced by any page that will be printed
+      for (Person person : gedcom.getPeopleCitingSource(getID())) {
          if (person.shouldPrint(gedcom)) {
-            for (Citation cit : person.getAllCitations(gedcom)) {
-               if (getID().equals(cit.getId())) {
-                  return false;
-               }
-            }
+            return false;
          }
       }
-      for (Family family : gedcom.getFamilies().values()) {
+      for (Family family : gedcom.getFamiliesCitingSource(getID())) {
          if (family.shouldPrint(gedcom)) {
-            for (Citation cit : family.getAllCitations(gedcom)) {
-               if (getID().equals(cit.getId())) {
-                  return false;
-               }
-            }
+            return false;
          }
       }
 
@@ -360,18 +418,18 @@ public class Source extends EventContainer {
       startPage(out, gedcom, false, shouldExclude(gedcom), false, false);
       // Done printing the images
       out.print("<content>");
-      String outText = "<mysource>\n";
+      StringBuffer outText = new StringBuffer("<mysource>\n");
       //outText += Uploader.printTag("from_year", getFromYear());
-      outText += Uploader.printTag("title", getTitle());
-      outText += Uploader.printTag("url", getUrl());
-      outText += Uploader.printTag("abbrev", getAbbreviation());
-      outText += Uploader.printTag("author", getAuthor());
-      outText += Uploader.printTag("publication_info", getPubInfo());
-      outText += Uploader.printTag("call_number", getCallNum());
-      outText += Uploader.printTag("type", getType());
-      outText += Uploader.printTag("repository_name", getRepositoryName());
-      outText += Uploader.printTag("repository_addr", getRepAddr());
-      outText += "</mysource>\n";
+      outText.append(Uploader.printTag("title", getTitle()));
+      outText.append(Uploader.printTag("url", getUrl()));
+      outText.append(Uploader.printTag("abbrev", getAbbreviation()));
+      outText.append(Uploader.printTag("author", getAuthor()));
+      outText.append(Uploader.printTag("publication_info", getPubInfo()));
+      outText.append(Uploader.printTag("call_number", getCallNum()));
+      outText.append(Uploader.printTag("type", getType()));
+      outText.append(Uploader.printTag("repository_name", getRepositoryName()));
+      outText.append(Uploader.printTag("repository_addr", getRepAddr()));
+      outText.append("</mysource>\n");
       String bodyString = "";
       if (!Utils.isEmpty(getPeri()))
       {
@@ -394,14 +452,15 @@ public class Source extends EventContainer {
          bodyString = appendBreak(bodyString);
          bodyString += text;
       }
-      outText += Utils.replaceHTMLFormatting(bodyString);
+      outText.append(Utils.replaceHTMLFormatting(bodyString));
       //outText += "<show_sources_images_notes/>\n";
       if (xmlEncode)
       {
-         //outText = Utils.encodeXML(outText);
-         outText = encloseInCDATA(outText);
+         printInCDATA(out, outText);
+      } else
+      {
+         out.print(outText);
       }
-      out.print(outText);
       out.println("</content>");
       out.println("</page>");
    }
@@ -17,7 +17,7 @@ import java.util.ArrayList;
  */
 public class Tag {
    private String name = null;
-   private String content = "";
+   private ContentBuffer content = new ContentBuffer("");
    private String id = null;
    // Line number that the
    // tag started on.
@@ -68,7 +68,14 @@ public class Tag {
    }
 
    public void append(String contentToAppend) {
-      content += contentToAppend;
+      content.append(contentToAppend);
+   }
+
+   /**
+    * Appends characters straight from the parser's buffer
+    */
+   public void append(char[] ch, int start, int length) {
+      content.append(ch, start, length);
    }
 
    /**
@@ -77,7 +84,38 @@ public class Tag {
     * @param delim delimiter to use when appending
     */
    public void append(String contentToAppend, String delim) {
-      content = simpleAppend(content, contentToAppend, delim);
+      // Same as simpleAppend(content, contentToAppend, delim), without copying the content
+      if (!Utils.isEmpty(contentToAppend))
+      {
+         if (content.isBlank() || content.contains(contentToAppend))
+         {
+            content.set(contentToAppend);
+         } else
+         {
+            content.append(delim);
+            content.append(contentToAppend);
+         }
+      }
+   }
+
+   /**
+    * Appends the text after the delimiter unless the content already contains it,
+    * looking through the content once
+    * @param contentToAppend
+    * @param delim delimiter to use when appending
+    */
+   public void appendUnlessContained(String contentToAppend, String delim) {
+      if (!Utils.isEmpty(contentToAppend) && !content.contains(contentToAppend))
+      {
+         if (content.isBlank())
+         {
+            content.set(contentToAppend);
+         } else
+         {
+            content.append(delim);
+            content.append(contentToAppend);
+         }
+      }
    }
 
    // Helper function used to append the string
@@ -107,7 +145,7 @@ public class Tag {
     * @param delim delimiter
     */
    public void prepend(String contentToAppend, String delim) {
-      content = simpleAppend(contentToAppend, content, delim);
+      content.set(simpleAppend(contentToAppend, content.get(), delim));
    }
 
    /**
@@ -115,9 +153,27 @@ public class Tag {
     * @return content contained in the tag
     */
    public String getContent() {
-      return content;
+      return content.get();
    }
 
+   /**
+    *
+    * @return true if the content is empty or only whitespace
+    */
+   public boolean isContentEmpty() {
+      return content.isBlank();
+   }
+
+   /**
+    *
+    * @param c
+    * @return true if the content ends with c
+    */
+   public boolean contentEndsWith(char c) {
+      return content.endsWith(c);
+   }
+
+
    /**
     *
     * @param name
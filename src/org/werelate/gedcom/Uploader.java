@@ -94,6 +94,75 @@ public class Uploader {
       this.ignoreUnexpectedTags = ignoreUnexpectedTags;
    }
 
+   private boolean memoryMappedParsing = false;
+
+   /**
+    * @return whether GEDCOM files are parsed by mapping them into memory
+    */
+   public boolean isMemoryMappedParsing() {
+      return memoryMappedParsing;
+   }
+
+   public void setMemoryMappedParsing(boolean memoryMappedParsing) {
+      this.memoryMappedParsing = memoryMappedParsing;
+   }
+
+   private int parsingThreads = 1;
+
+   /**
+    * @return the number of threads that parse the records of a memory-mapped GEDCOM file;
+    * 1 parses them in order on the calling thread
+    */
+   public int getParsingThreads() {
+      return parsingThreads;
+   }
+
+   public void setParsingThreads(int parsingThreads) {
+      this.parsingThreads = parsingThreads;
+   }
+
+   private int livingThreads = 1;
+
+   /**
+    * @return the number of threads that determine whether people are living from their own data;
+    * 1 goes through the people in order on the calling thread
+    */
+   public int getLivingThreads() {
+      return livingThreads;
+   }
+
+   public void setLivingThreads(int livingThreads) {
+      this.livingThreads = livingThreads;
+   }
+
+   private int printingThreads = 1;
+
+   /**
+    * @return the number of threads that render the pages of the inprocess XML file;
+    * 1 prints them in order on the calling thread
+    */
+   public int getPrintingThreads() {
+      return printingThreads;
+   }
+
+   public void setPrintingThreads(int printingThreads) {
+      this.printingThreads = printingThreads;
+   }
+
+   private int contentThreads = 1;
+
+   /**
+    * @return the number of threads that update the content of the pages of the inprocess XML file
+    * before it is saved and before its pages are generated; 1 goes through the pages in order on the calling thread
+    */
+   public int getContentThreads() {
+      return contentThreads;
+   }
+
+   public void setContentThreads(int contentThreads) {
+      this.contentThreads = contentThreads;
+   }
+
    /**
     * GEDCOM is terminally rejected
     */
@@ -221,6 +290,11 @@ public class Uploader {
       // match attributes of the family elements
       minimumMatchScore = Float.parseFloat(properties.getProperty("match_threshold",  Float.toString(minimumMatchScore)));
       medievalMatchScore = Float.parseFloat(properties.getProperty("medieval_match_threshold", Float.toString(medievalMatchScore)));
+      memoryMappedParsing = Boolean.parseBoolean(properties.getProperty("memory_mapped_parsing", "false"));
+      parsingThreads = Integer.parseInt(properties.getProperty("parsing_threads", "1"));
+      livingThreads = Integer.parseInt(properties.getProperty("living_threads", "1"));
+      printingThreads = Integer.parseInt(properties.getProperty("printing_threads", "1"));
+      contentThreads = Integer.parseInt(properties.getProperty("content_threads", "1"));
    }
 
    // Connect to the wikidb
@@ -646,7 +720,7 @@ public class Uploader {
                   {
                      numPlaces += gedcom.getNumPlacesQueried();
                      logger.info("Setting isLiving");
-                     Person.setLiving(gedcom);
+                     Person.setLiving(gedcom, getLivingThreads());
                      logger.info("Done setting isLiving");
                      // don't do this anymore
                      //gedcom.propagatePrimaryPerson();
@@ -670,57 +744,73 @@ public class Uploader {
                      }
                      out.println(">");
                      out.print(placeXMLBuffer);
+                     logger.info("Matching sources");
+                     // When adding new sources to the source map
+                     // (when parsing the GEDCOM),
+                     // we check to see if there is another existing
+                     // source which already has the same contents as
+                     // the source we are about to add.
+                     // If there is such an existing source, then
+                     // we make the id we are about to add point to the
+                     // existing source.
+                     //
+                     // This has the consequence that when we iterate
+                     // through all of the sources in the source map
+                     // to print them out,
+                     // we need to make sure that the key (id number)
+                     // equals the value (Source)'s id number,
+                     // so that we only print out each unique source
+                     // once.
+                     List<Source> printedSources = new ArrayList<Source>();
+                     for (Map.Entry<String, Source> entry : gedcom.getSources().entrySet()) {
+                        Source source = entry.getValue();
+                        if (entry.getKey().equals(source.getID()) && source.shouldPrint(gedcom))
+                        {
+                           // set matching source page title
+                           matchSource(source);
+                           printedSources.add(source);
+                        }
+                     }
                      logger.info("Printing sources");
                      // Print out souces to the xml file
-                     for (Map.Entry entry : gedcom.getSources().entrySet()) {
-                        // When adding new sources to the source map
-                        // (when parsing the GEDCOM),
-                        // we check to see if there is another existing
-                        // source which already has the same contents as
-                        // the source we are about to add.
-                        // If there is such an existing source, then
-                        // we make the id we are about to add point to the
-                        // existing source.
-                        //
-                        // This has the consequence that when we iterate
-                        // through all of the sources in the source map
-                        // to print them out,
-                        // we need to make sure that the key (id number)
-                        // equals the value (Source)'s id number,
-                        // so that we only print out each unique source
-                        // once.
-                        Source source = (Source) entry.getValue();
-                        if (entry.getKey().equals(source.getID()))
-                        {
-                           try
-                           {
-                              if (source.shouldPrint(gedcom)) {
-                                 // set matching source page title
-                                 matchSource(source);
-                                 source.print(gedcom, out, isEncodeXML());
+                     final Gedcom printedGedcom = gedcom;
+                     PagePrinter printer = new PagePrinter(out, getPrintingThreads());
+                     for (final Source source : printedSources) {
+                        printer.add(new PagePrinter.Page() {
+                           public void print(PrintWriter out) throws Gedcom.PostProcessException {
+                              try
+                              {
+                                 source.print(printedGedcom, out, isEncodeXML());
+                              } catch (PrintException e)
+                              {
+                                 logger.warn(e);
                               }
-                           } catch (PrintException e)
-                           {
-                              logger.warn(e);
                            }
-                        }
+                        }, false);
                      }
+                     printer.finish();
 
                      logger.info("Printing people while auditing for problems");
                      // Print out all of the people to the xml file
-                     for(Person person : gedcom.getPeople().values())
+                     printer = new PagePrinter(out, getPrintingThreads());
+                     for(final Person person : gedcom.getPeople().values())
                      {
-                        try
-                        {
-                           person.findProblems();
-                           person.print(gedcom, out, isEncodeXML());
-                        } catch (PrintException e)
-                        {
-                           logger.warn(e);
-                        }
+                        printer.add(new PagePrinter.Page() {
+                           public void print(PrintWriter out) throws Gedcom.PostProcessException {
+                              try
+                              {
+                                 person.findProblems(printedGedcom);
+                                 person.print(printedGedcom, out, isEncodeXML());
+                              } catch (PrintException e)
+                              {
+                                 logger.warn(e);
+                              }
+                           }
+                        }, person.citesNotes());
                      }
+                     printer.finish();
                      // Print out all of the families to the xml file
-                     MultiMap<String, Family> familyNames2Families = new MultiMap<String, Family>();
+                     final MultiMap<String, Family> familyNames2Families = new MultiMap<String, Family>();
                      // Let's fill the multimap with the families:
                      logger.info("Finding possible matches for families");
                      for (Family fam : gedcom.getFamilies().values())
@@ -732,19 +822,27 @@ public class Uploader {
                         familyNames2Families.put(fam.getWikiTitle(gedcom), fam);
                      }
                      logger.info("Printing families while auditing for problems");
-                     for(Family fam : gedcom.getFamilies().values())
+                     printer = new PagePrinter(out, getPrintingThreads());
+                     for(final Family fam : gedcom.getFamilies().values())
                      {
-                        try
-                        {
-                           fam.findProblems(familyNames2Families, gedcom);
-                           fam.print(gedcom, out, isEncodeXML());
-                        } catch (PrintException e)
-                        {
-                           logger.warn(e);
-                        }
+                        printer.add(new PagePrinter.Page() {
+                           public void print(PrintWriter out) throws Gedcom.PostProcessException {
+                              try
+                              {
+                                 fam.findProblems(familyNames2Families, printedGedcom);
+                                 fam.print(printedGedcom, out, isEncodeXML());
+                              } catch (PrintException e)
+                              {
+                                 logger.warn(e);
+                              }
+                           }
+                        }, fam.citesNotes());
                      }
+                     printer.finish();
                      out.println("</gedcom>");
                      out.close();
+                     logger.info("Date cache: " + gedcom.getDates().getHits() + " hits, " +
+                           gedcom.getDates().getMisses() + " misses");
                      // If there are warnings, then we want to update the status
                      // of the GEDCOM and skip the page generation
                      if (gedcom.getNumWarnings() > 0)
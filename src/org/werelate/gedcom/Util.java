@@ -1,9 +1,11 @@
 package org.werelate.gedcom;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * User: dallan
@@ -278,7 +280,7 @@ public class Util {
       return buf.toString();
    }
 
-   private static final String[][] ABBREVS = {
+   static final String[][] ABBREVS = {
       {"Alabama", "AL"},
       {"Alaska", "AK"},
       {"Arizona", "AZ"},
@@ -336,37 +338,46 @@ public class Util {
            {""}
    };
 
-   static class PatternReplacement {
-      Pattern pattern;
-      String replacement;
-      PatternReplacement(Pattern pattern, String replacement) {
-         this.pattern = pattern;
-         this.replacement = replacement;
-      }
+   // Trie of the abbreviations, which are all ASCII
+   private static class AbbrevNode {
+      private final AbbrevNode[] next = new AbbrevNode[128];
+      // first of ABBREV_TEXTS that ends at this node, or -1
+      private int index = -1;
    }
-   private static final List<PatternReplacement> ABBREV_REPLACEMENTS = new ArrayList<PatternReplacement>();
+
+   // Abbreviations in the order they are expanded, and what they expand to
+   private static final List<String> ABBREV_TEXTS = new ArrayList<String>();
+   private static final List<String> ABBREV_EXPANSIONS = new ArrayList<String>();
+   private static final AbbrevNode ABBREV_TRIE = new AbbrevNode();
 
    static {
       for (String[] abbrev : ABBREVS) {
-         String replacement = abbrev[0];
          for (int j = 1; j < abbrev.length; j++) {
-            String p = "\\b"+abbrev[j].replace(".", "\\.");
-            if (!p.endsWith(".")) {
-               p += "\\b";
+            AbbrevNode node = ABBREV_TRIE;
+            for (int k = 0; k < abbrev[j].length(); k++) {
+               char c = abbrev[j].charAt(k);
+               if (node.next[c] == null) {
+                  node.next[c] = new AbbrevNode();
+               }
+               node = node.next[c];
             }
-            Pattern pattern = Pattern.compile(p);
-            ABBREV_REPLACEMENTS.add(new PatternReplacement(pattern, replacement));
+            // an abbreviation listed twice is always expanded by its first entry
+            if (node.index < 0) {
+               node.index = ABBREV_TEXTS.size();
+            }
+            ABBREV_TEXTS.add(abbrev[j]);
+            ABBREV_EXPANSIONS.add(abbrev[0]);
          }
       }
    }
 
-   private static final String[] CUT_WORDS = {
+   static final String[] CUT_WORDS = {
            "accessed",
            "http://search.ancestry.com/",
            "http://www.ancestry.com/search"
    };
 
-   private static final String[] STOP_WORDS = {
+   static final String[] STOP_WORDS = {
            "church of jesus christ of latter day saints", "familysearch", "ancestry com",
            "a", "an", "and", "are", "as", "at", "be", "by", "et al", "for", "from", "has", "he",
            "in", "is", "it", "its", "of", "on", "or", "that", "the", "to", "was", "were", "will", "with",
@@ -375,28 +386,34 @@ public class Util {
            "county", "township",
            "available", "ca", "database", "digital", "i0", "images", "inc", "online"   // ca=circa
    };
-   private static final Pattern STOP_WORDS_PATTERN;
+   // First word -> the words of each stop word phrase starting with it, in the order of STOP_WORDS
+   private static final HashMap<String,List<String[]>> STOP_PHRASES_BY_FIRST_WORD = new HashMap<String,List<String[]>>();
 
    static {
-      StringBuffer buf = new StringBuffer();
       for (String word : STOP_WORDS) {
-         if (buf.length() > 0) {
-            buf.append("|");
+         String[] words = word.split(" ");
+         List<String[]> phrases = STOP_PHRASES_BY_FIRST_WORD.get(words[0]);
+         if (phrases == null) {
+            phrases = new ArrayList<String[]>();
+            STOP_PHRASES_BY_FIRST_WORD.put(words[0], phrases);
          }
-         buf.append(word);
+         phrases.add(words);
       }
-      STOP_WORDS_PATTERN = Pattern.compile("\\b("+buf.toString()+")\\b");
    }
 
+   private static final String[] FIND_A_GRAVE = {"find", "a", "grave"};
+
+   /**
+    * Reduces the author, title or abbreviation of a source to the letters and digits that matter for matching
+    * @param s text to clean
+    * @return cleaned text, or an empty string if s is null
+    */
    public static String cleanGedcomSource(String s) {
       if (s == null) {
          return "";
       }
-
       // convert Abbrevs
-      for (PatternReplacement pr : ABBREV_REPLACEMENTS) {
-         s = pr.pattern.matcher(s).replaceAll(pr.replacement);
-      }
+      s = expandAbbrevs(s);
 
       // cut after cut-words
       for (String cut : CUT_WORDS) {
@@ -409,20 +426,183 @@ public class Util {
       // romanize
       s = romanize(s);
       // remove all single-letters except a A I
-      s = s.replaceAll("\\b[b-zB-HJ-Z]\\b", "");
+      StringBuilder buf = new StringBuilder(s.length());
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         if (!isSingleLetterToRemove(c) || !isBoundary(s, i) || !isBoundary(s, i+1)) {
+            buf.append(c);
+         }
+      }
       // lowercase
-      s = s.toLowerCase();
-      // remove 's convert all non-alpha-numeric to space; convert mutliple spaces to a single space
-      s = s.replaceAll("'", "").replaceAll("[^a-z0-9]", " ").replaceAll("\\s+", " ");
+      s = buf.toString().toLowerCase();
+
+      // remove 's and split into words of letters and digits
+      List<String> words = new ArrayList<String>();
+      buf.setLength(0);
+      for (int i = 0; i <= s.length(); i++) {
+         char c = (i < s.length() ? s.charAt(i) : ' ');
+         if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+            buf.append(c);
+         } else if (c != '\'') {
+            if (buf.length() > 0) {
+               words.add(buf.toString());
+               buf.setLength(0);
+            }
+         }
+      }
+
       // handle find a grave
-      s = s.replaceAll("\\bfind a grave\\b", "findagrave");
-      // remove stopwords
-      s = STOP_WORDS_PATTERN.matcher(s).replaceAll("");
-      // remove all spaces
-      s = s.replaceAll("\\s+", "");
+      for (int i = 0; i < words.size(); i++) {
+         if (startsWithWords(words, i, FIND_A_GRAVE)) {
+            words.set(i, "findagrave");
+            words.remove(i+1);
+            words.remove(i+1);
+         }
+      }
+
+      // remove stopwords and all spaces
+      buf.setLength(0);
+      for (int i = 0; i < words.size(); ) {
+         String[] stopPhrase = null;
+         List<String[]> phrases = STOP_PHRASES_BY_FIRST_WORD.get(words.get(i));
+         if (phrases != null) {
+            for (String[] phrase : phrases) {
+               if (startsWithWords(words, i, phrase)) {
+                  stopPhrase = phrase;
+                  break;
+               }
+            }
+         }
+         if (stopPhrase != null) {
+            i += stopPhrase.length;
+         } else {
+            buf.append(words.get(i++));
+         }
+      }
 
-      return s;
+      return buf.toString();
    }
 
+   // Whether there is a word boundary at pos, as \b sees it: letters, digits and _ are word characters,
+   // and so are non-spacing marks that follow one. (From Java 19 on, \b only counts ASCII letters and digits.)
+   private static boolean isBoundary(String s, int pos) {
+      boolean isWordBefore = (pos > 0 && isWordChar(s, pos-1, s.codePointBefore(pos)));
+      boolean isWordAfter = (pos < s.length() && isWordChar(s, pos, s.codePointAt(pos)));
+      return isWordBefore != isWordAfter;
+   }
 
+   // Whether ch, which is at or ends at i, is a word character
+   private static boolean isWordChar(String s, int i, int ch) {
+      if (ch < 128) {
+         return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+      }
+      if (Character.isLetterOrDigit(ch)) {
+         return true;
+      }
+      if (Character.getType(ch) != Character.NON_SPACING_MARK) {
+         return false;
+      }
+      // a mark counts if the first character before it that isn't a mark is a letter or digit
+      for (int j = i; j >= 0; j--) {
+         int c = s.codePointAt(j);
+         if (Character.isLetterOrDigit(c)) {
+            return true;
+         }
+         if (Character.getType(c) != Character.NON_SPACING_MARK) {
+            return false;
+         }
+      }
+      return false;
+   }
+
+   // [b-zB-HJ-Z]
+   private static boolean isSingleLetterToRemove(char c) {
+      return (c >= 'b' && c <= 'z') || (c >= 'B' && c <= 'H') || (c >= 'J' && c <= 'Z');
+   }
+
+   private static boolean startsWithWords(List<String> words, int pos, String[] phrase) {
+      if (pos + phrase.length > words.size()) {
+         return false;
+      }
+      for (int j = 0; j < phrase.length; j++) {
+         if (!phrase[j].equals(words.get(pos+j))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // Abbreviations found in the text are {index in ABBREV_TEXTS, start, end}
+   private static final Comparator<int[]> ABBREV_ORDER = new Comparator<int[]>() {
+      public int compare(int[] m1, int[] m2) {
+         return (m1[0] != m2[0] ? m1[0] - m2[0] : m1[1] - m2[1]);
+      }
+   };
+   private static final Comparator<int[]> ABBREV_POSITION_ORDER = new Comparator<int[]>() {
+      public int compare(int[] m1, int[] m2) {
+         return m1[1] - m2[1];
+      }
+   };
+
+   // Same as replacing \b<abbrev>\b (or \b<abbrev> for abbreviations ending in a period) with the expansion,
+   // for each abbreviation in turn, but looking through s only once.
+   // All the matches are found first and then taken in the order of the abbreviations, leaving out the ones
+   // that overlap a match already taken. Every abbreviation starts with a letter, and every expansion starts
+   // and ends with one, so the only other thing an expansion changes is the word boundary after an abbreviation
+   // that ends in a period: an abbreviation found right after it no longer matches once it has been expanded.
+   private static String expandAbbrevs(String s) {
+      List<int[]> matches = new ArrayList<int[]>();
+      for (int pos = 0; pos < s.length(); pos++) {
+         if (isBoundary(s, pos)) {
+            AbbrevNode node = ABBREV_TRIE;
+            for (int end = pos; end < s.length() && s.charAt(end) < 128 && (node = node.next[s.charAt(end)]) != null; ) {
+               end++;
+               if (node.index >= 0 && (s.charAt(end-1) == '.' || isBoundary(s, end))) {
+                  matches.add(new int[] {node.index, pos, end});
+               }
+            }
+         }
+      }
+      if (matches.isEmpty()) {
+         return s;
+      }
+      Collections.sort(matches, ABBREV_ORDER);
+
+      // the characters that are replaced, and the abbreviation ending in a period that ends at each position
+      boolean[] isReplaced = new boolean[s.length()];
+      int[] periodEndOf = new int[s.length() + 1];
+      Arrays.fill(periodEndOf, -1);
+      List<int[]> replaced = new ArrayList<int[]>();
+      for (int[] match : matches) {
+         int index = match[0];
+         int start = match[1];
+         int end = match[2];
+         // marks between the period and the match take the boundary away too, once they follow a letter;
+         // like \b, this looks back one char at a time, so it stops at a mark outside the basic multilingual plane
+         int before = start;
+         while (before > 0 && Character.getType(s.codePointAt(before-1)) == Character.NON_SPACING_MARK) {
+            before--;
+         }
+         boolean isSkipped = (periodEndOf[before] >= 0 && periodEndOf[before] < index);
+         for (int i = start; i < end && !isSkipped; i++) {
+            isSkipped = isReplaced[i];
+         }
+         if (!isSkipped) {
+            Arrays.fill(isReplaced, start, end, true);
+            if (s.charAt(end-1) == '.') {
+               periodEndOf[end] = index;
+            }
+            replaced.add(match);
+         }
+      }
+      Collections.sort(replaced, ABBREV_POSITION_ORDER);
+
+      StringBuilder buf = new StringBuilder(s.length() + 16 * replaced.size());
+      int pos = 0;
+      for (int[] match : replaced) {
+         buf.append(s, pos, match[1]).append(ABBREV_EXPANSIONS.get(match[0]));
+         pos = match[2];
+      }
+      return buf.append(s, pos, s.length()).toString();
+   }
 }
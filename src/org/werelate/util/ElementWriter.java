@@ -3,8 +3,9 @@ package org.werelate.util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Created by IntelliJ IDEA.
@@ -48,7 +49,11 @@ public abstract class ElementWriter {
     */
    public void clear() {
       text = null;
-      attributes.clear();
+      for (int i = 0; i < numAttributes; i++) {
+         attNames[i] = null;
+         attValues[i] = null;
+      }
+      numAttributes = 0;
    }
 
    /**
@@ -90,27 +95,29 @@ public abstract class ElementWriter {
          }
       }
    }
-   private class Attribute implements Comparable {
-      public String value;
-      public Attribute(String value)
-      {
-         this.value = value;
-      }
-      public int compareTo(Object o) {
-         return compareAtts(tagName, value, ((Attribute) o).value);
-      }
+   // Attribute names and values, kept sorted by compareAtts
+   private String[] attNames = new String[8];
+   private String[] attValues = new String[8];
+   private int numAttributes = 0;
 
-      public boolean equals(Object obj) {
-         return value.equals(((Attribute)obj).value);
+   // Returns the position of the attribute with the name key, or -(insertion point + 1) if there isn't one
+   private int findAttribute(String key) {
+      int low = 0;
+      int high = numAttributes - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         int cmp = compareAtts(tagName, key, attNames[mid]);
+         if (cmp > 0) {
+            low = mid + 1;
+         } else if (cmp < 0) {
+            high = mid - 1;
+         } else {
+            return mid;
+         }
       }
+      return -(low + 1);
    }
-   // Attribute name -> attribute value
-   private Map<Attribute, String> attributes = new TreeMap<Attribute, String>();
 
-   public Map <Attribute, String> getAttributes()
-   {
-      return attributes;
-   }
    /**
     * Designates an attribute key value pair to be printed
     * @param key attribute name
@@ -118,13 +125,38 @@ public abstract class ElementWriter {
     */
    public void put(String key, String value)
    {
-      if (attributes.containsKey(new Attribute(key)))
+      int pos = (numAttributes > 0 ? findAttribute(key) : -1);
+      if (pos >= 0)
       {
          logger.info("Duplicate attributes in tag: " + key);
       }
       if (key != null && !Utils.isEmpty(key) && value != null && !Utils.isEmpty(value))
       {
-         attributes.put(new Attribute(key), value);
+         if (pos >= 0)
+         {
+            attValues[pos] = value;
+            return;
+         }
+         if (numAttributes == 0)
+         {
+            // an attribute of an ordered element must be one of its known attributes
+            compareAtts(tagName, key, key);
+         }
+         pos = -(pos + 1);
+         if (numAttributes == attNames.length)
+         {
+            String[] names = new String[numAttributes * 2];
+            String[] values = new String[numAttributes * 2];
+            System.arraycopy(attNames, 0, names, 0, numAttributes);
+            System.arraycopy(attValues, 0, values, 0, numAttributes);
+            attNames = names;
+            attValues = values;
+         }
+         System.arraycopy(attNames, pos, attNames, pos + 1, numAttributes - pos);
+         System.arraycopy(attValues, pos, attValues, pos + 1, numAttributes - pos);
+         attNames[pos] = key;
+         attValues[pos] = value;
+         numAttributes++;
       }
    }
 
@@ -133,28 +165,62 @@ public abstract class ElementWriter {
     * @param buf to print the tag to.
     */
    public void write (StringBuffer buf) {
-      buf.append("<");
-      buf.append(tagName);
+      try
+      {
+         write((Appendable) buf);
+      } catch (IOException e)
+      {
+         // StringBuffer doesn't throw
+         throw new ElementWriterException(e.getMessage());
+      }
+   }
 
-      for (Map.Entry entry : attributes.entrySet())
+   /**
+    *
+    * @param out to print the tag to. PrintWriter reports errors through checkError.
+    */
+   public void write (PrintWriter out) {
+      try
+      {
+         write((Appendable) out);
+      } catch (IOException e)
       {
-         buf.append(testAndPrintAtt(((Attribute)entry.getKey()).value, (String) entry.getValue()));
+         // PrintWriter doesn't throw
+         throw new ElementWriterException(e.getMessage());
+      }
+   }
+
+   /**
+    * Prints the tag, escaping the attribute values and text as they are written
+    * @param out to print the tag to.
+    */
+   public void write (Appendable out) throws IOException {
+      out.append('<');
+      out.append(tagName);
+
+      for (int i = 0; i < numAttributes; i++)
+      {
+         out.append(' ');
+         Utils.encodeXML(attNames[i], out);
+         out.append("=\"");
+         appendAttributeValue(out, attValues[i]);
+         out.append('"');
       }
       if (Utils.isEmpty(text) && Utils.isEmpty(subXML))
       {
-         buf.append("/>\n");
+         out.append("/>\n");
       } else
       {
-         buf.append(">");
+         out.append('>');
          if (!Utils.isEmpty(subXML))
          {
-            buf.append('\n').append(subXML);
+            out.append('\n').append(subXML);
          }
          if (!Utils.isEmpty(text))
          {
-            buf.append(Utils.encodeXML(text));
+            Utils.encodeXML(text, out);
          }
-         buf.append("</").append(tagName).append(">\n");
+         out.append("</").append(tagName).append(">\n");
       }
    }
 
@@ -169,21 +235,45 @@ public abstract class ElementWriter {
       return buf.toString();
    }
 
-   // Tests to see if the value is empty. If it is not, then it prints
-   // out the attribute, otherwise, it returns an empty string
-   private static String testAndPrintAtt(String key, String value) {
-      if (!Utils.isEmpty(value))
-      {
-         return printAtt(key, Utils.replaceHTMLFormatting(value.replaceAll("\n", " ")));
-      } else
+   /**
+    * Appends Utils.encodeXML(value) to out, after putting the value on one line
+    * and replacing its HTML formatting, all in the same pass.
+    */
+   private static void appendAttributeValue(Appendable out, String value) throws IOException
+   {
+      int len = value.length();
+      int start = 0;
+      for (int i = 0; i < len; i++)
       {
-         return "";
+         char c = value.charAt(i);
+         String replacement = Utils.getXMLEntity(c);
+         int skip = 0;
+         if (c == '\n')
+         {
+            replacement = " ";
+         } else if (c == '«')
+         {
+            if (value.startsWith("«b»", i))
+            {
+               replacement = "&apos;&apos;&apos;";
+               skip = 2;
+            } else if (value.startsWith("«/b»", i))
+            {
+               replacement = "&apos;&apos;&apos;";
+               skip = 3;
+            } else if (value.startsWith("«tab»", i))
+            {
+               replacement = "    ";
+               skip = 4;
+            }
+         }
+         if (replacement != null)
+         {
+            out.append(value, start, i).append(replacement);
+            i += skip;
+            start = i + 1;
+         }
       }
-   }
-
-   // Prints out the key value pair as an XML key value pair.
-   private static String printAtt(String name, String value)
-   {
-      return ' ' + Utils.encodeXML(name) + "=\"" + Utils.encodeXML(value) + '\"';
+      out.append(value, start, len);
    }
 }
@@ -0,0 +1,237 @@
+package org.werelate.util;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import java.io.IOException;
+
+/**
+ * Writes DOM nodes as XML the way the JDK identity Transformer does with its default output properties,
+ * but without a Transformer per call: attributes in the order the DOM keeps them, childless elements as
+ * &lt;name/&gt;, and the same escaping of text, attribute values, CDATA sections and comments.
+ * Nothing is indented, and the XML declaration is left to the caller.
+ */
+public class NodeWriter {
+   public static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+   private static final String CDATA_START = "<![CDATA[";
+   private static final String CDATA_END = "]]>";
+   // what the Transformer writes for ]]> inside a CDATA section
+   private static final String CDATA_CONTINUE = "]]]]><![CDATA[>";
+
+   private NodeWriter() {
+   }
+
+   /**
+    * Writes the node and everything under it
+    * @param node element, text, CDATA section, comment, processing instruction or document
+    * @param out to write to
+    */
+   public static void write(Node node, Appendable out) throws IOException {
+      switch (node.getNodeType()) {
+         case Node.ELEMENT_NODE:
+            writeElement((Element) node, out);
+            break;
+         case Node.TEXT_NODE:
+            writeText(node.getNodeValue(), out);
+            break;
+         case Node.CDATA_SECTION_NODE:
+            writeCDATA(node.getNodeValue(), out);
+            break;
+         case Node.COMMENT_NODE:
+            writeComment(node.getNodeValue(), out);
+            break;
+         case Node.PROCESSING_INSTRUCTION_NODE:
+            ProcessingInstruction pi = (ProcessingInstruction) node;
+            out.append("<?").append(pi.getTarget());
+            String data = pi.getData();
+            if (data != null && data.length() > 0) {
+               // no space is added before data that starts with one
+               if (!Character.isSpaceChar(data.charAt(0))) {
+                  out.append(' ');
+               }
+               out.append(data);
+            }
+            out.append("?>");
+            break;
+         case Node.DOCUMENT_NODE:
+         case Node.DOCUMENT_FRAGMENT_NODE:
+         case Node.ENTITY_REFERENCE_NODE:
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+               write(child, out);
+            }
+            break;
+         default:
+            // document types are not written
+            break;
+      }
+   }
+
+   private static void writeElement(Element element, Appendable out) throws IOException {
+      String tagName = element.getTagName();
+      out.append('<').append(tagName);
+      NamedNodeMap atts = element.getAttributes();
+      for (int i = 0; i < atts.getLength(); i++) {
+         Node att = atts.item(i);
+         out.append(' ').append(att.getNodeName()).append("=\"");
+         writeAttributeValue(att.getNodeValue(), out);
+         out.append('"');
+      }
+      boolean isEmpty = true;
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+         if (isEmpty && !isEmptyText(child)) {
+            out.append('>');
+            isEmpty = false;
+         }
+         write(child, out);
+      }
+      if (isEmpty) {
+         out.append("/>");
+      } else {
+         out.append("</").append(tagName).append('>');
+      }
+   }
+
+   // empty text and CDATA sections write nothing, and don't keep an element from being closed as empty
+   private static boolean isEmptyText(Node node) {
+      short type = node.getNodeType();
+      return (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) && node.getNodeValue().length() == 0;
+   }
+
+   private static boolean isSurrogate(char c) {
+      return c >= '\uD800' && c <= '\uDFFF';
+   }
+
+   // Writes the character reference for text[i], or for the surrogate pair starting there; returns the index of its last char
+   private static int writeCharRef(String text, int i, Appendable out) throws IOException {
+      int c = text.charAt(i);
+      if (Character.isHighSurrogate(text.charAt(i)) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+         c = text.codePointAt(i);
+         i++;
+      }
+      out.append("&#").append(Integer.toString(c)).append(';');
+      return i;
+   }
+
+   /**
+    * Escapes &amp; &lt; and &gt;, and writes control characters, C1 characters and characters outside the
+    * basic multilingual plane as character references
+    */
+   public static void writeText(String text, Appendable out) throws IOException {
+      int start = 0;
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         if (c >= ' ' && c < '\u007F' && c != '&' && c != '<' && c != '>' ||
+             c > '\u009F' && !isSurrogate(c) || c == '\t' || c == '\n') {
+            continue;
+         }
+         out.append(text, start, i);
+         if (c == '&') {
+            out.append("&amp;");
+         } else if (c == '<') {
+            out.append("&lt;");
+         } else if (c == '>') {
+            out.append("&gt;");
+         } else {
+            i = writeCharRef(text, i, out);
+         }
+         start = i + 1;
+      }
+      out.append(text, start, text.length());
+   }
+
+   /**
+    * Escapes &amp; &lt; &gt; and &quot;, and writes control characters (including tabs and newlines) and
+    * characters outside the basic multilingual plane as character references
+    */
+   public static void writeAttributeValue(String value, Appendable out) throws IOException {
+      int start = 0;
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c >= ' ' && c != '&' && c != '<' && c != '>' && c != '"' && !isSurrogate(c)) {
+            continue;
+         }
+         out.append(value, start, i);
+         if (c == '&') {
+            out.append("&amp;");
+         } else if (c == '<') {
+            out.append("&lt;");
+         } else if (c == '>') {
+            out.append("&gt;");
+         } else if (c == '"') {
+            out.append("&quot;");
+         } else {
+            i = writeCharRef(value, i, out);
+         }
+         start = i + 1;
+      }
+      out.append(value, start, value.length());
+   }
+
+   private static boolean isCDATAChar(char c) {
+      return c >= ' ' || c == '\t' || c == '\n' || c == '\r';
+   }
+
+   /**
+    * Writes the text as a CDATA section, splitting it around ]]&gt; and writing the control characters
+    * that can't appear in XML 1.0 as character references between sections, as the Transformer does.
+    * Like the Transformer, it writes newlines and surrogates as they are without reopening a section for them.
+    */
+   public static void writeCDATA(String text, Appendable out) throws IOException {
+      int len = text.length();
+      if (len == 0) {
+         return;
+      }
+      boolean isOpen = isCDATAChar(text.charAt(0)) && !isSurrogate(text.charAt(0));
+      if (isOpen) {
+         out.append(CDATA_START);
+      }
+      int start = 0;
+      for (int i = 0; i < len; i++) {
+         char c = text.charAt(i);
+         if (!isCDATAChar(c)) {
+            out.append(text, start, i);
+            if (isOpen) {
+               out.append(CDATA_END);
+               isOpen = false;
+            }
+            out.append("&#").append(Integer.toString(c)).append(';');
+            start = i + 1;
+         } else if (c == ']' && i + 2 < len && text.charAt(i + 1) == ']' && text.charAt(i + 2) == '>') {
+            // the Transformer doesn't reopen the section it continues here if a control character closed it
+            out.append(text, start, i).append(CDATA_CONTINUE);
+            i += 2;
+            start = i + 1;
+         } else if (!isOpen && c != '\n' && !isSurrogate(c)) {
+            out.append(text, start, i).append(CDATA_START);
+            isOpen = true;
+            start = i;
+         }
+      }
+      out.append(text, start, len);
+      if (isOpen) {
+         out.append(CDATA_END);
+      }
+   }
+
+   /**
+    * Writes the comment, putting a space between consecutive dashes and after a trailing dash
+    */
+   public static void writeComment(String text, Appendable out) throws IOException {
+      out.append("<!--");
+      int start = 0;
+      for (int i = 1; i < text.length(); i++) {
+         if (text.charAt(i) == '-' && text.charAt(i - 1) == '-') {
+            out.append(text, start, i).append(" -");
+            start = i + 1;
+         }
+      }
+      out.append(text, start, text.length());
+      if (text.endsWith("-")) {
+         out.append(' ');
+      }
+      out.append("-->");
+   }
+}
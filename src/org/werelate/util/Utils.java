@@ -36,13 +36,6 @@ public class Utils {
    /** Suffix for wiki page titles */
    public static final String WIKI_TITLE_SUFFIX = " - Genealogy";
 
-   private static final String [][] XML_CHARS = {
-      {"&", "&amp;"},
-      {"<", "&lt;"},
-      {">", "&gt;"},
-      {"\"", "&quot;"},
-      {"'", "&apos;"},
-   };
    private static final Pattern CANONICALIZE_PATTERN = Pattern.compile("^(.{3,5}://)?(www\\d*\\.)?" + "(.*?)" +
            "(/((index|default|(main([_-]?(page|frame))?))([_-]?e(n(g(lish)?)?)?)?(\\.(aspx?|[jps]?html?|jsp|cfm|tcl|cgi|php[345]?))?)?)?" + "(#.*)?$");
 //   public static final Pattern pCOUNTY_WORDS = Pattern.compile(
@@ -339,20 +332,113 @@ public class Utils {
       }
       return buf.toString();
    }
+   // Returns the entity that replaces c in XML text, or null if c can be written as it is
+   static String getXMLEntity(char c) {
+      switch (c) {
+         case '&': return "&amp;";
+         case '<': return "&lt;";
+         case '>': return "&gt;";
+         case '"': return "&quot;";
+         case '\'': return "&apos;";
+         default: return null;
+      }
+   }
+
+   /**
+    * Escapes &amp; &lt; &gt; &quot; and &apos; in a single scan
+    * @return text itself if nothing needs escaping
+    */
    public static String encodeXML(String text) {
-      for (int i=0; i < XML_CHARS.length; i++) {
-         text = text.replace(XML_CHARS[i][0], XML_CHARS[i][1]);
+      int len = text.length();
+      int i = 0;
+      // all of the escaped characters are <= '>'
+      while (i < len && (text.charAt(i) > '>' || getXMLEntity(text.charAt(i)) == null)) {
+         i++;
       }
-      return text;
+      if (i == len) {
+         return text;
+      }
+      StringBuilder buf = new StringBuilder(len + 16);
+      buf.append(text, 0, i);
+      for (; i < len; i++) {
+         char c = text.charAt(i);
+         String entity = (c > '>' ? null : getXMLEntity(c));
+         if (entity == null) {
+            buf.append(c);
+         } else {
+            buf.append(entity);
+         }
+      }
+      return buf.toString();
    }
 
+   /**
+    * Appends text to out, escaping &amp; &lt; &gt; &quot; and &apos; as it goes
+    */
+   public static void encodeXML(String text, Appendable out) throws IOException {
+      int start = 0;
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         String entity = (c > '>' ? null : getXMLEntity(c));
+         if (entity != null) {
+            out.append(text, start, i).append(entity);
+            start = i + 1;
+         }
+      }
+      out.append(text, start, text.length());
+   }
+
+   private static final String[] XML_ENTITIES = {"&amp;", "&lt;", "&gt;", "&quot;", "&apos;"};
+   private static final char[] XML_ENTITY_CHARS = {'&', '<', '>', '"', '\''};
+
+   // Returns the index in XML_ENTITIES of the entity at text[i], or -1 if there isn't one
+   private static int findXMLEntity(String text, int i) {
+      for (int e = 0; e < XML_ENTITIES.length; e++) {
+         if (text.startsWith(XML_ENTITIES[e], i)) {
+            return e;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Replaces the entities written by encodeXML with their characters in a single scan
+    * @return text itself if it has no entities
+    */
    public static String unencodeXML(String text) {
-      for (int i=XML_CHARS.length-1; i >= 0; i--) {
-         text = text.replace(XML_CHARS[i][1], XML_CHARS[i][0]);
+      for (int i = text.indexOf('&'); i >= 0; i = text.indexOf('&', i + 1)) {
+         if (findXMLEntity(text, i) >= 0) {
+            StringBuilder buf = new StringBuilder(text.length());
+            try {
+               unencodeXML(text, buf);
+            } catch (IOException e) {
+               // StringBuilder doesn't throw
+               throw new RuntimeException(e);
+            }
+            return buf.toString();
+         }
       }
       return text;
    }
 
+   /**
+    * Appends text to out, replacing the entities written by encodeXML with their characters as it goes
+    */
+   public static void unencodeXML(String text, Appendable out) throws IOException {
+      int start = 0;
+      for (int i = text.indexOf('&'); i >= 0; i = text.indexOf('&', i)) {
+         int e = findXMLEntity(text, i);
+         if (e >= 0) {
+            out.append(text, start, i).append(XML_ENTITY_CHARS[e]);
+            i += XML_ENTITIES[e].length();
+            start = i;
+         } else {
+            i++;
+         }
+      }
+      out.append(text, start, text.length());
+   }
+
    /**
     * One entry for each US state.  The first element of each entry is the full state name, the second element is the
     * two-letter abbreviation, the following elements (if any) are alternate abbreviations.
@@ -443,41 +529,109 @@ public class Utils {
     * Convert a string into a form that can be used for a wiki title
     */
    public static String prepareWikiTitle(String title, int maxTitleLen) {
-      try {
+      if (title.indexOf('%') >= 0) {
+         // only % escapes need decoding; + becomes a space below anyway
          try {
             title = URLDecoder.decode(title, "UTF-8");
          }
          catch (IllegalArgumentException e) {
             // ignore
          }
-         title = title.replace("http://", "").replace("https://", "").replaceAll("</?(i|b|u|strong|em)>", "").
-                 replace('<','(').replace('[','(').replace('{','(').replace('>',')').replace(']',')').replace('}', ')').
-                       replaceAll("[#?+_|=&%]", " ").replaceAll("\\s+", " ").replaceAll("//+", "/").trim();
-         while (title.length() > 0 && (title.charAt(0) == '.' || title.charAt(0) == '/')) {
-            title = title.substring(1);
-         }
-         if (title.length() > maxTitleLen) {
-            title = title.substring(0, maxTitleLen);
-         }
-         StringBuffer dest = new StringBuffer();
-         for (int i = 0; i < title.length(); i++) {
-            char c = title.charAt(i);
-            // omit control characters, unicode unknown character
-            if ((int)c >= 32 && c != 0xFFFD &&
-               !(c == 0x007F) &&
-               // omit Hebrew characters (right-to-left)
-               !(c >= 0x0590 && c <= 0x05FF) && !(c >= 0xFB00 && c <= 0xFB4F) &&
-               // omit Arabic characters (right-to-left)
-               !(c >= 0x0600 && c <= 0x06FF) && !(c >= 0x0750 && c <= 0x077F) && !(c >= 0xFB50 && c <= 0xFC3F) && !(c >= 0xFE70 && c <= 0xFEFF)
-            ) {
-               dest.append(c);
+         catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Unsupported encoding: UTF-8");
+         }
+      }
+      title = title.replace("http://", "").replace("https://", "");
+
+      // In one pass: remove formatting tags, replace brackets with parentheses and URL punctuation with spaces,
+      // and collapse runs of whitespace and of slashes
+      StringBuilder buf = new StringBuilder(title.length());
+      char last = 0;
+      for (int i = 0; i < title.length(); i++) {
+         char c = title.charAt(i);
+         if (c == '<') {
+            int tagEnd = getFormattingTagEnd(title, i);
+            if (tagEnd > 0) {
+               i = tagEnd - 1;
+               continue;
             }
          }
-         title = dest.toString();
-         return uppercaseFirstLetter(title);
-      } catch (UnsupportedEncodingException e) {
-         throw new RuntimeException("Unsupported encoding: UTF-8");
+         switch (c) {
+            case '<': case '[': case '{':
+               c = '(';
+               break;
+            case '>': case ']': case '}':
+               c = ')';
+               break;
+            case '#': case '?': case '+': case '_': case '|': case '=': case '&': case '%':
+               c = ' ';
+               break;
+         }
+         if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+            if (last == ' ') {
+               continue;
+            }
+            c = ' ';
+         }
+         else if (c == '/' && last == '/') {
+            continue;
+         }
+         buf.append(c);
+         last = c;
+      }
+
+      // trim, then remove leading dots and slashes
+      int start = 0;
+      int end = buf.length();
+      while (start < end && buf.charAt(start) <= ' ') {
+         start++;
+      }
+      while (end > start && buf.charAt(end-1) <= ' ') {
+         end--;
+      }
+      while (start < end && (buf.charAt(start) == '.' || buf.charAt(start) == '/')) {
+         start++;
       }
+      if (end - start > maxTitleLen) {
+         end = start + maxTitleLen;
+      }
+
+      StringBuilder dest = new StringBuilder(end - start);
+      for (int i = start; i < end; i++) {
+         char c = buf.charAt(i);
+         // omit control characters, unicode unknown character
+         if ((int)c >= 32 && c != 0xFFFD &&
+            !(c == 0x007F) &&
+            // omit Hebrew characters (right-to-left)
+            !(c >= 0x0590 && c <= 0x05FF) && !(c >= 0xFB00 && c <= 0xFB4F) &&
+            // omit Arabic characters (right-to-left)
+            !(c >= 0x0600 && c <= 0x06FF) && !(c >= 0x0750 && c <= 0x077F) && !(c >= 0xFB50 && c <= 0xFC3F) && !(c >= 0xFE70 && c <= 0xFEFF)
+         ) {
+            dest.append(c);
+         }
+      }
+      if (dest.length() > 0 && Character.isLowerCase(dest.charAt(0))) {
+         // same as uppercaseFirstLetter
+         String first = dest.substring(0, 1).toUpperCase();
+         dest.replace(0, 1, first);
+      }
+      return dest.toString();
+   }
+
+   private static final String[] FORMATTING_TAGS = {"i", "b", "u", "strong", "em"};
+
+   // If an <i>, <b>, <u>, <strong> or <em> tag or its end tag starts at pos, returns the position after it; else returns 0
+   private static int getFormattingTagEnd(String title, int pos) {
+      pos++;
+      if (pos < title.length() && title.charAt(pos) == '/') {
+         pos++;
+      }
+      for (String tag : FORMATTING_TAGS) {
+         if (title.startsWith(tag, pos) && title.startsWith(">", pos + tag.length())) {
+            return pos + tag.length() + 1;
+         }
+      }
+      return 0;
    }
 
    /**
@@ -772,6 +926,10 @@ public class Utils {
 
    public static String replaceHTMLFormatting(String bodyString)
    {
+      if (bodyString.indexOf('«') < 0)
+      {
+         return bodyString;
+      }
       return bodyString.replaceAll("«/?b»", "'''").replaceAll("«tab»", "    ");
    }
 
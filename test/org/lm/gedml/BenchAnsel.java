@@ -0,0 +1,81 @@
+package org.lm.gedml;
+
+import org.werelate.util.Benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Writer;
+
+/**
+ * Compares the block ANSEL reader and writer with the original one-character-at-a-time versions
+ */
+public class BenchAnsel {
+   private static final String[] LINES = {
+         "0 @I123@ INDI",
+         "1 NAME José /Müller/",
+         "1 BIRT",
+         "2 DATE ABT 1850",
+         "2 PLAC Łódź, Poland",
+         "1 NOTE This is the first line of a long note about the family",
+         "2 CONC  and its continuation which goes on for a while longer",
+         "1 FAMS @F45@",
+   };
+
+   public static void main(String[] args) throws Exception {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Writer writer = new AnselOutputStreamWriter(out);
+      for (int i = 0; i < 20000; i++) {
+         for (int j = 0; j < LINES.length; j++) {
+            writer.write(LINES[j]);
+            writer.write("\r\n");
+         }
+      }
+      writer.close();
+      final byte[] bytes = out.toByteArray();
+      final char[] cbuf = new char[8192];
+
+      Benchmark.time("PerByteAnselInputStreamReader", 1, new Benchmark.Task() {
+         public Object run() throws Exception {
+            PerByteAnselInputStreamReader reader = new PerByteAnselInputStreamReader(new ByteArrayInputStream(bytes));
+            int count = 0;
+            int n;
+            while ((n = reader.read(cbuf, 0, cbuf.length)) > 0) {
+               count += n;
+            }
+            return Integer.valueOf(count);
+         }
+      });
+      Benchmark.time("AnselInputStreamReader", 1, new Benchmark.Task() {
+         public Object run() throws Exception {
+            AnselInputStreamReader reader = new AnselInputStreamReader(new ByteArrayInputStream(bytes));
+            int count = 0;
+            int n;
+            while ((n = reader.read(cbuf, 0, cbuf.length)) > 0) {
+               count += n;
+            }
+            return Integer.valueOf(count);
+         }
+      });
+
+      final String text = new String(bytes, new AnselCharset());
+      Benchmark.time("per-character ANSEL writer", 1, new Benchmark.Task() {
+         public Object run() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            for (int i = 0; i < text.length(); i++) {
+               PerByteAnselInputStreamReader.write(out, text.charAt(i));
+            }
+            return Integer.valueOf(out.size());
+         }
+      });
+      Benchmark.time("AnselOutputStreamWriter", 1, new Benchmark.Task() {
+         public Object run() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+            Writer writer = new AnselOutputStreamWriter(out);
+            writer.write(text);
+            writer.close();
+            return Integer.valueOf(out.size());
+         }
+      });
+      System.out.println("(each operation converts " + bytes.length + " bytes)");
+   }
+}
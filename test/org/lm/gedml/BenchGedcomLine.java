@@ -0,0 +1,66 @@
+package org.lm.gedml;
+
+import org.werelate.util.Benchmark;
+
+import java.io.StringReader;
+
+/**
+ * Compares the GedcomLine scanner with the original regular expression on typical lines
+ */
+public class BenchGedcomLine {
+   private static final String[] LINES = {
+         "0 @I123@ INDI",
+         "1 NAME John Henry /Doe/",
+         "1 BIRT",
+         "2 DATE ABT 1850",
+         "2 PLAC Springfield, Sangamon, Illinois, USA",
+         "1 FAMS @F45@",
+         "1 NOTE This is the first line of a long note about the family",
+         "2 CONC  and its continuation which goes on for a while longer",
+         "2 SOUR @S9@",
+         "3 PAGE p. 123",
+   };
+
+   public static void main(String[] args) throws Exception {
+      StringBuffer buf = new StringBuffer();
+      for (int i = 0; i < 1000; i++) {
+         for (int j = 0; j < LINES.length; j++) {
+            buf.append(LINES[j]).append("\r\n");
+         }
+      }
+      final String text = buf.toString();
+      final int lines = 1000 * LINES.length;
+
+      Benchmark.time("RegexGedcomLine", 5, new Benchmark.Task() {
+         public Object run() throws Exception {
+            java.io.BufferedReader reader = new java.io.BufferedReader(new StringReader(text));
+            int count = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+               StringBuffer filtered = new StringBuffer();
+               for (int i = 0; i < line.length(); i++) {
+                  char c = line.charAt(i);
+                  if (c >= 32 || c == 13 || c == 10 || c == 9) filtered.append(c);
+               }
+               RegexGedcomLine gl = new RegexGedcomLine(filtered.toString());
+               count += gl.getTag().length() + (gl.getID() == null ? 0 : 1) +
+                     (gl.getRemainder() == null ? 0 : gl.getRemainder().toCharArray().length);
+            }
+            return Integer.valueOf(count);
+         }
+      });
+      Benchmark.time("GedcomLine", 5, new Benchmark.Task() {
+         public Object run() throws Exception {
+            GedcomLine gl = new GedcomLine(new StringReader(text));
+            int count = 0;
+            while (gl.readLine()) {
+               gl.parse();
+               char[] valu = gl.getRemainderChars();
+               count += gl.getTag().length() + (gl.getID() == null ? 0 : 1) + (valu == null ? 0 : valu.length);
+            }
+            return Integer.valueOf(count);
+         }
+      });
+      System.out.println("(each operation parses " + lines + " lines)");
+   }
+}
@@ -0,0 +1,68 @@
+package org.lm.gedml;
+
+import org.werelate.util.Benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Compares reading and tokenizing a large GEDCOM file through the BufferedReader
+ * with reading it from a memory-mapped buffer
+ */
+public class BenchMappedLines {
+   private static final String[] LINES = {
+         "0 @I%d@ INDI",
+         "1 NAME José Henry /Müller/",
+         "1 BIRT",
+         "2 DATE ABT 1850",
+         "2 PLAC Springfield, Sangamon, Illinois, USA",
+         "1 FAMS @F%d@",
+         "1 NOTE This is the first line of a long note about the family",
+         "2 CONC  and its continuation which goes on for a while longer",
+   };
+
+   private static int count(GedcomLine gl) throws Exception {
+      int count = 0;
+      while (gl.readLine()) {
+         gl.parse();
+         char[] valu = gl.getRemainderChars();
+         count += gl.getTag().length() + (valu == null ? 0 : valu.length);
+      }
+      gl.close();
+      return count;
+   }
+
+   public static void main(String[] args) throws Exception {
+      String[] encodings = {"UTF-8", "ANSEL"};
+      for (int e = 0; e < encodings.length; e++) {
+         File file = File.createTempFile("bench", ".ged");
+         file.deleteOnExit();
+         OutputStream out = new FileOutputStream(file);
+         java.io.Writer writer = (encodings[e].equals("ANSEL") ? new AnselOutputStreamWriter(out) :
+               new java.io.OutputStreamWriter(out, encodings[e]));
+         writer.write("0 HEAD\r\n1 CHAR " + encodings[e] + "\r\n");
+         for (int i = 0; i < 100000; i++) {
+            for (int j = 0; j < LINES.length; j++) {
+               writer.write(String.format(LINES[j], Integer.valueOf(i)));
+               writer.write("\r\n");
+            }
+         }
+         writer.write("0 TRLR\r\n");
+         writer.close();
+         final String systemId = "file://" + file.getAbsolutePath();
+
+         Benchmark.time(encodings[e] + " BufferedReader", 1, new Benchmark.Task() {
+            public Object run() throws Exception {
+               return Integer.valueOf(count(new GedcomLine(GedcomParser.getBufferedReader(systemId))));
+            }
+         });
+         Benchmark.time(encodings[e] + " memory-mapped", 1, new Benchmark.Task() {
+            public Object run() throws Exception {
+               return Integer.valueOf(count(GedcomParser.getMappedLines(systemId)));
+            }
+         });
+         System.out.println("(each operation reads " + file.length() + " bytes)");
+      }
+   }
+}
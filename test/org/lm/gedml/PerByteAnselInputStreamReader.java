@@ -0,0 +1,61 @@
+package org.lm.gedml;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The original one-byte-at-a-time ANSEL decoder, kept as the reference for TestAnselCharset and BenchAnsel
+ */
+public class PerByteAnselInputStreamReader {
+   private InputStream input;
+   private int pending;
+
+   public PerByteAnselInputStreamReader(InputStream in) throws IOException {
+      input = in;
+      pending = input.read();
+   }
+
+   public int read() throws IOException {
+      int b = pending;
+      if (b < 0) return b;
+      pending = input.read();
+      if (b < 128) return b;
+
+      if (pending > 0 && b >= 0xE0 && b <= 0xFF) {
+         int u = AnselInputStreamReader.convert2(b * 256 + pending);
+         if (u > 0) {
+            pending = input.read();
+            return u;
+         }
+      }
+      return AnselInputStreamReader.convert1(b);
+   }
+
+   public int read(char cbuf[], int off, int len) throws IOException {
+      if (pending < 0) return -1;
+      for (int i = off; i < off + len; i++) {
+         int c = read();
+         if (c < 0) {
+            return i - off;
+         }
+         cbuf[i] = (char)c;
+      }
+      return len;
+   }
+
+   /**
+    * Encodes one character the way AnselOutputStreamWriter originally did
+    */
+   public static void write(java.io.OutputStream output, int c) throws IOException {
+      if (c < 128) output.write(c);
+      else {
+         int ansel = AnselOutputStreamWriter.convert(c);
+         if (ansel < 256) {
+            output.write(ansel);
+         } else {
+            output.write(ansel / 256);
+            output.write(ansel % 256);
+         }
+      }
+   }
+}
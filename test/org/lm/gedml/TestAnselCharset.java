@@ -0,0 +1,131 @@
+package org.lm.gedml;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Checks the block decoder and encoder against the original one-character-at-a-time conversions
+ */
+public class TestAnselCharset extends TestCase {
+   // Returns at most one byte per read, so every diacritic lands on a block boundary
+   private static class TrickleInputStream extends FilterInputStream {
+      TrickleInputStream(InputStream in) {
+         super(in);
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException {
+         return super.read(b, off, Math.min(len, 1));
+      }
+   }
+
+   private static byte[] randomAnsel(Random random, int length) {
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+         int r = random.nextInt(10);
+         if (r < 5) {
+            bytes[i] = (byte)(' ' + random.nextInt(95));
+         } else if (r < 8) {
+            bytes[i] = (byte)(0xE0 + random.nextInt(32));
+         } else {
+            bytes[i] = (byte)random.nextInt(256);
+         }
+      }
+      return bytes;
+   }
+
+   private static String reference(byte[] bytes) throws IOException {
+      PerByteAnselInputStreamReader reader = new PerByteAnselInputStreamReader(new ByteArrayInputStream(bytes));
+      StringBuffer buf = new StringBuffer();
+      int c;
+      while ((c = reader.read()) >= 0) {
+         buf.append((char)c);
+      }
+      return buf.toString();
+   }
+
+   private static String readAll(Reader reader, int chunk) throws IOException {
+      StringBuffer buf = new StringBuffer();
+      char[] cbuf = new char[chunk + 3];
+      int n;
+      while ((n = reader.read(cbuf, 3, chunk)) >= 0) {
+         buf.append(cbuf, 3, n);
+      }
+      reader.close();
+      return buf.toString();
+   }
+
+   public void testDecodeMatchesReference() throws IOException {
+      Random random = new Random(11);
+      for (int i = 0; i < 200; i++) {
+         byte[] bytes = randomAnsel(random, random.nextInt(300));
+         String expected = reference(bytes);
+         assertEquals(expected, readAll(new AnselInputStreamReader(new ByteArrayInputStream(bytes)), 8192));
+         assertEquals(expected, readAll(new AnselInputStreamReader(new ByteArrayInputStream(bytes)), 1));
+         assertEquals(expected, readAll(new AnselInputStreamReader(new TrickleInputStream(new ByteArrayInputStream(bytes))), 7));
+      }
+   }
+
+   public void testDecodeLargeInput() throws IOException {
+      byte[] bytes = randomAnsel(new Random(5), 100000);
+      assertEquals(reference(bytes), readAll(new BufferedReader(new AnselInputStreamReader(new ByteArrayInputStream(bytes))), 4096));
+   }
+
+   public void testSingleCharRead() throws IOException {
+      Reader reader = new AnselInputStreamReader(new ByteArrayInputStream(new byte[] {'a', (byte)0xE2, 'e', (byte)0xE8}));
+      assertEquals('a', reader.read());
+      assertEquals('é', reader.read());
+      assertEquals('̈', reader.read());
+      assertEquals(-1, reader.read());
+   }
+
+   public void testCharsetDecodesDirectBuffers() throws IOException {
+      byte[] bytes = randomAnsel(new Random(3), 5000);
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes).flip();
+      assertEquals(reference(bytes), new AnselCharset().decode(direct).toString());
+   }
+
+   public void testEncodeMatchesReference() throws IOException {
+      Random random = new Random(7);
+      StringBuffer text = new StringBuffer();
+      for (int i = 0; i < 20000; i++) {
+         text.append(random.nextBoolean() ? (char)random.nextInt(0x2200) : (char)random.nextInt(0x10000));
+      }
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      for (int i = 0; i < text.length(); i++) {
+         PerByteAnselInputStreamReader.write(expected, text.charAt(i));
+      }
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      Writer writer = new AnselOutputStreamWriter(actual);
+      writer.write(text.toString());
+      writer.close();
+      assertTrue(java.util.Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+      ByteBuffer direct = ByteBuffer.allocateDirect(expected.size() + 10);
+      direct.put(new AnselCharset().encode(CharBuffer.wrap(text)));
+      assertEquals(expected.size(), direct.position());
+   }
+
+   public void testRoundTrip() throws IOException {
+      String text = "José Müller Łódź Ærø Ẓ";
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Writer writer = new AnselOutputStreamWriter(out);
+      writer.write(text);
+      writer.close();
+      assertEquals(text, readAll(new AnselInputStreamReader(new ByteArrayInputStream(out.toByteArray())), 16));
+   }
+
+   public void testCharsetIsRegistered() {
+      assertTrue(Charset.isSupported("ANSEL"));
+      Charset ansel = Charset.forName("ansel");
+      assertEquals("ANSEL", ansel.name());
+      assertEquals("à", new String(new byte[] {(byte)0xE1, 'a'}, ansel));
+      assertTrue(ansel.newEncoder().canEncode('à'));
+      assertFalse(ansel.newEncoder().canEncode('中'));
+   }
+}
@@ -0,0 +1,109 @@
+package org.lm.gedml;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Checks the GedcomLine scanner against the original regular expression
+ */
+public class TestGedcomLine extends TestCase {
+   private static final String[] LINES = {
+         "0 HEAD",
+         "0 @I1@ INDI",
+         "1 FAMS @F1@",
+         "1 FAMS @F#1/|2@",
+         "1 NAME John /Doe/",
+         "2 CONC  leading space and trailing space ",
+         "1 NOTE",
+         "1 NOTE ",
+         "  1   NOTE value",
+         "1\tNOTE\tvalue",
+         "10 NOTE level too big",
+         "1 @I 1@ INDI",
+         "1 @I1@  INDI",
+         "1 @@ INDI",
+         "1 @I1@",
+         "1 SOUR @S1@ trailing",
+         "1 SOUR @S1@x",
+         "1 SOUR @ @",
+         "1 SOUR @@",
+         "1 SOUR @S1",
+         "1 _CUSTOM value",
+         "1 NOTE é中",
+         "1 NOTE a b",
+         "1 NOTE ab ",
+         "1 NOTE ab\u0085",
+         "1 SOUR @S1@ a b",
+         "1 NOTE-x",
+         "x 1 NOTE",
+         "",
+         " ",
+         "1",
+         "1 ",
+   };
+
+   private static void assertSame(String line) {
+      RegexGedcomLine expected = new RegexGedcomLine(line);
+      GedcomLine actual = new GedcomLine(line);
+      assertEquals(line, expected.wasAbleToParse(), actual.wasAbleToParse());
+      assertEquals(line, expected.getLevelNum(), actual.getLevelNum());
+      assertEquals(line, expected.getXRef(), actual.getXRef());
+      assertEquals(line, expected.getID(), actual.getID());
+      assertEquals(line, expected.getTag(), actual.getTag());
+      assertEquals(line, expected.getRemainder(), actual.getRemainder());
+   }
+
+   public void testLines() {
+      for (int i = 0; i < LINES.length; i++) {
+         assertSame(LINES[i]);
+      }
+   }
+
+   public void testRandomLines() {
+      String alphabet = "019 \t@@@IN_#|/x\u0085 é";
+      Random random = new Random(42);
+      for (int i = 0; i < 200000; i++) {
+         int len = random.nextInt(14);
+         StringBuffer buf = new StringBuffer();
+         buf.append(random.nextBoolean() ? "1 " : "");
+         for (int j = 0; j < len; j++) {
+            buf.append(alphabet.charAt(random.nextInt(alphabet.length())));
+         }
+         assertSame(buf.toString());
+      }
+   }
+
+   public void testReadLine() throws Exception {
+      String text = "0 HEAD\r\n1 NOTE a\u0001b\rc\n\n\r\n2 CONT\u0000\t x\n\u0002\nlast";
+      BufferedReader expected = new BufferedReader(new StringReader(text));
+      GedcomLine actual = new GedcomLine(new StringReader(text));
+      String line;
+      while ((line = expected.readLine()) != null) {
+         assertTrue(actual.readLine());
+         StringBuffer filtered = new StringBuffer();
+         for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c >= 32 || c == 9) filtered.append(c);
+         }
+         assertEquals(filtered.toString(), new String(actual.getLineChars()));
+      }
+      assertFalse(actual.readLine());
+   }
+
+   public void testTagsAreShared() throws Exception {
+      GedcomLine gl = new GedcomLine(new StringReader("1 NOTE a\n2 CONC b\n1 NOTE c\n"));
+      gl.readLine();
+      gl.parse();
+      String note = gl.getTag();
+      gl.readLine();
+      gl.parse();
+      assertEquals("CONC", gl.getTag());
+      gl.readLine();
+      gl.parse();
+      assertTrue(note == gl.getTag());
+      assertEquals("c", new String(gl.getRemainderChars()));
+   }
+}
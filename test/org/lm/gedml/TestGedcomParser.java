@@ -0,0 +1,277 @@
+package org.lm.gedml;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Exercises each character encoding branch of GedcomParser.getBufferedReader,
+ * and checks that the memory-mapped path reads the same lines and splits them at records
+ */
+public class TestGedcomParser extends TestCase {
+   private static final String BODY = "0 @I1@ INDI\n1 NAME John /Doe/\n0 TRLR\n";
+
+   private File file;
+
+   protected void tearDown() throws Exception {
+      if (file != null) {
+         file.delete();
+      }
+      super.tearDown();
+   }
+
+   private String write(byte[] bytes) throws IOException {
+      if (file == null) {
+         file = File.createTempFile("encoding", ".ged");
+      }
+      OutputStream out = new FileOutputStream(file);
+      out.write(bytes);
+      out.close();
+      return "file://" + file.getAbsolutePath();
+   }
+
+   private String read(byte[] bytes) throws IOException, SAXException {
+      String systemId = write(bytes);
+      BufferedReader reader = GedcomParser.getBufferedReader(systemId);
+      StringBuffer buf = new StringBuffer();
+      String line;
+      while ((line = reader.readLine()) != null) {
+         buf.append(line).append('\n');
+      }
+      reader.close();
+      assertMappedLinesMatch(systemId);
+      return buf.toString();
+   }
+
+   private static List<String> lines(GedcomLine gl) throws IOException {
+      List<String> lines = new ArrayList<String>();
+      while (gl.readLine()) {
+         lines.add(new String(gl.getLineChars()));
+      }
+      gl.close();
+      return lines;
+   }
+
+   private static void assertMappedLinesMatch(String systemId) throws IOException, SAXException {
+      GedcomLine mapped = GedcomParser.getMappedLines(systemId);
+      if (mapped != null) {
+         assertEquals(lines(new GedcomLine(GedcomParser.getBufferedReader(systemId))), lines(mapped));
+      }
+   }
+
+   private static String header(String sour, String charLine) {
+      return "0 HEAD\n" + (sour == null ? "" : "1 SOUR " + sour + "\n2 VER 1.0\n") +
+            (charLine == null ? "" : charLine + "\n");
+   }
+
+   private static byte[] concat(byte[] a, byte[] b) {
+      byte[] rval = new byte[a.length + b.length];
+      System.arraycopy(a, 0, rval, 0, a.length);
+      System.arraycopy(b, 0, rval, a.length, b.length);
+      return rval;
+   }
+
+   private void assertDecoded(String charLine, String charset, String text) throws Exception {
+      String gedcom = header(null, charLine) + text;
+      assertEquals(gedcom, read(gedcom.getBytes(charset)));
+   }
+
+   public void testAnsel() throws Exception {
+      String head = header(null, "1 CHAR ANSEL");
+      byte[] bytes = concat(head.getBytes("ASCII"), new byte[]{'1', ' ', 'N', 'O', 'T', 'E', ' ',
+            (byte) 0xE2, 'e', (byte) 0xA5, '\n'});
+      assertEquals(head + "1 NOTE éÆ\n", read(bytes));
+   }
+
+   public void testMissingCharDefaultsToAnsel() throws Exception {
+      String head = header(null, null);
+      byte[] bytes = concat(head.getBytes("ASCII"), new byte[]{'1', ' ', 'N', 'O', 'T', 'E', ' ',
+            (byte) 0xE1, 'a', '\n'});
+      assertEquals(head + "1 NOTE à\n", read(bytes));
+   }
+
+   public void testAscii() throws Exception {
+      assertDecoded("1 CHAR ASCII", "ASCII", BODY);
+      assertDecoded("1 CHAR ATARIST_ASCII", "ASCII", BODY);
+   }
+
+   public void testWindowsCodePages() throws Exception {
+      assertDecoded("1 CHAR ANSI", "Cp1252", "1 NOTE € é\n");
+      assertDecoded("1 CHAR IBM WINDOWS", "Cp1252", "1 NOTE € é\n");
+      assertDecoded("1 CHAR WINDOWS-1250", "Cp1250", "1 NOTE řš\n");
+      assertDecoded("1 CHAR WINDOWS-1251", "Cp1251", "1 NOTE Жи\n");
+      assertDecoded("1 CHAR IBMPC", "Cp850", "1 NOTE üé\n");
+      assertDecoded("1 CHAR IBM DOS", "Cp850", "1 NOTE üé\n");
+   }
+
+   public void testUtf8() throws Exception {
+      assertDecoded("1 CHAR UTF-8", "UTF-8", "1 NOTE éЖ中\n");
+      assertDecoded("1 CHAR utf-8", "UTF-8", "1 NOTE é\n");
+   }
+
+   public void testMacintosh() throws Exception {
+      assertDecoded("1 CHAR MACINTOSH", "x-MacRoman", "1 NOTE éü\n");
+      assertDecoded("1 CHAR MACROMAN", "x-MacRoman", "1 NOTE éü\n");
+      assertDecoded("1 CHAR ASCII\n2 VERS MacOS Roman", "x-MacRoman", "1 NOTE éü\n");
+   }
+
+   public void testGeneratorOverrides() throws Exception {
+      String gedcom = header("GeneWeb", "1 CHAR ASCII") + "1 NOTE €\n";
+      assertEquals(gedcom, read(gedcom.getBytes("Cp1252")));
+      gedcom = header("Geni.com", "1 CHAR UNICODE") + "1 NOTE é\n";
+      assertEquals(gedcom, read(gedcom.getBytes("UTF-8")));
+      gedcom = header("Geni.com", "1 CHAR ANSEL") + "1 NOTE é\n";
+      assertEquals(gedcom, read(gedcom.getBytes("UTF-8")));
+      gedcom = header("GENJ", "1 CHAR UNICODE") + "1 NOTE é\n";
+      assertEquals(gedcom, read(gedcom.getBytes("UTF-8")));
+   }
+
+   public void testUnknownGeniVersion() throws Exception {
+      try {
+         read("0 HEAD\n1 SOUR Geni.com\n2 VER 2.0\n1 CHAR UTF-8\n".getBytes("ASCII"));
+         fail("Expected an IOException");
+      } catch (IOException e) {
+         assertTrue(e.getMessage().indexOf("Geni.com") >= 0);
+      }
+      try {
+         GedcomParser.getMappedLines("file://" + file.getAbsolutePath());
+         fail("Expected an IOException");
+      } catch (IOException e) {
+         assertTrue(e.getMessage().indexOf("Geni.com") >= 0);
+      }
+   }
+
+   public void testUnrecognizedEncoding() throws Exception {
+      try {
+         read((header(null, "1 CHAR EBCDIC") + BODY).getBytes("ASCII"));
+         fail("Expected a SAXException");
+      } catch (SAXException e) {
+         assertTrue(e.getMessage().indexOf("EBCDIC") >= 0);
+      }
+      try {
+         GedcomParser.getMappedLines("file://" + file.getAbsolutePath());
+         fail("Expected a SAXException");
+      } catch (SAXException e) {
+         assertTrue(e.getMessage().indexOf("EBCDIC") >= 0);
+      }
+   }
+
+   public void testLeadingJunkIsSkipped() throws Exception {
+      String gedcom = header(null, "1 CHAR UTF-8") + "1 NOTE é\n";
+      byte[] bom = new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, '\n', ' '};
+      assertEquals(gedcom, read(concat(bom, gedcom.getBytes("UTF-8"))));
+   }
+
+   public void testUtf16() throws Exception {
+      String gedcom = header(null, "1 CHAR UNICODE") + "1 NOTE é中\n";
+      assertEquals(gedcom, read(gedcom.getBytes("UTF-16")));
+      assertEquals(gedcom, read(concat(new byte[]{(byte) 0xFF, (byte) 0xFE}, gedcom.getBytes("UTF-16LE"))));
+      gedcom = header(null, "1 CHAR UTF-16BE") + "1 NOTE é\n";
+      assertEquals(gedcom, read(gedcom.getBytes("UTF-16")));
+      gedcom = header(null, "1 CHAR UTF-16") + "1 NOTE é\n";
+      assertEquals(gedcom, read(("\n \n" + gedcom).getBytes("UTF-16")));
+   }
+
+   public void testSingleByteFileMarkedUnicode() throws Exception {
+      // The whole file decodes as a single UTF-16 line, which is dropped.
+      assertEquals("", read((header(null, "1 CHAR UNICODE") + BODY).getBytes("ASCII")));
+   }
+
+   public void testHeaderLongerThanMarkLimit() throws Exception {
+      StringBuffer head = new StringBuffer("0 HEAD\n");
+      char[] filler = new char[20000];
+      java.util.Arrays.fill(filler, 'x');
+      for (int i = 0; i < 100; i++) {
+         head.append("1 NOTE ").append(filler).append('\n');
+      }
+      String gedcom = head + BODY;
+      assertEquals(gedcom, read(gedcom.getBytes("ASCII")));
+   }
+
+   public void testUtf16IsNotMapped() throws Exception {
+      String systemId = write((header(null, "1 CHAR UNICODE") + BODY).getBytes("UTF-16"));
+      assertNull(GedcomParser.getMappedLines(systemId));
+      assertNull(GedcomParser.getMappedLines("http://localhost/test.ged"));
+   }
+
+   public void testMappedLinesMatchReaderOnRandomBytes() throws Exception {
+      String[] encodings = {"ANSEL", "ASCII", "ANSI", "WINDOWS-1250", "WINDOWS-1251", "IBMPC", "UTF-8", "MACINTOSH"};
+      byte[] specials = {'\r', '\n', '\t', 0, 1, 27, ' ', '@', '0', (byte) 0x85, (byte) 0xC3, (byte) 0xE2, (byte) 0xA9};
+      Random random = new Random(17);
+      for (int i = 0; i < encodings.length; i++) {
+         for (int j = 0; j < 20; j++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+            out.write(header(null, "1 CHAR " + encodings[i]).getBytes("ASCII"));
+            for (int k = random.nextInt(2000); k > 0; k--) {
+               int r = random.nextInt(10);
+               if (r < 6) {
+                  out.write(' ' + random.nextInt(95));
+               } else if (r < 8) {
+                  out.write(specials[random.nextInt(specials.length)]);
+               } else if (r < 9) {
+                  out.write("é中".getBytes("UTF-8"));
+               } else {
+                  out.write(random.nextInt(256));
+               }
+            }
+            assertMappedLinesMatch(write(out.toByteArray()));
+         }
+      }
+   }
+
+   public void testRecordChunksSplitAtRecords() throws Exception {
+      StringBuffer gedcom = new StringBuffer("\r\n0 HEAD\r\n1 CHAR ANSEL\r\n");
+      Random random = new Random(5);
+      for (int i = 0; i < 500; i++) {
+         int r = random.nextInt(6);
+         String end = (r == 0 ? "\r" : r == 1 ? "\n\n" : "\r\n");
+         if (r == 2) {
+            gedcom.append("\u0001 0 @N").append(i).append("@ NOTE").append(end);
+         } else if (r == 3) {
+            gedcom.append("0 TRLR").append(end).append("0 bad line").append(end);
+         } else {
+            gedcom.append("0 @I").append(i).append("@ INDI").append(end);
+         }
+         gedcom.append("1 NAME John /Doe ").append(i).append('/').append(end);
+         gedcom.append("2 NOTE \u00E2e\u00E1a").append(end);
+      }
+      byte[] bytes = gedcom.toString().getBytes("ISO-8859-1");
+      String systemId = write(concat(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, bytes));
+      List<String> expected = lines(new GedcomLine(GedcomParser.getBufferedReader(systemId)));
+
+      int[] counts = {1, 2, 7, 100, 10000};
+      for (int i = 0; i < counts.length; i++) {
+         List<GedcomParser.RecordChunk> chunks = GedcomParser.getRecordChunks(systemId, counts[i]);
+         if (counts[i] == 1) {
+            assertEquals(1, chunks.size());
+         } else {
+            assertTrue(chunks.size() > 2 && chunks.size() <= counts[i] + 2);
+         }
+         List<String> actual = new ArrayList<String>();
+         for (int j = 0; j < chunks.size(); j++) {
+            GedcomParser.RecordChunk chunk = chunks.get(j);
+            assertEquals(j == 0, chunk.isFirst());
+            assertEquals(j == chunks.size() - 1, chunk.isLast());
+            assertEquals(actual.size() + 1, chunk.getFirstLineNr());
+            List<String> chunkLines = lines(chunk.getLines());
+            if (j > 0) {
+               GedcomLine first = new GedcomLine(chunkLines.get(0));
+               assertEquals(0, first.getLevel());
+               assertFalse(first.getTag().equals("TRLR"));
+            }
+            if (j == 1) {
+               // the first chunk holds just the header
+               assertEquals(3, chunk.getFirstLineNr());
+            }
+            actual.addAll(chunkLines);
+         }
+         assertEquals(expected, actual);
+      }
+   }
+}
@@ -0,0 +1,36 @@
+package org.werelate.gedcom;
+
+import org.werelate.util.Benchmark;
+
+/**
+ * Compares Util.cleanGedcomSource with the regular expressions it replaced,
+ * on typical source titles and authors
+ */
+public class BenchCleanGedcomSource {
+   private static final String[] SOURCES = {
+         "1850 United States Federal Census",
+         "Ancestry.com. 1850 U.S. Federal Census [database on-line]. Provo, UT, USA: Ancestry.com Operations, Inc., 2009.",
+         "Find a Grave, database and images (http://www.findagrave.com : accessed 3 May 2014)",
+         "Marriage Records, Washington Co., N.Y.",
+         "Smith, John, ed.",
+         "Family Bible of John and Mary Smith",
+         "FamilySearch, The Church of Jesus Christ of Latter-day Saints",
+         "History of Rockingham County, Virginia",
+         "Kirkebøger for Ærø, Søby Sogn, 1814-1892",
+   };
+
+   public static void main(String[] args) throws Exception {
+      Benchmark.time("PatternSourceCleaner.clean", SOURCES.length * 2000, new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return PatternSourceCleaner.clean(SOURCES[next++ % SOURCES.length]);
+         }
+      });
+      Benchmark.time("cleanGedcomSource", SOURCES.length * 2000, new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return Util.cleanGedcomSource(SOURCES[next++ % SOURCES.length]);
+         }
+      });
+   }
+}
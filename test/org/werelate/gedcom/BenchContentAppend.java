@@ -0,0 +1,61 @@
+package org.werelate.gedcom;
+
+import org.werelate.util.Benchmark;
+
+/**
+ * Times the accumulation of a note made of long chains of CONC and CONT lines,
+ * against the string concatenation that Tag used to do.
+ * Address lines are only appended when the address doesn't already contain them, so they still search the
+ * content once for each line; they used to search it twice and copy it.
+ */
+public class BenchContentAppend {
+   private static final String LINE = "This is one line of a long note which was split by the program that wrote the GEDCOM ";
+
+   public static void main(String[] args) throws Exception {
+      int[] chainLengths = {100, 1000, 5000};
+      for (int n = 0; n < chainLengths.length; n++) {
+         final int lines = chainLengths[n];
+         int ops = Math.max(1, 20000 / lines);
+
+         Benchmark.time("String += (" + lines + " lines)", ops, new Benchmark.Task() {
+            public Object run() throws Exception {
+               String content = "";
+               for (int i = 0; i < lines; i++) {
+                  content += (i % 10 == 9 ? '\n' + LINE : LINE);
+               }
+               return Integer.valueOf(content.length());
+            }
+         });
+         Benchmark.time("Tag.append (" + lines + " lines)", ops, new Benchmark.Task() {
+            public Object run() throws Exception {
+               Tag tag = new Tag("NOTE", null, 1);
+               for (int i = 0; i < lines; i++) {
+                  tag.append(i % 10 == 9 ? '\n' + LINE : LINE);
+               }
+               return Integer.valueOf(tag.getContent().length());
+            }
+         });
+         Benchmark.time("String address lines (" + lines + " lines)", ops, new Benchmark.Task() {
+            public Object run() throws Exception {
+               String content = "";
+               for (int i = 0; i < lines; i++) {
+                  String line = i + ": " + LINE;
+                  if (!content.contains(line)) {
+                     content = Uploader.append(content, line, "\n");
+                  }
+               }
+               return Integer.valueOf(content.length());
+            }
+         });
+         Benchmark.time("Tag.appendUnlessContained (" + lines + " lines)", ops, new Benchmark.Task() {
+            public Object run() throws Exception {
+               Tag tag = new Tag("ADDR", null, 1);
+               for (int i = 0; i < lines; i++) {
+                  tag.appendUnlessContained(i + ": " + LINE, "\n");
+               }
+               return Integer.valueOf(tag.getContent().length());
+            }
+         });
+      }
+   }
+}
@@ -0,0 +1,151 @@
+package org.werelate.gedcom;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.werelate.util.Benchmark;
+import org.werelate.util.Utils;
+import org.xml.sax.InputSource;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Times GedcomXML.parse on a generated inprocess file against the DOM and per-page XPath loader it replaced.
+ * Both parse the content of every page into its own document, as GedcomXML does.
+ * Usage: BenchGedcomXMLParse [number of pages in the largest file, default 100000]
+ */
+public class BenchGedcomXMLParse {
+   private static final int MAX_XPATH_PAGES = 5000;
+   private static XPathExpression placeExpression;
+   private static XPathExpression pageExpression;
+   private static XPathExpression namespaceExpression;
+   private static XPathExpression idExpression;
+   private static XPathExpression uidExpression;
+   private static XPathExpression excludedExpression;
+   private static XPathExpression livingExpression;
+   private static XPathExpression contentExpression;
+
+   static void writeFile(File file, int numPages) throws Exception {
+      PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      out.println("<gedcom citation_only_sources=\"0\" primary_person=\"I1\">");
+      for (int i = 0; i < 100; i++) {
+         out.println("<place key=\"WRP" + i + "\" text=\"Place " + i + ", Ohio\" title=\"Place " + i + ", Ohio, United States\"/>");
+      }
+      for (int i = 1; i <= numPages; i++) {
+         if (i % 10 == 0) {
+            out.println("<page namespace=\"112\" id=\"S" + i + "\" tree_id=\"1\">");
+            out.println("<content><![CDATA[<mysource>\n<title>1850 Census of Place " + (i % 100) + "</title>\n" +
+                  "<author>Bureau of the Census</author>\n</mysource>\n]]></content>");
+         } else if (i % 3 == 0) {
+            out.println("<page namespace=\"110\" id=\"F" + i + "\" tree_id=\"1\">");
+            out.println("<content><![CDATA[<family>\n<husband id=\"I" + (i - 1) + "\"/>\n<wife id=\"I" + (i - 2) + "\"/>\n" +
+                  "<event_fact type=\"Marriage\" date=\"12 Mar 1850\" place=\"Place " + (i % 100) + ", Ohio\"/>\n</family>\n]]></content>");
+         } else {
+            out.println("<page namespace=\"108\" id=\"I" + i + "\" tree_id=\"1\"" + (i % 20 == 1 ? " living=\"true\"" : "") + ">");
+            out.println("<content><![CDATA[<person>\n<name given=\"John\" surname=\"Smith" + (i % 500) + "\"/>\n" +
+                  "<gender>M</gender>\n<child_of_family id=\"F" + (i + 2) + "\"/>\n" +
+                  "<event_fact type=\"Birth\" date=\"1 Jan 1820\" place=\"Place " + (i % 100) + ", Ohio\" sources=\"S1\"/>\n" +
+                  "<source_citation id=\"S1\" source_id=\"S" + (i / 10 * 10 + 10) + "\" page=\"p. 23\"/>\n</person>\n" +
+                  "He was a farmer.\n]]></content>");
+         }
+         out.println("</page>");
+      }
+      out.println("</gedcom>");
+      out.close();
+   }
+
+   // GedcomXML.parse before it read the file with a stream reader
+   private static int parseWithXPath(String filename) throws Exception {
+      Map<String, String> placeText2Id = new HashMap<String, String>();
+      Map<String, Node> id2Page = new HashMap<String, Node>();
+      Map<String, Document> id2Content = new HashMap<String, Document>();
+      Map<String, Integer> id2Namespace = new HashMap<String, Integer>();
+      Map<String, String> id2Uid = new HashMap<String, String>();
+      Set<String> excludedIds = new HashSet<String>();
+      Set<String> livingIds = new HashSet<String>();
+      Document doc = Uploader.db.parse(new InputSource(new InputStreamReader(new FileInputStream(filename), "UTF-8")));
+      NodeList places = (NodeList) placeExpression.evaluate(doc, XPathConstants.NODESET);
+      for (int i = 0; i < places.getLength(); i++) {
+         Node place = places.item(i);
+         placeText2Id.put(place.getAttributes().getNamedItem("text").getNodeValue(),
+               place.getAttributes().getNamedItem("key").getNodeValue());
+      }
+      NodeList pages = (NodeList) pageExpression.evaluate(doc, XPathConstants.NODESET);
+      for (int i = 0; i < pages.getLength(); i++) {
+         Node page = pages.item(i);
+         int namespace = Integer.parseInt((String) namespaceExpression.evaluate(page, XPathConstants.STRING));
+         String id = (String) idExpression.evaluate(page, XPathConstants.STRING);
+         id2Page.put(id, page);
+         id2Namespace.put(id, namespace);
+         String uid = (String) uidExpression.evaluate(page, XPathConstants.STRING);
+         if (!Utils.isEmpty(uid)) {
+            id2Uid.put(id, uid);
+         }
+         String excluded = (String) excludedExpression.evaluate(page, XPathConstants.STRING);
+         if (!Utils.isEmpty(excluded) && excluded.trim().toLowerCase().equals("true")) {
+            excludedIds.add(id);
+         }
+         String living = (String) livingExpression.evaluate(page, XPathConstants.STRING);
+         if (!Utils.isEmpty(living) && living.trim().toLowerCase().equals("true")) {
+            livingIds.add(id);
+         }
+         String content = (String) contentExpression.evaluate(page, XPathConstants.STRING);
+         Matcher mXmlContent = GedcomXML.pPageContentXml.matcher(content);
+         if (mXmlContent.find()) {
+            id2Content.put(id, Uploader.db.parse(new InputSource(new StringReader(mXmlContent.group(0)))));
+         }
+      }
+      return id2Page.size() + id2Content.size() + id2Namespace.size() + id2Uid.size() + excludedIds.size() +
+            livingIds.size() + placeText2Id.size();
+   }
+
+   public static void main(String[] args) throws Exception {
+      int numPages = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+      placeExpression = Uploader.xpe.compile("/gedcom/place");
+      pageExpression = Uploader.xpe.compile("/gedcom/page");
+      namespaceExpression = Uploader.xpe.compile("@namespace");
+      idExpression = Uploader.xpe.compile("@id");
+      uidExpression = Uploader.xpe.compile("@uid");
+      excludedExpression = Uploader.xpe.compile("@exclude");
+      livingExpression = Uploader.xpe.compile("@living");
+      contentExpression = Uploader.xpe.compile("content");
+
+      // The XPath loader takes time in proportion to the square of the number of pages,
+      // because each evaluation against a page node walks the whole document, so it is only timed on small files
+      int[] sizes = {1000, 2000, 4000, numPages};
+      for (int n = 0; n < sizes.length; n++) {
+         final int pages = sizes[n];
+         final File file = File.createTempFile("inprocess", ".xml");
+         file.deleteOnExit();
+         writeFile(file, pages);
+         if (pages <= MAX_XPATH_PAGES) {
+            Benchmark.time("DOM and XPath (" + pages + " pages)", 1, 0, 1, new Benchmark.Task() {
+               public Object run() throws Exception {
+                  return Integer.valueOf(parseWithXPath(file.getPath()));
+               }
+            });
+         }
+         Benchmark.time("GedcomXML.parse (" + pages + " pages)", 1, 2, 5, new Benchmark.Task() {
+            public Object run() throws Exception {
+               GedcomXML gedcomXML = new GedcomXML();
+               gedcomXML.parse(file.getPath());
+               return Integer.valueOf(gedcomXML.getPages().size());
+            }
+         });
+         file.delete();
+      }
+   }
+}
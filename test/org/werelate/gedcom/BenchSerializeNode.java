@@ -0,0 +1,56 @@
+package org.werelate.gedcom;
+
+import org.w3c.dom.Node;
+import org.werelate.util.Benchmark;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares GedcomXML.serializeNode with the identity Transformer it replaced, on the pages of a generated inprocess file
+ * Usage: BenchSerializeNode [number of pages, default 10000]
+ */
+public class BenchSerializeNode {
+   // GedcomXML.serializeNode before it wrote the nodes itself
+   private static String transform(Transformer transformer, Node node) throws Exception {
+      StringWriter out = new StringWriter();
+      transformer.transform(new DOMSource(node), new StreamResult(out));
+      return out.toString().replaceAll("<\\?xml\\s+version=\"1.0\"\\s+encoding=\"UTF-8\"(\\s+standalone=\"no\")?\\?>", "");
+   }
+
+   public static void main(String[] args) throws Exception {
+      int numPages = (args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+      File file = File.createTempFile("inprocess", ".xml");
+      file.deleteOnExit();
+      BenchGedcomXMLParse.writeFile(file, numPages);
+      GedcomXML gedcomXML = new GedcomXML();
+      gedcomXML.parse(file.getPath());
+      final List<Node> pages = new ArrayList<Node>(gedcomXML.getPages());
+      final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+      for (Node page : pages) {
+         if (!transform(transformer, page).equals(GedcomXML.serializeNode(page))) {
+            throw new RuntimeException("Different output for " + GedcomXML.serializeNode(page));
+         }
+      }
+
+      Benchmark.time("Transformer", pages.size(), new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return transform(transformer, pages.get(next++ % pages.size())).length();
+         }
+      });
+      Benchmark.time("GedcomXML.serializeNode", pages.size(), new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return GedcomXML.serializeNode(pages.get(next++ % pages.size())).length();
+         }
+      });
+      file.delete();
+   }
+}
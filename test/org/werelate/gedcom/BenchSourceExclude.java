@@ -0,0 +1,103 @@
+package org.werelate.gedcom;
+
+import org.werelate.util.Benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times deciding whether sources should be excluded on a GEDCOM with 50,000 people and 20,000 sources,
+ * against the scan of every person's and family's citations that Source.shouldExclude used to do for each source.
+ * The scan is timed for a single source; multiply by the number of sources to compare with the whole run.
+ */
+public class BenchSourceExclude {
+   private static final int PEOPLE = 50000;
+   private static final int SOURCES = 20000;
+   // the remaining sources are not cited by anyone
+   private static final int CITED_SOURCES = 19000;
+
+   private static File writeGedcom() throws Exception {
+      File file = File.createTempFile("bench", ".ged");
+      file.deleteOnExit();
+      Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      writer.write("0 HEAD\r\n1 CHAR UTF-8\r\n");
+      for (int i = 1; i <= PEOPLE; i++) {
+         writer.write("0 @I" + i + "@ INDI\r\n");
+         writer.write("1 NAME John /Smith" + (i % 1000) + "/\r\n");
+         writer.write("1 SEX " + (i % 2 == 1 ? "M" : "F") + "\r\n");
+         writer.write("1 BIRT\r\n2 DATE " + (1700 + i % 150) + "\r\n");
+         writer.write("2 SOUR @S" + (1 + (i * 7) % CITED_SOURCES) + "@\r\n");
+         writer.write("1 SOUR @S" + (1 + (i * 13) % CITED_SOURCES) + "@\r\n");
+         writer.write("1 FAMS @F" + ((i + 1) / 2) + "@\r\n");
+      }
+      for (int i = 1; i <= PEOPLE / 2; i++) {
+         writer.write("0 @F" + i + "@ FAM\r\n");
+         writer.write("1 HUSB @I" + (2 * i - 1) + "@\r\n");
+         writer.write("1 WIFE @I" + (2 * i) + "@\r\n");
+         writer.write("1 MARR\r\n2 DATE " + (1725 + i % 150) + "\r\n");
+         writer.write("2 SOUR @S" + (1 + (i * 3) % CITED_SOURCES) + "@\r\n");
+      }
+      for (int i = 1; i <= SOURCES; i++) {
+         writer.write("0 @S" + i + "@ SOUR\r\n");
+         writer.write("1 TITL Parish register " + i + "\r\n");
+         writer.write("1 AUTH Clerk of parish " + i + "\r\n");
+      }
+      writer.write("0 TRLR\r\n");
+      writer.close();
+      return file;
+   }
+
+   // The old Source.shouldExclude reference check
+   private static boolean isReferencedByScan(Gedcom gedcom, Source source) throws Exception {
+      for (Person person : gedcom.getPeople().values()) {
+         if (person.shouldPrint(gedcom)) {
+            for (Citation cit : person.getAllCitations(gedcom)) {
+               if (source.getID().equals(cit.getId())) {
+                  return true;
+               }
+            }
+         }
+      }
+      for (Family family : gedcom.getFamilies().values()) {
+         if (family.shouldPrint(gedcom)) {
+            for (Citation cit : family.getAllCitations(gedcom)) {
+               if (source.getID().equals(cit.getId())) {
+                  return true;
+               }
+            }
+         }
+      }
+      return false;
+   }
+
+   public static void main(String[] args) throws Exception {
+      File file = writeGedcom();
+      // The file has no places, so no place server is needed
+      final Gedcom gedcom = new Gedcom(null, file.getAbsolutePath(), "bench", null, null, 1, false, false,
+            new StringBuffer());
+      final List<Source> sources = new ArrayList<Source>(gedcom.getSources().values());
+      // the scan has to look at every person and family for a source that nobody cites
+      final Source uncited = gedcom.getSources().get("S" + SOURCES);
+
+      long start = System.nanoTime();
+      uncited.shouldExclude(gedcom);
+      System.out.println(String.format("%-40s %12.1f ms", "First shouldExclude (builds the index)",
+            (System.nanoTime() - start) / 1e6));
+
+      Benchmark.time("Source.shouldExclude, per source", sources.size(), new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return Boolean.valueOf(sources.get(next++ % sources.size()).shouldExclude(gedcom));
+         }
+      });
+      Benchmark.time("Scan of all citations, per source", 1, new Benchmark.Task() {
+         public Object run() throws Exception {
+            return Boolean.valueOf(isReferencedByScan(gedcom, uncited));
+         }
+      });
+   }
+}
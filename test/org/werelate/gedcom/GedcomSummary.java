@@ -0,0 +1,137 @@
+package org.werelate.gedcom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes what a parsed GEDCOM holds as text that two parses can be compared by: the counts and warnings,
+ * and the people, families, sources and notes with the values read from their tags.
+ * Dates and places are written as they were read, so nothing here depends on how they are standardized.
+ */
+class GedcomSummary {
+   private static final String[] EVENT_ATTRIBUTES = {"DATE", "PLAC", "TYPE", "CAUS", "AGE", "ADDR", "FAMC", "STAT"};
+
+   private GedcomSummary() {
+   }
+
+   static String summarize(Gedcom gedcom) throws Exception {
+      StringBuilder buf = new StringBuilder();
+      buf.append("invalid=").append(gedcom.isInvalid())
+            .append(" warnings=").append(gedcom.getNumWarnings())
+            .append(" unknown=").append(gedcom.isUnknownTag())
+            .append(" people=").append(gedcom.getPeople().size())
+            .append(" families=").append(gedcom.getFamilies().size())
+            .append(" sources=").append(gedcom.getSources().size())
+            .append(" notes=").append(gedcom.getNotes().size())
+            .append(" primary=").append(gedcom.getPrimaryPerson() == null ? null : gedcom.getPrimaryPerson().getID())
+            .append('\n');
+      for (String id : sorted(gedcom.getPeople().keySet())) {
+         appendPerson(gedcom, gedcom.getPeople().get(id), buf);
+      }
+      for (String id : sorted(gedcom.getFamilies().keySet())) {
+         appendFamily(gedcom, gedcom.getFamilies().get(id), buf);
+      }
+      for (String id : sorted(gedcom.getSources().keySet())) {
+         appendSource(id, gedcom.getSources().get(id), buf);
+      }
+      for (String id : sorted(gedcom.getNotes().keySet())) {
+         buf.append("NOTE ").append(id).append(": ").append(gedcom.getNotes().get(id).getNote()).append('\n');
+      }
+      return buf.toString();
+   }
+
+   private static List<String> sorted(Collection<String> strings) {
+      List<String> list = new ArrayList<String>(strings);
+      Collections.sort(list);
+      return list;
+   }
+
+   private static void appendName(String label, Name name, StringBuilder buf) {
+      if (name != null) {
+         buf.append("  ").append(label).append(": ").append(name.getPrefix()).append('|').append(name.getGiven())
+               .append('|').append(name.getSurname()).append('|').append(name.getSuffix()).append('\n');
+      }
+   }
+
+   private static void appendPerson(Gedcom gedcom, Person person, StringBuilder buf) throws Exception {
+      buf.append("INDI ").append(person.getID()).append(' ').append(person.getGender()).append('\n');
+      appendName("name", person.getName(), buf);
+      for (AlternateName altName : person.getAltNames()) {
+         appendName("alt name", altName, buf);
+      }
+      buf.append("  child of: ").append(sorted(person.getChildOfFamilies()))
+            .append(" primary ").append(person.getPrimaryChildOf()).append('\n');
+      buf.append("  spouse of: ").append(sorted(person.getSpouseOfFamilies())).append('\n');
+      appendEventContainer(gedcom, person, buf);
+   }
+
+   private static void appendFamily(Gedcom gedcom, Family family, StringBuilder buf) throws Exception {
+      buf.append("FAM ").append(family.getID()).append('\n');
+      buf.append("  husbands: ").append(family.getHusbands()).append('\n');
+      buf.append("  wives: ").append(family.getWives()).append('\n');
+      List<String> children = new ArrayList<String>();
+      for (Family.Child child : family.getChildren()) {
+         children.add(child.getId() + (child.isAdopted() ? " adopted" : "") +
+               (child.getStatus() == null ? "" : " " + child.getStatus()));
+      }
+      buf.append("  children: ").append(sorted(children)).append('\n');
+      appendEventContainer(gedcom, family, buf);
+   }
+
+   private static void appendEventContainer(Gedcom gedcom, EventContainer ec, StringBuilder buf) throws Exception {
+      for (Event event : ec.getEvents()) {
+         buf.append("  event ").append(event);
+         for (String att : EVENT_ATTRIBUTES) {
+            if (event.getAttribute(att) != null) {
+               buf.append(' ').append(att).append('=').append(event.getAttribute(att));
+            }
+         }
+         buf.append(" content=").append(event.getContent()).append('\n');
+         appendCitations("    ", event.getCitations(), buf);
+         for (Note note : event.getNotes()) {
+            buf.append("    note: ").append(note.getNote()).append('\n');
+         }
+         appendNoteCitations("    ", event.getNoteCitations(), buf);
+      }
+      appendCitations("  ", ec.getCitations(), buf);
+      appendNoteCitations("  ", ec.getNoteCitations(), buf);
+      for (String note : ec.getNotes(gedcom, new ArrayList<Citation>())) {
+         buf.append("  note: ").append(note).append('\n');
+      }
+   }
+
+   private static void appendCitations(String indent, Collection<Citation> citations, StringBuilder buf) {
+      for (Citation cit : citations) {
+         buf.append(indent).append("citation ").append(cit.getId()).append(" page=").append(cit.getPage())
+               .append(" date=").append(cit.getDate()).append(" quality=").append(cit.getQualityString())
+               .append(" text=").append(cit.getText()).append('\n');
+      }
+   }
+
+   private static void appendNoteCitations(String indent, Collection<Note.Citation> citations, StringBuilder buf) {
+      for (Note.Citation cit : citations) {
+         buf.append(indent).append("note citation ").append(cit.getId()).append('\n');
+      }
+   }
+
+   private static void appendSource(String key, Source source, StringBuilder buf) {
+      buf.append("SOUR ").append(key);
+      if (!key.equals(source.getID())) {
+         buf.append(" same as ").append(source.getID()).append('\n');
+         return;
+      }
+      buf.append('\n');
+      buf.append("  title=").append(source.getTitle()).append(" author=").append(source.getAuthor())
+            .append(" publication=").append(source.getPubInfo()).append(" abbreviation=").append(source.getAbbreviation())
+            .append('\n');
+      buf.append("  type=").append(source.getType()).append(" periodical=").append(source.getPeri())
+            .append(" place=").append(source.getPlace()).append(" url=").append(source.getUrl())
+            .append(" call number=").append(source.getCallNum()).append('\n');
+      buf.append("  repository=").append(source.getRepositoryID()).append(' ').append(source.getRepositoryName())
+            .append(" address=").append(source.getRepAddr()).append('\n');
+      buf.append("  text=").append(source.getText()).append('\n');
+   }
+}
@@ -0,0 +1,87 @@
+package org.werelate.gedcom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans source text with the regular expressions Util.cleanGedcomSource used to run one at a time,
+ * so the tests can check that it still gives the same result
+ */
+class PatternSourceCleaner {
+   static class PatternReplacement {
+      Pattern pattern;
+      String replacement;
+      PatternReplacement(Pattern pattern, String replacement) {
+         this.pattern = pattern;
+         this.replacement = replacement;
+      }
+   }
+   private static final List<PatternReplacement> ABBREV_REPLACEMENTS = new ArrayList<PatternReplacement>();
+
+   static {
+      for (String[] abbrev : Util.ABBREVS) {
+         String replacement = abbrev[0];
+         for (int j = 1; j < abbrev.length; j++) {
+            String p = "\\b"+abbrev[j].replace(".", "\\.");
+            if (!p.endsWith(".")) {
+               p += "\\b";
+            }
+            Pattern pattern = Pattern.compile(p);
+            ABBREV_REPLACEMENTS.add(new PatternReplacement(pattern, replacement));
+         }
+      }
+   }
+
+   private static final Pattern STOP_WORDS_PATTERN;
+
+   static {
+      StringBuffer buf = new StringBuffer();
+      for (String word : Util.STOP_WORDS) {
+         if (buf.length() > 0) {
+            buf.append("|");
+         }
+         buf.append(word);
+      }
+      STOP_WORDS_PATTERN = Pattern.compile("\\b("+buf.toString()+")\\b");
+   }
+
+   private PatternSourceCleaner() {
+   }
+
+   static String clean(String s) {
+      if (s == null) {
+         return "";
+      }
+
+      // convert Abbrevs
+      for (PatternReplacement pr : ABBREV_REPLACEMENTS) {
+         s = pr.pattern.matcher(s).replaceAll(pr.replacement);
+      }
+
+      // cut after cut-words
+      for (String cut : Util.CUT_WORDS) {
+         int pos = s.lastIndexOf(cut);
+         if (pos > 0) {
+            s = s.substring(0, pos);
+         }
+      }
+
+      // romanize
+      s = Util.romanize(s);
+      // remove all single-letters except a A I
+      s = s.replaceAll("\\b[b-zB-HJ-Z]\\b", "");
+      // lowercase
+      s = s.toLowerCase();
+      // remove 's convert all non-alpha-numeric to space; convert mutliple spaces to a single space
+      s = s.replaceAll("'", "").replaceAll("[^a-z0-9]", " ").replaceAll("\\s+", " ");
+      // handle find a grave
+      s = s.replaceAll("\\bfind a grave\\b", "findagrave");
+      // remove stopwords
+      s = STOP_WORDS_PATTERN.matcher(s).replaceAll("");
+      // remove all spaces
+      s = s.replaceAll("\\s+", "");
+
+      return s;
+   }
+}
@@ -0,0 +1,93 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that Util.cleanGedcomSource gives the same result as the regular expressions it replaced
+ */
+public class TestCleanGedcomSource extends TestCase {
+   private static final String[] SOURCES = {
+         null, "", " ", "a", "x", "I",
+         "1850 United States Federal Census",
+         "Ancestry.com. 1850 U.S. Federal Census [database on-line]. Provo, UT, USA: Ancestry.com Operations, Inc., 2009.",
+         "Find A Grave Index", "Find a Grave, database and images (http://www.findagrave.com : accessed 3 May 2014)",
+         "FamilySearch, The Church of Jesus Christ of Latter-day Saints",
+         "Marriage Records, Washington Co., N.Y.", "Deeds of Rockingham Co, Va, Twp of Brock's Gap",
+         "History of D.C.", "Wills of W.Va. and WVa", "U.S.A.", "U. S.C.", "D.C.Co", "N.H.N.J.", "U.S.Army",
+         "Editor in charge: J. Smith, ed.", "editor in chief", "et al", "O'x'b", "_x_", "x-y z", "i0 I0 io",
+         "http://search.ancestry.com/cgi-bin/sse.dll?gl=34", "Title accessed 2010, accessed again",
+         "Colorado Co. County Township Twp", "Ohio, OH; Iowa, IA; Indiana, IN",
+   };
+
+   private static final String[] FRAGMENTS = {
+         "Find", "find", "a", "A", "grave", "Grave", "editor", "in", "chief", "charge", "ed",
+         "et", "al", "the", "The", "of", "ancestry", "com", "Church", "Jesus", "Christ", "latter", "day", "saints",
+         "x", "B", "I", "i0", "'", "'s", ".", ",", "-", "_", ":", "/", " ", " ", " ", "  ", "1850", "0",
+         "accessed", "http://search.ancestry.com/", "Smith", "John",
+   };
+
+   // letters, digits and marks outside ASCII, some of which romanize to ASCII
+   private static final String[] NON_ASCII_FRAGMENTS = {
+         "é", "Æ", "ø", "ß", "ü", "İ", "ı", "́", "̈", " ", "–", "١", "𝐀",
+         "Kirkebøger", "Ærø", "Müller", "É", "ŉ", "\uD834\uDD67",
+   };
+
+   private static void assertSame(String s) {
+      assertEquals("cleaning \"" + s + "\"", PatternSourceCleaner.clean(s), Util.cleanGedcomSource(s));
+   }
+
+   public void testSources() {
+      for (String s : SOURCES) {
+         assertSame(s);
+      }
+   }
+
+   public void testNonAscii() {
+      assertSame("Ærø Kommune, Kirkebøger");
+      assertSame("Église de Saint-Ýves, é x");
+      assertSame("Müller's Straße, Ż");
+      assertSame("Records of NÝ and ŃY, x́ ÿ ́b");
+      assertSame("Wills of éW.Va. and ÆCo. and Co.é, ß U.S. Army");
+      assertSame("١ x 𝐀 y𝐀 İstanbul");
+   }
+
+   private static void assertSameOnRandomText(String[] fragments, int count) {
+      Random random = new Random(42);
+      for (int n = 0; n < count; n++) {
+         StringBuilder buf = new StringBuilder();
+         int numFragments = 1 + random.nextInt(10);
+         for (int i = 0; i < numFragments; i++) {
+            buf.append(fragments[random.nextInt(fragments.length)]);
+            if (random.nextInt(3) == 0) {
+               buf.append(' ');
+            }
+         }
+         assertSame(buf.toString());
+      }
+   }
+
+   public void testRandomFragments() {
+      assertSameOnRandomText(FRAGMENTS, 20000);
+   }
+
+   public void testRandomAbbreviations() {
+      // every abbreviation and expansion, next to each other and to punctuation and non-ASCII text
+      List<String> fragments = new ArrayList<String>();
+      for (String[] abbrev : Util.ABBREVS) {
+         for (String text : abbrev) {
+            fragments.add(text);
+         }
+      }
+      for (String text : new String[] {".", ",", " ", "'", "_", "x", "1"}) {
+         fragments.add(text);
+      }
+      for (String text : NON_ASCII_FRAGMENTS) {
+         fragments.add(text);
+      }
+      assertSameOnRandomText(fragments.toArray(new String[fragments.size()]), 20000);
+   }
+}
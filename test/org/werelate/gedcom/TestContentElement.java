@@ -0,0 +1,49 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks how ContentElement reads and writes page content
+ */
+public class TestContentElement extends TestCase {
+   private static ContentElement read(String content, List<ContentElement> found) throws Exception {
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty("http://java.sun.com/xml/stream/properties/report-cdata-event", Boolean.TRUE);
+      XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(content));
+      reader.nextTag();
+      ContentElement element = ContentElement.read(reader, new String[] {"place"}, found);
+      reader.close();
+      return element;
+   }
+
+   private static String write(ContentElement element) {
+      StringBuffer buf = new StringBuffer();
+      element.write(buf);
+      return buf.toString();
+   }
+
+   public void testCDATA() throws Exception {
+      List<ContentElement> found = new ArrayList<ContentElement>();
+      ContentElement person = read("<person><event_fact type=\"Birth\" place=\"Ohio\"/>\n" +
+            "<note id=\"N1\">before <![CDATA[a < b & <i>c</i>]]> after</note>\n</person>", found);
+      assertEquals(1, found.size());
+      assertEquals("Ohio", found.get(0).getAttribute("place"));
+      ContentElement note = person.getChild("note");
+      // the CDATA section is part of the text of the note
+      assertEquals("before a < b & <i>c</i> after", note.getTextContent());
+      assertEquals(0, note.getChildren().size());
+      assertEquals("<note id=\"N1\">before a &lt; b &amp; &lt;i&gt;c&lt;/i&gt; after</note>\n", write(note));
+   }
+
+   public void testComment() throws Exception {
+      ContentElement person = read("<person><note id=\"N1\">a<!-- not written --> b</note></person>",
+            new ArrayList<ContentElement>());
+      assertEquals("<person>\n<note id=\"N1\">a b</note>\n</person>\n", write(person));
+   }
+}
@@ -0,0 +1,55 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+import nu.xom.Builder;
+import nu.xom.Element;
+import org.werelate.dq.FamilyDQAnalysis;
+import org.werelate.util.SharedUtils;
+
+/**
+ * Family.getRootForAnalysis hands every member of a family the same parsed element,
+ * which is only safe as long as FamilyDQAnalysis never modifies it.
+ * This runs each analysis that Person.setLiving runs on a family, the way it runs them,
+ * and checks that the element still matches the data it was parsed from.
+ */
+public class TestFamilyAnalysisRoot extends TestCase {
+   private Gedcom gedcom;
+   private Builder builder;
+
+   protected void setUp() throws Exception {
+      super.setUp();
+      // the sample has no places, so no uploader is needed
+      gedcom = new Gedcom(null, "test/org/werelate/gedcom/samples/records.ged", "test", null, null, 1, false, false,
+            new StringBuffer());
+      builder = new Builder();
+   }
+
+   private void assertUnchanged(Family family, Element root) throws Exception {
+      Element parsed = SharedUtils.parseText(builder, family.prepareDataForAnalysis(gedcom), true).getRootElement();
+      assertEquals(parsed.toXML(), root.toXML());
+      assertSame(root, family.getRootForAnalysis(gedcom, builder));
+   }
+
+   public void testAnalysisDoesNotModifyTheRoot() throws Exception {
+      assertFalse(gedcom.getFamilies().isEmpty());
+      for (Family family : gedcom.getFamilies().values()) {
+         Element root = family.getRootForAnalysis(gedcom, builder);
+         for (Family.Child child : family.getChildren()) {
+            FamilyDQAnalysis analysis = new FamilyDQAnalysis(root, family.getID(), child.getId(), true);
+            analysis.getIssues();
+            analysis.refineChildBirthYear();
+            analysis.getCLatestBirth();
+            assertUnchanged(family, root);
+         }
+         FamilyDQAnalysis analysis = new FamilyDQAnalysis(root, family.getID(), "none", true);
+         analysis.refineHusbandBirthYear();
+         analysis.getHLatestBirth();
+         assertUnchanged(family, root);
+         analysis = new FamilyDQAnalysis(root, family.getID(), "none", true);
+         analysis.refineWifeBirthYear();
+         analysis.getWLatestBirth();
+         assertUnchanged(family, root);
+         family.clearAnalysisRoot();
+      }
+   }
+}
@@ -0,0 +1,44 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Runs the sample GEDCOMs through the SAX handler in Gedcom and compares the people, families, sources, notes
+ * and warning counts with what the handler read from them before characters() looked tag names up once.
+ * The .expected files were written by GedcomSummary with that earlier handler; records.ged covers the usual
+ * records and unusual.ged puts tags where the handler doesn't expect them.
+ * The samples have no places, so no uploader is needed.
+ */
+public class TestGedcomHandler extends TestCase {
+   private static final String SAMPLES = "test/org/werelate/gedcom/samples/";
+
+   private static String read(String filename) throws Exception {
+      Reader reader = new InputStreamReader(new FileInputStream(filename), "UTF-8");
+      StringBuilder buf = new StringBuilder();
+      char[] chars = new char[4096];
+      int len;
+      while ((len = reader.read(chars)) > 0) {
+         buf.append(chars, 0, len);
+      }
+      reader.close();
+      return buf.toString();
+   }
+
+   private void assertSameAsExpected(String sample) throws Exception {
+      Gedcom gedcom = new Gedcom(null, SAMPLES + sample + ".ged", "test", null, null, 1, false, false,
+            new StringBuffer());
+      assertEquals(read(SAMPLES + sample + ".expected"), GedcomSummary.summarize(gedcom));
+   }
+
+   public void testRecords() throws Exception {
+      assertSameAsExpected("records");
+   }
+
+   public void testUnusualTags() throws Exception {
+      assertSameAsExpected("unusual");
+   }
+}
@@ -0,0 +1,59 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Random;
+
+/**
+ * Checks that PagePrinter writes pages in the order they were added, whatever order they are rendered in
+ */
+public class TestPagePrinter extends TestCase {
+   private static final int PAGES = 500;
+
+   private static PagePrinter.Page page(final int n, final int delay, final boolean fail) {
+      return new PagePrinter.Page() {
+         public void print(PrintWriter out) throws Gedcom.PostProcessException {
+            out.print("<page n=\"" + n + "\">");
+            try {
+               Thread.sleep(delay);
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+            if (fail) {
+               throw new Gedcom.PostProcessException("page " + n, null, null);
+            }
+            out.println("</page>");
+         }
+      };
+   }
+
+   private static String print(int numThreads, int failingPage) {
+      StringWriter buf = new StringWriter();
+      PrintWriter out = new PrintWriter(buf);
+      PagePrinter printer = new PagePrinter(out, numThreads);
+      Random random = new Random(20);
+      try {
+         for (int n = 0; n < PAGES; n++) {
+            printer.add(page(n, random.nextInt(3), n == failingPage), random.nextInt(5) == 0);
+         }
+         printer.finish();
+      } catch (Gedcom.PostProcessException e) {
+         out.print("failed: " + e.getMessage());
+      }
+      out.flush();
+      return buf.toString();
+   }
+
+   public void testOrder() {
+      assertEquals(print(1, -1), print(4, -1));
+   }
+
+   public void testFailure() {
+      String printed = print(4, 321);
+      assertEquals(print(1, 321), printed);
+      assertTrue(printed.contains("<page n=\"321\">failed: "));
+      assertFalse(printed.contains("<page n=\"322\">"));
+   }
+}
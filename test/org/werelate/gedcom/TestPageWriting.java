@@ -0,0 +1,130 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+import org.werelate.util.ElementWriter;
+import org.werelate.util.Utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Checks that GedcomElementWriter and EventContainer.printInCDATA write the same XML
+ * as the string replacements they replaced
+ */
+public class TestPageWriting extends TestCase {
+   private static final String[] FRAGMENTS = {
+         "a", "Smith", " ", "\n", "\r", "\t", "&", "<", ">", "\"", "'", "&amp;", "«", "»", "«b»", "«/b»", "«tab»",
+         "«b", "b»", "tab»", "]", "]]", "]]>", ">", "\u0001", "\u001F", "é", "1850",
+   };
+
+   // EventContainer.encloseInCDATA before the page was printed in chunks
+   private static String encloseInCDATA(String outText) {
+      StringBuffer result = new StringBuffer();
+      for (char c : outText.toCharArray())
+      {
+         if (c >= 32 || c == '\n' || c == '\r' || c == '\f' || c == '\t')
+         {
+            result.append(c);
+         }
+      }
+      outText = Utils.replaceHTMLFormatting(result.toString());
+      return "<![CDATA[" + outText.replaceAll("\\]\\]>", "]]]]><![CDATA[>") + "]]>";
+   }
+
+   // ElementWriter.write before attributes were escaped as they were written
+   private static String write(String tagName, final Map<String, Integer> order, Map<String, String> atts, String text) {
+      Map<String, String> sorted = new TreeMap<String, String>(new java.util.Comparator<String>() {
+         public int compare(String att1, String att2) {
+            return (order == null ? att1.compareTo(att2) : order.get(att1).compareTo(order.get(att2)));
+         }
+      });
+      sorted.putAll(atts);
+      StringBuffer buf = new StringBuffer("<").append(tagName);
+      for (Map.Entry<String, String> entry : sorted.entrySet())
+      {
+         buf.append(' ').append(Utils.encodeXML(entry.getKey())).append("=\"")
+               .append(Utils.encodeXML(Utils.replaceHTMLFormatting(entry.getValue().replaceAll("\n", " ")))).append('"');
+      }
+      if (Utils.isEmpty(text))
+      {
+         buf.append("/>\n");
+      } else
+      {
+         buf.append('>').append(Utils.encodeXML(text)).append("</").append(tagName).append(">\n");
+      }
+      return buf.toString();
+   }
+
+   private static String randomText(Random random) {
+      StringBuilder buf = new StringBuilder();
+      int fragments = 1 + random.nextInt(8);
+      for (int i = 0; i < fragments; i++) {
+         buf.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      }
+      return buf.toString();
+   }
+
+   public void testRandomElements() {
+      String[] attNames = {"id", "title", "source_id", "record_name", "page", "quality", "date", "notes", "images", "text"};
+      Map<String, Integer> order = new GedcomElementWriter("source_citation").getAttributeOrderMap().get("source_citation");
+      Random random = new Random(18);
+      for (int n = 0; n < 5000; n++) {
+         String tagName = (n % 2 == 0 ? "source_citation" : "unordered");
+         GedcomElementWriter ew = new GedcomElementWriter(tagName);
+         Map<String, String> atts = new TreeMap<String, String>();
+         int numAtts = random.nextInt(attNames.length);
+         for (int i = 0; i < numAtts; i++) {
+            String name = attNames[random.nextInt(attNames.length)];
+            String value = randomText(random);
+            ew.put(name, value);
+            if (!Utils.isEmpty(value)) {
+               atts.put(name, value);
+            }
+         }
+         String text = (random.nextBoolean() ? randomText(random) : null);
+         ew.setSubText(text);
+         assertEquals(write(tagName, (n % 2 == 0 ? order : null), atts, text), ew.write());
+      }
+   }
+
+   public void testUnknownAttribute() {
+      GedcomElementWriter ew = new GedcomElementWriter("event_fact");
+      // an empty value for an unknown attribute is ignored while no attributes have been added
+      ew.put("unknown", "");
+      ew.put("date", "1850");
+      try {
+         ew.put("unknown", "");
+         fail("Unknown attribute accepted");
+      } catch (ElementWriter.ElementWriterException e) {
+         // expected
+      }
+      ew.clear();
+      try {
+         ew.put("unknown", "x");
+         fail("Unknown attribute accepted");
+      } catch (ElementWriter.ElementWriterException e) {
+         // expected
+      }
+   }
+
+   public void testRandomCDATA() {
+      Random random = new Random(19);
+      for (int n = 0; n < 20000; n++) {
+         String text = randomText(random);
+         if (n % 1000 == 0) {
+            // longer than the chunks the text is printed in
+            for (int i = 0; i < 2000; i++) {
+               text += randomText(random);
+            }
+         }
+         StringWriter sw = new StringWriter();
+         PrintWriter out = new PrintWriter(sw);
+         EventContainer.printInCDATA(out, new StringBuffer(text));
+         out.flush();
+         assertEquals(encloseInCDATA(text), sw.toString());
+      }
+   }
+}
@@ -0,0 +1,298 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that running the first pass of Person.setLiving on several threads gives every person
+ * the same living status and the same data quality issues as going through the people in order,
+ * and that the second pass marks the same people living as sweeping through everyone until nobody changes
+ */
+public class TestParallelLiving extends TestCase {
+   private static final int THREADS = 4;
+   private static final int GENERATIONS = 6;
+   private static final int FAMILIES = 12;
+   private static final int LINKS = 4;
+
+   private File file;
+
+   protected void setUp() throws Exception {
+      super.setUp();
+      file = File.createTempFile("living", ".ged");
+   }
+
+   protected void tearDown() throws Exception {
+      file.delete();
+      super.tearDown();
+   }
+
+   // a person as written to the file
+   private static class Record {
+      private final String id;
+      private final String sex;
+      private final List<String> lines = new ArrayList<String>();
+
+      private Record(int id, String sex) {
+         this.id = "I" + id;
+         this.sex = sex;
+      }
+   }
+
+   private static String year(Random random, int year) {
+      switch (random.nextInt(4)) {
+         case 0: return "ABT " + year;
+         case 1: return "BEF " + year;
+         default: return Integer.toString(year);
+      }
+   }
+
+   // Dates are left out at random, so that living status often has to be worked out from relatives,
+   // and some of the people without dates are named Living
+   private static Record newRecord(Random random, List<Record> people, String sex, int generation) {
+      Record person = new Record(people.size() + 1, sex);
+      people.add(person);
+      int born = 1760 + 32 * generation;
+      if (random.nextInt(5) < 3) {
+         person.lines.add("1 BIRT\n2 DATE " + year(random, born + random.nextInt(10)));
+         if (generation < 4 && random.nextBoolean()) {
+            person.lines.add("1 DEAT\n2 DATE " + year(random, born + 40 + random.nextInt(40)));
+         }
+      } else if (random.nextInt(8) == 0) {
+         person.lines.add(0, "1 NAME Living /Smith/");
+      } else if (random.nextInt(4) == 0) {
+         // the first pass of the person gives this a standard date, which the relatives analyzed after them see
+         person.lines.add(random.nextBoolean() ? "1 DEAT died in infancy" : "1 DEAT\n2 CAUS infant");
+      }
+      return person;
+   }
+
+   // Generations of families, each with a son, a daughter and one more child. The son of each family
+   // marries the daughter of the next one, and some families have also adopted a child of another family.
+   private void writeGedcom() throws Exception {
+      Random random = new Random(23);
+      List<Record> people = new ArrayList<Record>();
+      StringBuilder families = new StringBuilder();
+      Record[] husbands = new Record[FAMILIES];
+      Record[] wives = new Record[FAMILIES];
+      for (int f = 0; f < FAMILIES; f++) {
+         husbands[f] = newRecord(random, people, "M", 0);
+         wives[f] = newRecord(random, people, "F", 0);
+      }
+      for (int g = 0; g < GENERATIONS; g++) {
+         int married = 1760 + 32 * g + 25;
+         Record[][] children = new Record[FAMILIES][];
+         StringBuilder[] familyLines = new StringBuilder[FAMILIES];
+         for (int f = 0; f < FAMILIES; f++) {
+            String famID = "F" + (g * FAMILIES + f + 1);
+            StringBuilder family = familyLines[f] = new StringBuilder();
+            children[f] = new Record[] {newRecord(random, people, "M", g + 1), newRecord(random, people, "F", g + 1),
+                  newRecord(random, people, random.nextBoolean() ? "M" : "F", g + 1)};
+            addFamily(family, famID, husbands[f], wives[f], children[f]);
+            switch (random.nextInt(4)) {
+               case 0:
+                  family.append("1 MARR\n2 DATE ").append(year(random, married)).append('\n');
+                  break;
+               case 1:
+                  family.append("1 MARR\n2 DATE private\n");
+                  break;
+               default:
+                  break;
+            }
+         }
+         for (int f = 0; f < FAMILIES; f += 5) {
+            // the third child of another family of the generation is adopted into this one as well
+            String famID = "F" + (g * FAMILIES + f + 1);
+            Record adopted = children[(f + 3) % FAMILIES][2];
+            adopted.lines.add("1 FAMC @" + famID + "@");
+            familyLines[f].append("1 CHIL @").append(adopted.id).append("@\n2 _FREL Adopted\n");
+         }
+         for (StringBuilder family : familyLines) {
+            families.append(family);
+         }
+         for (int f = 0; f < FAMILIES; f++) {
+            husbands[f] = children[f][0];
+            wives[f] = children[(f + 1) % FAMILIES][1];
+         }
+      }
+
+      write(people, families);
+   }
+
+   private static void addFamily(StringBuilder families, String famID, Record husband, Record wife,
+                                 Record... children) {
+      husband.lines.add("1 FAMS @" + famID + "@");
+      wife.lines.add("1 FAMS @" + famID + "@");
+      families.append("0 @").append(famID).append("@ FAM\n1 HUSB @").append(husband.id)
+            .append("@\n1 WIFE @").append(wife.id).append("@\n");
+      for (Record child : children) {
+         child.lines.add("1 FAMC @" + famID + "@");
+         families.append("1 CHIL @").append(child.id).append("@\n");
+      }
+   }
+
+   // Families side by side, each with a son and a daughter and the father's parents above them, and nobody
+   // has dates. Only the son of the first family is named Living. The daughter of each family marries the son
+   // of the next one, so living status reaches the last family only through every sibling and spouse in between.
+   // The IDs go down along the chain, so a sweep through the people in ID order gets one step further each time.
+   private void writeChain(List<String> living, List<String> dead) throws Exception {
+      List<Record> people = new ArrayList<Record>();
+      StringBuilder families = new StringBuilder();
+      int id = 99;
+      Record previous = null;
+      for (int i = 0; i < LINKS; i++) {
+         Record son = new Record(id--, "M");
+         Record daughter = new Record(id--, "F");
+         Record father = new Record(id--, "M");
+         Record mother = new Record(id--, "F");
+         Record grandfather = new Record(id--, "M");
+         Record grandmother = new Record(id--, "F");
+         if (i == 0) {
+            son.lines.add("1 NAME Living /Smith/");
+         }
+         addFamily(families, "F" + (3 * i + 1), grandfather, grandmother, father);
+         addFamily(families, "F" + (3 * i + 2), father, mother, son, daughter);
+         if (previous != null) {
+            addFamily(families, "F" + (3 * i), son, previous);
+         }
+         previous = daughter;
+         people.addAll(Arrays.asList(son, daughter, father, mother, grandfather, grandmother));
+         living.addAll(Arrays.asList(son.id, daughter.id));
+         dead.addAll(Arrays.asList(father.id, mother.id, grandfather.id, grandmother.id));
+      }
+      write(people, families);
+   }
+
+   private void write(List<Record> people, CharSequence families) throws Exception {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      writer.write("0 HEAD\n1 SOUR Test\n1 CHAR UTF-8\n");
+      for (Record person : people) {
+         writer.write("0 @" + person.id + "@ INDI\n");
+         if (person.lines.isEmpty() || !person.lines.get(0).startsWith("1 NAME")) {
+            writer.write("1 NAME John /Smith" + person.id + "/\n");
+         }
+         writer.write("1 SEX " + person.sex + "\n");
+         for (String line : person.lines) {
+            writer.write(line + "\n");
+         }
+      }
+      writer.write(families.toString());
+      writer.write("0 TRLR\n");
+      writer.close();
+   }
+
+   private Gedcom parse() throws Exception {
+      // the GEDCOM has no places, so no uploader is needed
+      return new Gedcom(null, file.getAbsolutePath(), "test", null, null, 1, false, false, new StringBuffer());
+   }
+
+   private String setLiving(int numThreads) throws Exception {
+      Gedcom gedcom = parse();
+      Person.setLiving(gedcom, numThreads);
+      StringBuilder buf = new StringBuilder();
+      buf.append("warnings=").append(gedcom.getNumWarnings()).append('\n');
+      for (Person person : gedcom.getPeople().values()) {
+         buf.append(person.getID()).append(' ').append(person.getLiving()).append('\n');
+         for (String[] issue : person.getIssueRows()) {
+            buf.append("  ").append(Arrays.asList(issue)).append('\n');
+         }
+      }
+      return buf.toString();
+   }
+
+   private static String getStatuses(Gedcom gedcom) {
+      StringBuilder buf = new StringBuilder();
+      for (Person person : gedcom.getPeople().values()) {
+         buf.append(person.getID()).append(' ').append(person.getLiving()).append('\n');
+      }
+      return buf.toString();
+   }
+
+   private static void markFamilyMembersLiving(Gedcom gedcom, Set<String> famIDs, boolean includeSpouses) {
+      for (String famID : famIDs) {
+         Family fam = gedcom.getFamilies().get(famID);
+         List<String> memberIDs = new ArrayList<String>();
+         if (includeSpouses) {
+            memberIDs.addAll(fam.getSpouses());
+         }
+         for (Family.Child child : fam.getChildren()) {
+            memberIDs.add(child.getId());
+         }
+         for (String memberID : memberIDs) {
+            Person member = gedcom.getPeople().get(memberID);
+            if (member.getLiving() == Person.LivingStatus.UNKNOWN) {
+               member.setLiving(Person.LivingStatus.LIVING);
+            }
+         }
+      }
+   }
+
+   // The second pass as it was before it kept a list of the people left to visit: sweep through everyone
+   // until a sweep finds nobody newly living, then mark the people still unknown dead
+   private String setLivingBySweeping() throws Exception {
+      Gedcom gedcom = parse();
+      for (Person person : gedcom.getPeople().values()) {
+         if (person.getName() != null && "Living".equals(person.getName().getGiven())) {
+            person.setLiving(Person.LivingStatus.LIVING);
+         }
+      }
+      Set<String> livingIds = new HashSet<String>();
+      boolean foundLiving = true;
+      while (foundLiving) {
+         foundLiving = false;
+         for (Person person : gedcom.getPeople().values()) {
+            if (person.getLiving() == Person.LivingStatus.LIVING && livingIds.add(person.getID())) {
+               foundLiving = true;
+               markFamilyMembersLiving(gedcom, person.getChildOfFamilies(), false);
+               markFamilyMembersLiving(gedcom, person.getSpouseOfFamilies(), true);
+            }
+         }
+      }
+      for (Person person : gedcom.getPeople().values()) {
+         if (person.getLiving() == Person.LivingStatus.UNKNOWN) {
+            person.setLiving(Person.LivingStatus.DEAD);
+         }
+      }
+      return getStatuses(gedcom);
+   }
+
+   private String getStatuses(int numThreads) throws Exception {
+      Gedcom gedcom = parse();
+      Person.setLiving(gedcom, numThreads);
+      return getStatuses(gedcom);
+   }
+
+   public void testParallelFirstPass() throws Exception {
+      writeGedcom();
+      String inOrder = setLiving(1);
+      assertEquals(inOrder, setLiving(THREADS));
+      // setLiving leaves nobody unknown, and some of the people are living
+      assertFalse(inOrder.contains(" " + Person.LivingStatus.UNKNOWN + "\n"));
+      assertTrue(inOrder.contains(" " + Person.LivingStatus.LIVING + "\n"));
+   }
+
+   public void testLivingChain() throws Exception {
+      List<String> living = new ArrayList<String>();
+      List<String> dead = new ArrayList<String>();
+      writeChain(living, dead);
+      String swept = setLivingBySweeping();
+      assertEquals(swept, getStatuses(1));
+      assertEquals(swept, getStatuses(THREADS));
+      // living status spreads to siblings and spouses but not up to parents
+      for (String id : living) {
+         assertTrue(id, swept.contains(id + " " + Person.LivingStatus.LIVING + "\n"));
+      }
+      for (String id : dead) {
+         assertTrue(id, swept.contains(id + " " + Person.LivingStatus.DEAD + "\n"));
+      }
+   }
+}
@@ -0,0 +1,154 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that parsing the records of a memory-mapped GEDCOM in parallel chunks gives the same GEDCOM
+ * as parsing it in order, and logs the same lines in the same order
+ */
+public class TestParallelParse extends TestCase {
+   private static final int THREADS = 3;
+   private static final int PEOPLE = 300;
+
+   private static class LogLines extends AbstractAppender {
+      private final List<String> lines = new ArrayList<String>();
+
+      LogLines() {
+         super("TestParallelParse", null, null, true, Property.EMPTY_ARRAY);
+      }
+
+      public synchronized void append(LogEvent event) {
+         lines.add(event.getLevel() + " " + event.getMessage().getFormattedMessage());
+      }
+
+      synchronized List<String> take() {
+         List<String> rval = new ArrayList<String>(lines);
+         lines.clear();
+         return rval;
+      }
+   }
+
+   // the parser logs the lines that aren't standard GEDCOM to its own logger
+   private static final String[] LOGGERS = {"org.werelate.gedcom.Gedcom", "org.lm.gedml.GedcomParser"};
+
+   private File file;
+   private Logger[] loggers;
+   private Level[] oldLevels;
+   private LogLines log;
+
+   protected void setUp() throws Exception {
+      super.setUp();
+      file = File.createTempFile("parallel", ".ged");
+      log = new LogLines();
+      log.start();
+      loggers = new Logger[LOGGERS.length];
+      oldLevels = new Level[LOGGERS.length];
+      for (int i = 0; i < LOGGERS.length; i++) {
+         loggers[i] = (Logger) LogManager.getLogger(LOGGERS[i]);
+         oldLevels[i] = loggers[i].getLevel();
+         loggers[i].addAppender(log);
+         loggers[i].setAdditive(false);
+      }
+      // setAdditive updates the other loggers, which would lose a level set before it
+      for (Logger logger : loggers) {
+         logger.setLevel(Level.ALL);
+      }
+   }
+
+   protected void tearDown() throws Exception {
+      for (int i = 0; i < LOGGERS.length; i++) {
+         loggers[i].removeAppender(log);
+         loggers[i].setAdditive(true);
+         loggers[i].setLevel(oldLevels[i]);
+      }
+      log.stop();
+      file.delete();
+      super.tearDown();
+   }
+
+   // People in families of two with a child, citing sources that are repeated under different IDs,
+   // with unexpected tags that are warned about and a line that isn't standard GEDCOM;
+   // brokenRecord is written in the middle of the records
+   private void writeGedcom(String brokenRecord) throws Exception {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      writer.write("0 HEAD\n1 SOUR Test\n1 CHAR UTF-8\n1 _SCHEMA\n2 INDI\n3 _MILT\n4 LABL Military\n");
+      for (int i = 1; i <= PEOPLE; i++) {
+         if (i == PEOPLE / 2) {
+            writer.write(brokenRecord);
+         }
+         writer.write("0 @I" + i + "@ INDI\n");
+         writer.write("1 NAME John" + i + " /Smith" + (i % 7) + "/\n");
+         writer.write("1 SEX " + (i % 3 == 0 ? "M" : "F") + "\n");
+         writer.write("1 BIRT\n2 DATE " + (1800 + i % 90) + "\n2 SOUR @S" + (i % 11) + "@\n3 PAGE p. " + i + "\n");
+         writer.write("1 _MILT Served " + i + "\n");
+         writer.write("1 NOTE First line of note " + i + "\n2 CONT second line\n2 CONC  continued\n");
+         if (i == PEOPLE / 3) {
+            writer.write("a line without a level\n");
+         }
+         writer.write("1 _ZZZ unexpected " + i + "\n");
+         writer.write("1 FAMS @F" + ((i + 2) / 3) + "@\n");
+         if (i % 3 == 0) {
+            writer.write("1 FAMC @F" + (i / 3 + 1) + "@\n");
+         }
+      }
+      for (int i = 1; i <= PEOPLE / 3; i++) {
+         writer.write("0 @F" + i + "@ FAM\n");
+         writer.write("1 HUSB @I" + (3 * i - 2) + "@\n1 WIFE @I" + (3 * i - 1) + "@\n");
+         if (3 * i - 3 > 0) {
+            writer.write("1 CHIL @I" + (3 * i - 3) + "@\n2 _FREL Adopted\n");
+         }
+         writer.write("1 MARR\n2 DATE ABT " + (1820 + i % 60) + "\n2 _XYZ unexpected\n");
+      }
+      for (int i = 0; i < 11; i++) {
+         writer.write("0 @S" + i + "@ SOUR\n1 TITL Parish register " + (i % 4) + "\n1 AUTH Clerk\n");
+         writer.write("1 REPO @R1@\n");
+      }
+      writer.write("0 @R1@ REPO\n1 NAME County archive\n1 CALN 123\n2 MEDI Book\n");
+      writer.write("0 @N1@ NOTE A shared note\n1 CONT across lines\n");
+      writer.write("0 TRLR\n");
+      writer.close();
+   }
+
+   private String parse(boolean inParallel) throws Exception {
+      Gedcom gedcom = new Gedcom(null, file.getAbsolutePath(), "test", null, null, 1, false, false,
+            new StringBuffer(), inParallel, (inParallel ? THREADS : 1));
+      return GedcomSummary.summarize(gedcom);
+   }
+
+   private void assertSameAsInOrder(String brokenRecord) throws Exception {
+      writeGedcom(brokenRecord);
+      String inOrder = parse(false);
+      List<String> inOrderLog = log.take();
+      String inParallel = parse(true);
+      List<String> inParallelLog = log.take();
+      assertEquals(inOrder, inParallel);
+      assertEquals(inOrderLog, inParallelLog);
+      // every person and family has a tag that is warned about
+      assertTrue(inOrderLog.size() > PEOPLE + PEOPLE / 3);
+      assertTrue(inOrderLog.contains(
+            "INFO Line does not appear to be valid, so we will append to tag above: a line without a level"));
+   }
+
+   public void testParallelParse() throws Exception {
+      assertSameAsInOrder("");
+   }
+
+   public void testFallbackToParseInOrder() throws Exception {
+      // The image of a note is never added to anything, so the handler doesn't end the chunk
+      // in the state it starts the next one in and the file is parsed in order
+      assertSameAsInOrder("0 @I0@ INDI\n1 NAME Image /Note/\n1 NOTE With an image\n2 OBJE\n1 _ZZZ unexpected\n");
+   }
+}
@@ -0,0 +1,51 @@
+package org.werelate.gedcom;
+
+import junit.framework.TestCase;
+import org.werelate.util.EventDate;
+
+public class TestParsedDate extends TestCase {
+   private static final String[] DATES = {"ABT 1850", "1900", "5 Jan 1900", "BET 1820 AND 1830", "", null};
+
+   public void testSameAsEventDate() {
+      ParsedDate.Cache dates = new ParsedDate.Cache();
+      for (int i = 0; i < DATES.length; i++) {
+         EventDate eventDate = new EventDate(DATES[i]);
+         ParsedDate parsed = dates.get(DATES[i]);
+         assertEquals(eventDate.getMinDay(), parsed.getMinDay());
+         assertEquals(eventDate.getMaxDay(), parsed.getMaxDay());
+         assertEquals(eventDate.getDateSortKey(), parsed.getDateSortKey());
+      }
+   }
+
+   public void testEditedForEventType() {
+      EventDate eventDate = new EventDate("ABT 1850", "Birth");
+      boolean isValid = eventDate.editDate();
+      ParsedDate parsed = new ParsedDate.Cache().get("ABT 1850", "Birth");
+      assertEquals(isValid, parsed.editDate());
+      assertEquals(eventDate.getDateSortKey(), parsed.getDateSortKey());
+      assertEquals(eventDate.getMinDay(), parsed.getMinDay());
+   }
+
+   public void testRepeatedDatesAreCached() {
+      ParsedDate.Cache dates = new ParsedDate.Cache();
+      ParsedDate first = dates.get("ABT 1776");
+      assertSame(first, dates.get("ABT 1776"));
+      assertNotSame(first, dates.get("ABT 1776", "Birth"));
+      assertSame(dates.get(null), dates.get(null));
+      assertNotSame(dates.get(null), dates.get(""));
+      assertEquals(3, dates.getHits());
+      assertEquals(4, dates.getMisses());
+   }
+
+   public void testEachGedcomCountsItsOwnLookups() {
+      ParsedDate.Cache first = new ParsedDate.Cache();
+      ParsedDate.Cache second = new ParsedDate.Cache();
+      first.get("1900");
+      first.get("1900");
+      second.get("1900");
+      assertEquals(1, first.getHits());
+      assertEquals(1, first.getMisses());
+      assertEquals(0, second.getHits());
+      assertEquals(1, second.getMisses());
+   }
+}
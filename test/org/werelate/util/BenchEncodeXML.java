@@ -0,0 +1,48 @@
+package org.werelate.util;
+
+/**
+ * Compares Utils.encodeXML and unencodeXML with the replace passes they replaced, on typical note text
+ */
+public class BenchEncodeXML {
+   private static final String[] NOTES = {
+         "John was a farmer in Rockingham County, Virginia.",
+         "Buried in the family plot behind the old church; the stone reads \"Beloved Mother\".",
+         "Information from the 1850 census, household of Wm. Smith & family, p. 23.",
+         "Moved to Ohio around 1830 with his brother's family.",
+         "Married at the home of the bride's parents <per newspaper notice>.",
+         "Served in Co. B, 3rd Regiment, Virginia Militia, War of 1812.",
+         "Name spelled Smyth in some records.",
+         "Will dated 12 Mar 1855, probated 3 Apr 1855, Book C page 114.",
+   };
+
+   public static void main(String[] args) throws Exception {
+      final String[] encoded = new String[NOTES.length];
+      for (int i = 0; i < NOTES.length; i++) {
+         encoded[i] = Utils.encodeXML(NOTES[i]);
+      }
+      Benchmark.time("encodeXML with replaces", NOTES.length * 50000, new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return TestEncodeXML.encodeXMLWithReplaces(NOTES[next++ % NOTES.length]).length();
+         }
+      });
+      Benchmark.time("encodeXML", NOTES.length * 50000, new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return Utils.encodeXML(NOTES[next++ % NOTES.length]).length();
+         }
+      });
+      Benchmark.time("unencodeXML with replaces", NOTES.length * 50000, new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return TestEncodeXML.unencodeXMLWithReplaces(encoded[next++ % encoded.length]).length();
+         }
+      });
+      Benchmark.time("unencodeXML", NOTES.length * 50000, new Benchmark.Task() {
+         int next = 0;
+         public Object run() throws Exception {
+            return Utils.unencodeXML(encoded[next++ % encoded.length]).length();
+         }
+      });
+   }
+}
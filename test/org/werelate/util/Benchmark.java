@@ -0,0 +1,67 @@
+package org.werelate.util;
+
+/**
+ * Minimal timing harness for the Bench* main programs in the test tree.
+ * Each task is warmed up before it is timed, and the best of several rounds is reported.
+ */
+public class Benchmark {
+   private static final int WARMUP_ROUNDS = 5;
+   private static final int ROUNDS = 10;
+
+   public interface Task {
+      /**
+       * Runs one operation; the return value is accumulated so that the JIT cannot drop the work
+       */
+      public Object run() throws Exception;
+   }
+
+   private static int sink = 0;
+
+   /**
+    * Times the task and prints the best nanoseconds per operation
+    * @param name label to print
+    * @param opsPerRound number of times the task is run per round
+    * @param task task to time
+    * @return best nanoseconds per operation
+    */
+   public static double time(String name, int opsPerRound, Task task) throws Exception {
+      return time(name, opsPerRound, WARMUP_ROUNDS, ROUNDS, task);
+   }
+
+   /**
+    * Times the task with the given number of rounds, for tasks too slow to run the usual number of times
+    * @param name label to print
+    * @param opsPerRound number of times the task is run per round
+    * @param warmupRounds number of rounds to run before timing
+    * @param rounds number of rounds to time
+    * @param task task to time
+    * @return best nanoseconds per operation
+    */
+   public static double time(String name, int opsPerRound, int warmupRounds, int rounds, Task task) throws Exception {
+      for (int round = 0; round < warmupRounds; round++) {
+         runRound(opsPerRound, task);
+      }
+      long best = Long.MAX_VALUE;
+      for (int round = 0; round < rounds; round++) {
+         best = Math.min(best, runRound(opsPerRound, task));
+      }
+      double nsPerOp = (double) best / opsPerRound;
+      System.out.println(String.format("%-40s %12.1f ns/op", name, nsPerOp));
+      return nsPerOp;
+   }
+
+   private static long runRound(int ops, Task task) throws Exception {
+      long start = System.nanoTime();
+      for (int i = 0; i < ops; i++) {
+         Object result = task.run();
+         if (result != null) {
+            sink += result.hashCode();
+         }
+      }
+      return System.nanoTime() - start;
+   }
+
+   public static int getSink() {
+      return sink;
+   }
+}
@@ -0,0 +1,62 @@
+package org.werelate.util;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks that Utils.encodeXML and unencodeXML give the same results as the replace passes they replaced
+ */
+public class TestEncodeXML extends TestCase {
+   private static final String[][] XML_CHARS = {
+      {"&", "&amp;"},
+      {"<", "&lt;"},
+      {">", "&gt;"},
+      {"\"", "&quot;"},
+      {"'", "&apos;"},
+   };
+
+   private static final String[] FRAGMENTS = {
+         "a", "Smith", " ", "\n", "&", "<", ">", "\"", "'", ";", "amp", "lt", "&amp;", "&lt;", "&gt;", "&quot;",
+         "&apos;", "&amp", "&q", "&#39;", "é",
+   };
+
+   // Utils.encodeXML before it was a single scan
+   static String encodeXMLWithReplaces(String text) {
+      for (int i=0; i < XML_CHARS.length; i++) {
+         text = text.replace(XML_CHARS[i][0], XML_CHARS[i][1]);
+      }
+      return text;
+   }
+
+   // Utils.unencodeXML before it was a single scan
+   static String unencodeXMLWithReplaces(String text) {
+      for (int i=XML_CHARS.length-1; i >= 0; i--) {
+         text = text.replace(XML_CHARS[i][1], XML_CHARS[i][0]);
+      }
+      return text;
+   }
+
+   public void testUnchanged() {
+      String text = "John Smith was born in 1850";
+      assertSame(text, Utils.encodeXML(text));
+      assertSame(text, Utils.unencodeXML(text));
+      text = "R&D";
+      assertSame(text, Utils.unencodeXML(text));
+   }
+
+   public void testRandomFragments() {
+      Random random = new Random(19);
+      for (int n = 0; n < 20000; n++) {
+         StringBuilder buf = new StringBuilder();
+         int fragments = random.nextInt(12);
+         for (int i = 0; i < fragments; i++) {
+            buf.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+         }
+         String text = buf.toString();
+         assertEquals(encodeXMLWithReplaces(text), Utils.encodeXML(text));
+         assertEquals(unencodeXMLWithReplaces(text), Utils.unencodeXML(text));
+         assertEquals(text, Utils.unencodeXML(Utils.encodeXML(text)));
+      }
+   }
+}
@@ -0,0 +1,97 @@
+package org.werelate.util;
+
+import junit.framework.TestCase;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+import java.util.Random;
+
+/**
+ * Checks that NodeWriter writes the same XML as the identity Transformer it replaced
+ */
+public class TestNodeWriter extends TestCase {
+   private static final String[] FRAGMENTS = {
+         "a", "Smith", " ", "\n", "\t", "\r", "&", "<", ">", "\"", "'", "]", "]]", "]]>", "-", "--", "&amp;",
+         "\u0001", "\u001f", "\u007f", "\u0085", "\u00a0", "\u00e9", "\u2028", "\ufffd", "\ud83d\ude00",
+   };
+
+   private Document doc;
+   private Transformer transformer;
+   private Random random;
+
+   protected void setUp() throws Exception {
+      doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+      transformer = TransformerFactory.newInstance().newTransformer();
+      random = new Random(23);
+   }
+
+   private String randomText() {
+      StringBuilder buf = new StringBuilder();
+      int fragments = random.nextInt(6);
+      for (int i = 0; i < fragments; i++) {
+         buf.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      }
+      return buf.toString();
+   }
+
+   private Element randomElement(int depth) {
+      Element element = doc.createElement("e" + random.nextInt(3));
+      int atts = random.nextInt(4);
+      for (int i = 0; i < atts; i++) {
+         element.setAttribute("a" + random.nextInt(5), randomText());
+      }
+      int children = (depth < 3 ? random.nextInt(5) : 0);
+      for (int i = 0; i < children; i++) {
+         switch (random.nextInt(5)) {
+            case 0:
+               element.appendChild(randomElement(depth + 1));
+               break;
+            case 1:
+               element.appendChild(doc.createCDATASection(randomText()));
+               break;
+            case 2:
+               element.appendChild(doc.createComment(randomText()));
+               break;
+            case 3:
+               element.appendChild(doc.createProcessingInstruction("pi", randomText()));
+               break;
+            default:
+               element.appendChild(doc.createTextNode(randomText()));
+               break;
+         }
+      }
+      return element;
+   }
+
+   private String transform(Node node) throws Exception {
+      StringWriter out = new StringWriter();
+      transformer.transform(new DOMSource(node), new StreamResult(out));
+      return out.toString();
+   }
+
+   private static String write(Node node) throws Exception {
+      StringBuilder buf = new StringBuilder();
+      NodeWriter.write(node, buf);
+      return buf.toString();
+   }
+
+   public void testRandomElements() throws Exception {
+      for (int n = 0; n < 2000; n++) {
+         Element element = randomElement(0);
+         assertEquals(transform(element), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + write(element));
+      }
+   }
+
+   public void testDocument() throws Exception {
+      doc.appendChild(doc.createComment(" inprocess "));
+      doc.appendChild(randomElement(0));
+      assertEquals(transform(doc), NodeWriter.XML_DECLARATION + write(doc));
+   }
+}
@@ -0,0 +1,87 @@
+package org.werelate.util;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Random;
+
+/**
+ * Checks that Utils.prepareWikiTitle gives the same titles as the regular expressions it replaced
+ */
+public class TestPrepareWikiTitle extends TestCase {
+   private static final String[] TITLES = {
+         "", " ", "john smith", "John Smith and Mary Jones", "user/1850 U.S. Census",
+         "http://www.ancestry.com/search?name=smith&x=1", "hthttp://tp://x", "https://a//b///c",
+         "<i>Italic</i> <b>bold</b> <strong>x</strong><em>y</em> <u>z</u> <p>para</p> <I>upper</I>",
+         "<<i>i>", "</ i>", "<//i>", "[Smith] {Jones} <Brown>", "a#b?c+d_e|f=g&h%i",
+         "50%25 off", "bad %zz escape", "tab\tnew\nline\r\u000Bform\f", "  ././/leading", "trailing . ",
+         "a \u0001 b", "\u0001\u0002x", "אHebrew اArabic � \u007F", "ßtraße", "émile", "ǆemal",
+   };
+
+   private static final String[] FRAGMENTS = {
+         "a", "B", "ß", "é", " ", "  ", "\t", "\n", "/", "//", ".", "<", ">", "<i>", "</b>", "<em>", "</strong>",
+         "[", "]", "{", "}", "#", "?", "+", "_", "|", "=", "&", "%", "%20", "%C3%A9", "%zz", "http://", "https://",
+         "\u0001", "א", "�", "Smith", "and",
+   };
+
+   // Utils.prepareWikiTitle before it was rewritten as a single pass
+   static String prepareWikiTitleWithPatterns(String title, int maxTitleLen) {
+      try {
+         try {
+            title = URLDecoder.decode(title, "UTF-8");
+         }
+         catch (IllegalArgumentException e) {
+            // ignore
+         }
+         title = title.replace("http://", "").replace("https://", "").replaceAll("</?(i|b|u|strong|em)>", "").
+                 replace('<','(').replace('[','(').replace('{','(').replace('>',')').replace(']',')').replace('}', ')').
+                       replaceAll("[#?+_|=&%]", " ").replaceAll("\\s+", " ").replaceAll("//+", "/").trim();
+         while (title.length() > 0 && (title.charAt(0) == '.' || title.charAt(0) == '/')) {
+            title = title.substring(1);
+         }
+         if (title.length() > maxTitleLen) {
+            title = title.substring(0, maxTitleLen);
+         }
+         StringBuffer dest = new StringBuffer();
+         for (int i = 0; i < title.length(); i++) {
+            char c = title.charAt(i);
+            if ((int)c >= 32 && c != 0xFFFD &&
+               !(c == 0x007F) &&
+               !(c >= 0x0590 && c <= 0x05FF) && !(c >= 0xFB00 && c <= 0xFB4F) &&
+               !(c >= 0x0600 && c <= 0x06FF) && !(c >= 0x0750 && c <= 0x077F) && !(c >= 0xFB50 && c <= 0xFC3F) && !(c >= 0xFE70 && c <= 0xFEFF)
+            ) {
+               dest.append(c);
+            }
+         }
+         title = dest.toString();
+         return Utils.uppercaseFirstLetter(title);
+      } catch (UnsupportedEncodingException e) {
+         throw new RuntimeException("Unsupported encoding: UTF-8");
+      }
+   }
+
+   private static void assertSameTitle(String title, int maxTitleLen) {
+      assertEquals("title \"" + title + "\"", prepareWikiTitleWithPatterns(title, maxTitleLen),
+            Utils.prepareWikiTitle(title, maxTitleLen));
+   }
+
+   public void testTitles() {
+      for (String title : TITLES) {
+         assertSameTitle(title, Utils.MAX_TITLE_LEN);
+         assertSameTitle(title, 5);
+      }
+   }
+
+   public void testRandomFragments() {
+      Random random = new Random(17);
+      for (int n = 0; n < 20000; n++) {
+         StringBuilder buf = new StringBuilder();
+         int fragments = 1 + random.nextInt(12);
+         for (int i = 0; i < fragments; i++) {
+            buf.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+         }
+         assertSameTitle(buf.toString(), 1 + random.nextInt(20));
+      }
+   }
+}